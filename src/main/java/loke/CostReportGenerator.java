@@ -1,40 +1,95 @@
 package loke;
 
 import loke.aws.db.AthenaClient;
+import loke.chart.ChartRenderer;
+import loke.journal.FingerprintStore;
+import loke.journal.FirstSeenIndex;
 import loke.model.Employee;
+import loke.model.OwnerSpend;
 import loke.model.Report;
+import loke.model.SpendFingerprint;
+import loke.render.OwnerSpendTable;
 import loke.service.*;
-import loke.utils.ColorPicker;
+import loke.utils.CostFormatter;
+import loke.utils.ReportWindow;
 import loke.utils.SqlConfigInjector;
+import loke.utils.TopK;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public class CostReportGenerator {
+    private static final String ORGANIZATION = "organization";
+    private static final String OTHER_OWNERS = "other owners";
     private Logger log = LogManager.getLogger(CostReportGenerator.class);
+    private CostFormatter costFormatter = new CostFormatter(2);
     private List<Service> employeeServices;
     private List<Service> adminServices;
+    private ForkJoinPool renderPool;
+    private Map<Service, Map<String, Report>> sharedReports = new HashMap<>();
+    private Set<Service> fetchedServices = new HashSet<>();
+    private FingerprintStore fingerprintStore;
+    private double minChangePercent;
+    private Set<String> suppressedOwners = ConcurrentHashMap.newKeySet();
+    private Map<String, SpendFingerprint> unsentFingerprints = new ConcurrentHashMap<>();
+    private AtomicInteger sentFingerprints = new AtomicInteger();
+    private SpendPerEmployeeByResource spendPerEmployeeByResource;
+    private SpendPerEmployeeByAccount spendPerEmployeeByAccount;
+    private ResourceStartedLastWeek resourceStartedLastWeek;
+    private TotalSpendPerEmployee totalSpendPerEmployee;
+    private int adminTopSpenders;
+    private int adminTopMovers;
+    private boolean concurrentFetches;
+    private ExecutorService fetchExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "service-fetch");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public CostReportGenerator(AthenaClient athenaClient, String userOwnerRegExp, double generateReportThreshold,
-                               Map<String, String> csvAccounts, SqlConfigInjector configInjector) {
+                               Map<String, String> csvAccounts, SqlConfigInjector configInjector,
+                               ForkJoinPool renderPool, boolean precompiledTemplates) {
         this.employeeServices = new ArrayList<>();
         this.adminServices = new ArrayList<>();
+        this.renderPool = renderPool;
 
-        TotalSpendPerEmployee totalSpendPerEmployee = new TotalSpendPerEmployee(athenaClient, userOwnerRegExp,
-                generateReportThreshold, new ColorPicker(), configInjector);
+        this.totalSpendPerEmployee = new TotalSpendPerEmployee(athenaClient, userOwnerRegExp,
+                generateReportThreshold, configInjector);
 
-        SpendPerEmployeeByResource spendPerEmployeeByResource = new SpendPerEmployeeByResource(athenaClient,
-                userOwnerRegExp, generateReportThreshold, new ColorPicker(), configInjector);
+        this.spendPerEmployeeByResource = new SpendPerEmployeeByResource(athenaClient,
+                userOwnerRegExp, generateReportThreshold, configInjector);
 
-        SpendPerEmployeeByAccount spendPerEmployeeByAccount = new SpendPerEmployeeByAccount(athenaClient, userOwnerRegExp,
-                generateReportThreshold, csvAccounts, new ColorPicker(), configInjector);
+        this.spendPerEmployeeByAccount = new SpendPerEmployeeByAccount(athenaClient, userOwnerRegExp,
+                generateReportThreshold, csvAccounts, configInjector);
 
-        ResourceStartedLastWeek resourceStartedLastWeek = new ResourceStartedLastWeek(athenaClient, userOwnerRegExp,
+        this.resourceStartedLastWeek = new ResourceStartedLastWeek(athenaClient, userOwnerRegExp,
                 csvAccounts, configInjector);
 
+        spendPerEmployeeByResource.setPrecompiledTemplates(precompiledTemplates);
+        spendPerEmployeeByAccount.setPrecompiledTemplates(precompiledTemplates);
+        resourceStartedLastWeek.setPrecompiledTemplates(precompiledTemplates);
+
         this.employeeServices.add(spendPerEmployeeByResource);
         this.employeeServices.add(spendPerEmployeeByAccount);
         this.employeeServices.add(resourceStartedLastWeek);
@@ -43,28 +98,367 @@ public class CostReportGenerator {
         this.adminServices.add(spendPerEmployeeByAccount);
     }
 
+    /**
+     * Limits the number of rows in each report, the rest is rolled into an Other row. 0 keeps every row.
+     */
+    public void setMaxRowsPerReport(int maxResources, int maxAccounts, int maxStartedResources) {
+        spendPerEmployeeByResource.setMaxResources(maxResources);
+        spendPerEmployeeByAccount.setMaxAccounts(maxAccounts);
+        resourceStartedLastWeek.setMaxResources(maxStartedResources);
+    }
+
+    /**
+     * Renders the charts of every report with the renderer instead of as Google Chart urls.
+     */
+    public void setChartRenderer(ChartRenderer chartRenderer) {
+        totalSpendPerEmployee.setChartRenderer(chartRenderer);
+        spendPerEmployeeByResource.setChartRenderer(chartRenderer);
+        spendPerEmployeeByAccount.setChartRenderer(chartRenderer);
+    }
+
+    /**
+     * Fetches the data of the services at the same time instead of one after the other. Only worth it with a backend
+     * that does not hold a connection per running query, such as AthenaApiBackend.
+     */
+    public void setConcurrentFetches(boolean concurrentFetches) {
+        this.concurrentFetches = concurrentFetches;
+    }
+
+    /**
+     * Downsamples the lines of the charts to at most maxPoints points, the same points for every line of a chart. 0
+     * draws every day.
+     */
+    public void setChartMaxPoints(int maxPoints) {
+        totalSpendPerEmployee.setChartMaxPoints(maxPoints);
+        spendPerEmployeeByResource.setChartMaxPoints(maxPoints);
+        spendPerEmployeeByAccount.setChartMaxPoints(maxPoints);
+    }
+
+    /**
+     * Replaces the admin report, which has a section for every owner, with a digest: a chart and table for the whole
+     * organization, sections for the topSpenders owners with the highest spend and the topMovers owners whose spend
+     * changed the most since the week before, and a single table for everyone else. 0 and 0 keeps the full report.
+     */
+    public void setAdminDigest(int topSpenders, int topMovers) {
+        this.adminTopSpenders = topSpenders;
+        this.adminTopMovers = topMovers;
+    }
+
+    /**
+     * Finds the started resources with the first seen index instead of a query over the whole table. The updated
+     * index is only saved if saveIndex is true.
+     */
+    public void setFirstSeenIndex(FirstSeenIndex firstSeenIndex, boolean saveIndex) {
+        resourceStartedLastWeek.setFirstSeenIndex(firstSeenIndex, saveIndex);
+    }
+
+    /**
+     * Skips the employee reports of owners whose spend changed less than minChangePercent percent since the last
+     * report they were sent, see {@link SpendFingerprint}. Their reports are still part of the admin reports.
+     */
+    public void setSuppression(FingerprintStore fingerprintStore, double minChangePercent) {
+        this.fingerprintStore = fingerprintStore;
+        this.minChangePercent = minChangePercent;
+    }
+
+    /**
+     * Records the fingerprint of the report generated for the owner in this run, once SES has accepted the email with
+     * it. An owner whose email was never sent is not suppressed next time.
+     */
+    public void confirmSent(String owner) {
+        SpendFingerprint fingerprint = unsentFingerprints.remove(owner);
+        if (fingerprint != null) {
+            fingerprintStore.put(owner, fingerprint);
+            sentFingerprints.incrementAndGet();
+        }
+    }
+
+    /**
+     * Saves the fingerprints of the reports confirmed sent in this run. Call it once the emails are sent.
+     */
+    public void saveFingerprints() {
+        if (fingerprintStore != null && sentFingerprints.get() > 0) {
+            fingerprintStore.save();
+        }
+    }
+
     public List<Employee> generateReports() {
+        if (fingerprintStore != null) {
+            List<Employee> employees = new ArrayList<>();
+            generateReports(employees::add);
+            return employees;
+        }
         log.info("Generating employee-reports");
         List<Report> employeeReports = getReports(this.employeeServices);
         log.info("Total employee-reports generated: {}", employeeReports.size());
         return orderChartsByUser(employeeReports);
     }
 
+    /**
+     * Generates the employee reports one employee at a time, handing each finished employee to the consumer as soon
+     * as all of its reports are rendered.
+     *
+     * @return the number of employees handed to the consumer
+     */
+    public int generateReports(Consumer<Employee> consumer) {
+        log.info("Generating employee-reports");
+        Set<String> owners = new LinkedHashSet<>();
+        fetchAll(this.employeeServices);
+        for (Service service : this.employeeServices) {
+            owners.addAll(service.getOwners());
+            if (this.adminServices.contains(service)) {
+                sharedReports.put(service, new ConcurrentHashMap<>());
+            }
+        }
+
+        // Render a few owners per worker at a time, so that a consumer blocking on a full queue also stops rendering
+        List<String> ownerList = fingerprintStore != null ? suppressUnchanged(owners) : new ArrayList<>(owners);
+        int batchSize = renderPool.getParallelism() * 4;
+        int generated = 0;
+        for (int from = 0; from < ownerList.size(); from += batchSize) {
+            List<String> batch = ownerList.subList(from, Math.min(from + batchSize, ownerList.size()));
+            List<Employee> employees = render(() -> batch.parallelStream()
+                    .map(this::createEmployee)
+                    .collect(Collectors.toList()));
+            for (Employee employee : employees) {
+                if (!employee.getReports().isEmpty()) {
+                    consumer.accept(employee);
+                    generated++;
+                }
+            }
+        }
+        log.info("Total employees with reports generated: {}", generated);
+        return generated;
+    }
+
+    private List<String> suppressUnchanged(Set<String> owners) {
+        List<String> changed = new ArrayList<>();
+        for (String owner : owners) {
+            SpendFingerprint fingerprint = new SpendFingerprint();
+            for (Service service : this.employeeServices) {
+                service.addToFingerprint(owner, fingerprint);
+            }
+            SpendFingerprint previous = fingerprintStore.get(owner);
+            if (previous != null && fingerprint.isUnchangedSince(previous, minChangePercent)) {
+                log.info("Spend for: {} changed less than {}%, report suppressed", owner, minChangePercent);
+                suppressedOwners.add(owner);
+            } else {
+                unsentFingerprints.put(owner, fingerprint);
+                changed.add(owner);
+            }
+        }
+        log.info("Reports suppressed for {} of {} owners", suppressedOwners.size(), owners.size());
+        return changed;
+    }
+
+    private Employee createEmployee(String owner) {
+        Employee employee = new Employee(owner);
+        for (Service service : this.employeeServices) {
+            Report report = service.getReport(owner);
+            if (report != null) {
+                employee.addReport(report);
+                Map<String, Report> shared = sharedReports.get(service);
+                if (shared != null) {
+                    shared.put(owner, report);
+                }
+            }
+        }
+        return employee;
+    }
+
     public List<Employee> generateAdminReports() {
+        if (adminTopSpenders > 0 || adminTopMovers > 0) {
+            return generateAdminDigest();
+        }
         log.info("Generating admin-reports");
         List<Report> adminReports = getReports(this.adminServices);
         log.info("Admin-reports generated: {}", adminReports.size());
         return orderChartsByUser(adminReports);
     }
 
+    private List<Employee> generateAdminDigest() {
+        log.info("Generating admin digest for the top {} spenders and top {} movers", adminTopSpenders,
+                adminTopMovers);
+        fetchAll(adminServices);
+        List<OwnerSpend> ownerSpends = totalSpendPerEmployee.getOwnerSpends();
+
+        // One pass over the owners fills both heaps
+        TopK<OwnerSpend> topSpenders = new TopK<>(adminTopSpenders);
+        TopK<OwnerSpend> topMovers = new TopK<>(adminTopMovers);
+        for (OwnerSpend ownerSpend : ownerSpends) {
+            if (adminTopSpenders > 0) {
+                topSpenders.offer(ownerSpend, ownerSpend.getTotal());
+            }
+            if (adminTopMovers > 0) {
+                topMovers.offer(ownerSpend, Math.abs(ownerSpend.getWeekOverWeekChange()));
+            }
+        }
+        Map<String, OwnerSpend> selected = new LinkedHashMap<>();
+        for (OwnerSpend ownerSpend : topSpenders.getTop()) {
+            selected.put(ownerSpend.getOwner(), ownerSpend);
+        }
+        for (OwnerSpend ownerSpend : topMovers.getTop()) {
+            selected.putIfAbsent(ownerSpend.getOwner(), ownerSpend);
+        }
+        List<OwnerSpend> others = ownerSpends.stream()
+                .filter(ownerSpend -> !selected.containsKey(ownerSpend.getOwner()))
+                .sorted((o1, o2) -> Double.compare(o2.getTotal(), o1.getTotal()))
+                .collect(Collectors.toList());
+
+        List<Employee> digest = new ArrayList<>();
+        Employee organization = new Employee(ORGANIZATION);
+        organization.addReport(totalSpendPerEmployee.getOrganizationReport(ORGANIZATION));
+        organization.addReport(createOwnerSpendReport(ORGANIZATION, "Top spenders and movers",
+                new ArrayList<>(selected.values())));
+        digest.add(organization);
+        digest.addAll(orderChartsByUser(getDigestReports(new ArrayList<>(selected.keySet()))));
+        if (!others.isEmpty()) {
+            Employee otherOwners = new Employee(OTHER_OWNERS);
+            otherOwners.addReport(createOwnerSpendReport(OTHER_OWNERS, "All other owners", others));
+            digest.add(otherOwners);
+        }
+        log.info("Admin digest generated with sections for {} of {} owners", selected.size(), ownerSpends.size());
+        return digest;
+    }
+
+    /**
+     * Renders the admin reports of the selected owners only, grouped by owner in the order they were selected.
+     */
+    private List<Report> getDigestReports(List<String> owners) {
+        List<Map<String, Report>> sharedByService = new ArrayList<>();
+        for (Service service : this.adminServices) {
+            Map<String, Report> shared = sharedReports.get(service);
+            sharedByService.add(shared != null ? shared : new HashMap<>());
+        }
+        return render(() -> owners.parallelStream()
+                .flatMap(owner -> {
+                    List<Report> ownerReports = new ArrayList<>();
+                    for (int i = 0; i < adminServices.size(); i++) {
+                        Report report = sharedByService.get(i).get(owner);
+                        ownerReports.add(report != null ? report : adminServices.get(i).getReport(owner));
+                    }
+                    return ownerReports.stream();
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Fetches the data of the services, at the same time when concurrent fetches are set so that their queries run
+     * side by side in Athena. The services already fetched in this run are not queried again.
+     */
+    private void fetchAll(List<Service> services) {
+        List<Service> unfetched = services.stream()
+                .filter(service -> !fetchedServices.contains(service))
+                .collect(Collectors.toList());
+        if (!concurrentFetches) {
+            for (Service service : unfetched) {
+                service.fetchData();
+                fetchedServices.add(service);
+            }
+            return;
+        }
+        List<CompletableFuture<Void>> fetches = new ArrayList<>();
+        for (Service service : unfetched) {
+            fetches.add(CompletableFuture.runAsync(service::fetchData, fetchExecutor));
+        }
+        try {
+            for (CompletableFuture<Void> fetch : fetches) {
+                fetch.join();
+            }
+        } catch (CompletionException e) {
+            throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+        }
+        fetchedServices.addAll(unfetched);
+    }
+
+    private Report createOwnerSpendReport(String owner, String title, List<OwnerSpend> rows) {
+        StringBuilder htmlTable = new StringBuilder();
+        try {
+            ReportWindow reportWindow = totalSpendPerEmployee.getReportWindow();
+            OwnerSpendTable.render(title, rows, reportWindow.getDays(),
+                    reportWindow.getGranularity().getComparisonPeriod(), costFormatter, htmlTable);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to render the owner spend table: " + title, e);
+        }
+        Report report = new Report(owner);
+        report.setHtmlTable(htmlTable.toString());
+        return report;
+    }
+
     private List<Report> getReports(List<Service> services) {
         List<Report> reports = new ArrayList<>();
+        fetchAll(services);
         for (Service service : services) {
-            reports.addAll(service.getReports());
+            Map<String, Report> shared = sharedReports.get(service);
+            if (shared != null) {
+                log.info("Reusing {} reports already rendered by: {}", shared.size(),
+                        service.getClass().getSimpleName());
+                renderSuppressed(service, shared);
+                for (String owner : service.getOwners()) {
+                    Report report = shared.get(owner);
+                    if (report != null) {
+                        reports.add(report);
+                    }
+                }
+                continue;
+            }
+
+            List<String> owners = service.getOwners();
+            List<Report> serviceReports = render(() -> owners.parallelStream()
+                    .map(service::getReport)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList()));
+            reports.addAll(serviceReports);
+            if (this.employeeServices.contains(service) && this.adminServices.contains(service)) {
+                keepForAdminReports(service, serviceReports);
+            }
         }
         return reports;
     }
 
+    /**
+     * The admin reports include the owners whose employee reports were suppressed.
+     */
+    private void renderSuppressed(Service service, Map<String, Report> shared) {
+        List<String> missing = service.getOwners().stream()
+                .filter(owner -> suppressedOwners.contains(owner) && !shared.containsKey(owner))
+                .collect(Collectors.toList());
+        List<Report> reports = render(() -> missing.parallelStream()
+                .map(service::getReport)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        for (Report report : reports) {
+            shared.put(report.getOwner(), report);
+        }
+    }
+
+    /**
+     * Services that are used for both employee and admin reports only have to render their reports once.
+     */
+    private void keepForAdminReports(Service service, List<Report> reports) {
+        Map<String, Report> shared = new ConcurrentHashMap<>();
+        for (Report report : reports) {
+            shared.put(report.getOwner(), report);
+        }
+        sharedReports.put(service, shared);
+    }
+
+    /**
+     * Runs the rendering task on the render pool. Parallel streams started from inside the pool use its workers, and
+     * collecting them keeps the owners in their original order.
+     */
+    private <T> List<T> render(Callable<List<T>> task) {
+        try {
+            return renderPool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while rendering reports", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to render reports", e.getCause());
+        }
+    }
+
     private List<Employee> orderChartsByUser(List<Report> reports) {
         List<Employee> employees = new ArrayList<>();
         for (Report report : reports) {
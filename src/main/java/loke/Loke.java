@@ -3,28 +3,52 @@ package loke;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.services.athena.AmazonAthena;
+import com.amazonaws.services.athena.AmazonAthenaClientBuilder;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceClientBuilder;
 import loke.aws.S3Handler;
+import loke.aws.db.AthenaApiBackend;
 import loke.aws.db.AthenaClient;
+import loke.aws.db.QuerySplitter;
+import loke.chart.PngChartRenderer;
 import loke.config.AccountReader;
 import loke.config.Configuration;
 import loke.config.MalformedCSVException;
 import loke.config.YamlReader;
 import loke.email.AwsEmailSender;
 import loke.email.AwsSesHandler;
+import loke.email.Outbox;
+import loke.email.SesDispatcher;
+import loke.journal.FingerprintStore;
+import loke.journal.FirstSeenIndex;
+import loke.journal.RunJournal;
 import loke.model.Admin;
+import loke.model.CompactText;
 import loke.model.Employee;
+import loke.service.ReportWorkingTable;
+import loke.site.LocalSiteStorage;
+import loke.site.ReportSite;
+import loke.site.S3SiteStorage;
+import loke.site.SiteStorage;
+import loke.utils.BillingPartition;
+import loke.utils.CalendarGenerator;
+import loke.utils.ReportWindow;
+import loke.utils.ResourceLoader;
 import loke.utils.SqlConfigInjector;
 import loke.utils.ZipToGzUtility;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class Loke {
     private static final Logger log = LogManager.getLogger(Loke.class);
@@ -34,6 +58,10 @@ public class Loke {
     private CostReportGenerator costReportGenerator;
     private AwsEmailSender emailSender;
     private S3ZipToGzConverter s3ZipToGzConverter;
+    private RunJournal journal;
+    private ReportSite reportSite;
+    private SqlConfigInjector configInjector;
+    private ReportWorkingTable reportWorkingTable;
 
     /**
      * Default constructor
@@ -74,26 +102,137 @@ public class Loke {
 
     private void setup() {
         this.accountReader = new AccountReader();
+        CompactText.setCompressionThreshold(configuration.getReportCompressionThreshold());
         Map<String, String> csvAccounts = readAccountsCsv("accounts.csv");
+        if (configuration.getJournalDirectory() != null) {
+            this.journal = new RunJournal(Paths.get(configuration.getJournalDirectory()),
+                    LocalDate.now(CalendarGenerator.clock));
+            athenaClient.setQueryCache(journal);
+        }
+        if ("api".equalsIgnoreCase(configuration.getQueryBackend())) {
+            AmazonAthena amazonAthena = AmazonAthenaClientBuilder.standard()
+                    .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(
+                            configuration.getAccessKey(),
+                            configuration.getSecretAccessKey())))
+                    .withRegion(configuration.getRegion())
+                    .build();
+            AthenaApiBackend athenaApiBackend = new AthenaApiBackend(amazonAthena, configuration.getStagingDir());
+            if ("s3".equalsIgnoreCase(configuration.getResultFetch())) {
+                athenaApiBackend.setResultStore(createS3Handler());
+            }
+            athenaClient.setQueryBackend(athenaApiBackend);
+        }
+        if (configuration.getQueryShards() > 1) {
+            athenaClient.setQuerySplitter(new QuerySplitter(configuration.getQueryShards(),
+                    configuration.getQueryConcurrency()));
+        }
+
+        this.configInjector = new SqlConfigInjector(configuration.getSqlDatabaseName(),
+                configuration.getSqlTableName(), createReportWindow(configuration),
+                configuration.getStartedResourceDays());
+        configInjector.setPartitioned(configuration.isPartitionedTable());
+        s3ZipToGzConverter.setPartitioned(configuration.isPartitionedTable());
+        configInjector.setOwnerRegExp(configuration.getUserOwnerRegExp());
+        if (configuration.getWorkingTableName() != null) {
+            configInjector.setWorkingTableName(configuration.getWorkingTableName());
+            this.reportWorkingTable = new ReportWorkingTable(athenaClient, configInjector, createS3Handler(),
+                    getWorkingTableLocation(configuration));
+        }
 
         this.costReportGenerator = new CostReportGenerator(athenaClient,
                 configuration.getUserOwnerRegExp(),
                 configuration.getGenerateReportThreshold(),
                 csvAccounts,
-                new SqlConfigInjector(configuration.getSqlDatabaseName(), configuration.getSqlTableName()));
+                configInjector,
+                new ForkJoinPool(configuration.getRenderParallelism()),
+                configuration.isPrecompiledTemplates());
+        this.costReportGenerator.setMaxRowsPerReport(configuration.getMaxResourcesPerReport(),
+                configuration.getMaxAccountsPerReport(), configuration.getMaxStartedResourcesPerReport());
+        this.costReportGenerator.setAdminDigest(configuration.getAdminTopSpenders(),
+                configuration.getAdminTopMovers());
+        this.costReportGenerator.setChartMaxPoints(configuration.getChartMaxPoints());
+        this.costReportGenerator.setConcurrentFetches("api".equalsIgnoreCase(configuration.getQueryBackend()));
+        if (configuration.getChartImageLocation() != null) {
+            this.costReportGenerator.setChartRenderer(new PngChartRenderer(
+                    createSiteStorage(configuration.getChartImageLocation()), configuration.getChartImageUrl()));
+        }
+        if (configuration.getFirstSeenIndexFile() != null) {
+            this.costReportGenerator.setFirstSeenIndex(
+                    new FirstSeenIndex(Paths.get(configuration.getFirstSeenIndexFile())), !configuration.isDryRun());
+        }
+        if (configuration.getSuppressUnchangedBelowPercent() > 0) {
+            this.costReportGenerator.setSuppression(new FingerprintStore(Paths.get(configuration.getFingerprintFile())),
+                    configuration.getSuppressUnchangedBelowPercent());
+        }
 
-        AwsSesHandler awsSesHandler = new AwsSesHandler(AmazonSimpleEmailServiceClientBuilder.standard()
+        AmazonSimpleEmailService sesClient = AmazonSimpleEmailServiceClientBuilder.standard()
                 .withRegion(configuration.getRegion())
                 .withCredentials(
                         new AWSStaticCredentialsProvider(new BasicAWSCredentials(
                                 configuration.getAccessKey(),
-                                configuration.getSecretAccessKey()))).build());
+                                configuration.getSecretAccessKey()))).build();
+        AwsSesHandler awsSesHandler;
+        if (configuration.getSesSenderThreads() > 0 && !configuration.isDryRun()) {
+            awsSesHandler = new AwsSesHandler(sesClient, new SesDispatcher(sesClient,
+                    configuration.getSesMaxSendRate(),
+                    configuration.getSesSenderThreads()));
+        } else {
+            awsSesHandler = new AwsSesHandler(sesClient);
+        }
 
         this.emailSender = new AwsEmailSender(
                 awsSesHandler,
                 configuration.getFromEmailAddress(),
                 configuration.getToEmailDomainName(),
                 configuration.isDryRun());
+        this.emailSender.setRawEmail(configuration.isRawEmail());
+        this.emailSender.setTemplateName(configuration.getSesTemplateName());
+        if (configuration.getOutboxDirectory() != null) {
+            this.emailSender.setOutbox(new Outbox(Paths.get(configuration.getOutboxDirectory()),
+                    LocalDate.now(CalendarGenerator.clock)));
+        }
+        this.emailSender.setJournal(journal);
+        listenForSentEmails();
+        if (configuration.getReportSiteLocation() != null) {
+            this.reportSite = new ReportSite(createSiteStorage(configuration.getReportSiteLocation()),
+                    configuration.getReportSiteUrl());
+            this.emailSender.setReportSite(reportSite);
+        }
+    }
+
+    private SiteStorage createSiteStorage(String location) {
+        if (!location.startsWith("s3://")) {
+            return new LocalSiteStorage(Paths.get(location));
+        }
+        return new S3SiteStorage(createS3Handler(), location);
+    }
+
+    private S3Handler createS3Handler() {
+        AmazonS3 amazonS3 = AmazonS3ClientBuilder.standard()
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(
+                        configuration.getAccessKey(),
+                        configuration.getSecretAccessKey())))
+                .withRegion(Regions.fromName(configuration.getRegion()))
+                .build();
+        return new S3Handler(amazonS3);
+    }
+
+    private static String getWorkingTableLocation(Configuration configuration) {
+        if (configuration.getWorkingTableLocation() != null) {
+            return configuration.getWorkingTableLocation();
+        }
+        String stagingDir = configuration.getStagingDir();
+        return (stagingDir.endsWith("/") ? stagingDir : stagingDir + "/") + "working-tables/"
+                + configuration.getWorkingTableName() + "/";
+    }
+
+    private static ReportWindow createReportWindow(Configuration configuration) {
+        String granularity = configuration.getReportGranularity();
+        if (granularity == null || granularity.isEmpty()) {
+            return new ReportWindow(configuration.getReportWindowDays());
+        }
+        return new ReportWindow(configuration.getReportWindowDays(),
+                ReportWindow.Granularity.valueOf(granularity.toUpperCase()));
     }
 
     private Map<String, String> readAccountsCsv(String filePath) {
@@ -114,17 +253,45 @@ public class Loke {
     }
 
     public void run() {
+        if (journal != null && journal.isCompleted(RunJournal.Stage.EMAILS)) {
+            log.info("The run for this report date is already completed, see: {}", journal.getDirectory());
+            return;
+        }
+        boolean outbox = configuration.getOutboxDirectory() != null;
+        if (outbox && "send".equalsIgnoreCase(configuration.getOutboxStage())) {
+            log.info("Only sending the emails in the outbox");
+            emailSender.sendOutbox();
+            emailSender.awaitPendingEmails();
+            return;
+        }
 
-        s3ZipToGzConverter.convertZipToGz(configuration.getZipFileSourceBucket(), configuration.getGzFileDestinationBucket());
+        convertBillingFiles();
 
         List<Employee> employeeReports = null;
         List<Employee> adminReports;
 
-        if (configuration.isSendOnlyAdminReport()) {
-            adminReports = costReportGenerator.generateAdminReports();
-        } else {
-            employeeReports = costReportGenerator.generateReports();
-            adminReports = costReportGenerator.generateAdminReports();
+        boolean workingTable = reportWorkingTable != null
+                && (journal == null || !journal.isCompleted(RunJournal.Stage.ADMIN_REPORTS));
+        if (workingTable) {
+            reportWorkingTable.create();
+        }
+        try {
+            if (configuration.isSendOnlyAdminReport()) {
+                adminReports = generateAdminReports();
+            } else if (configuration.isPipelined()) {
+                ReportPipeline reportPipeline = new ReportPipeline(emailSender,
+                        configuration.getPipelineQueueSize(),
+                        configuration.getPipelineSenderThreads());
+                reportPipeline.run(costReportGenerator);
+                adminReports = generateAdminReports();
+            } else {
+                employeeReports = generateEmployeeReports();
+                adminReports = generateAdminReports();
+            }
+        } finally {
+            if (workingTable) {
+                reportWorkingTable.drop();
+            }
         }
 
         if (employeeReports != null && employeeReports.size() > 0) {
@@ -139,10 +306,79 @@ public class Loke {
         } else {
             log.info("No admins specified in the configuration file");
         }
+        if (outbox && !"generate".equalsIgnoreCase(configuration.getOutboxStage())) {
+            emailSender.sendOutbox();
+        }
+        emailSender.awaitPendingEmails();
+        costReportGenerator.saveFingerprints();
+        if (journal != null) {
+            if (emailSender.isAllSent()) {
+                journal.complete(RunJournal.Stage.EMAILS);
+            } else {
+                log.warn("Not every email was sent, the run is left open so that a rerun sends the rest");
+            }
+        }
+    }
+
+    private void convertBillingFiles() {
+        if (journal != null && journal.isCompleted(RunJournal.Stage.CONVERSION)) {
+            log.info("Billing files already converted to: {}", journal.getStageDetail(RunJournal.Stage.CONVERSION));
+            return;
+        }
+        String gzipFile = s3ZipToGzConverter.convertZipToGz(configuration.getZipFileSourceBucket(),
+                configuration.getGzFileDestinationBucket());
+        if (configuration.isPartitionedTable()) {
+            addBillingPartition(gzipFile);
+        }
+        if (journal != null) {
+            journal.complete(RunJournal.Stage.CONVERSION, gzipFile);
+        }
+    }
+
+    /**
+     * Registers the partition of the uploaded billing file, the table only reads the partitions it knows about.
+     */
+    private void addBillingPartition(String gzipKey) {
+        BillingPartition partition = BillingPartition.fromFileName(gzipKey);
+        String location = "s3://" + configuration.getGzFileDestinationBucket() + "/" + partition.getKeyPrefix();
+        athenaClient.execute(configInjector.injectPartitionSql(
+                ResourceLoader.getResource("sql/AddBillingPartition.sql"), partition, location));
+        log.info("Registered the billing partition: {}", location);
+    }
+
+    private List<Employee> generateEmployeeReports() {
+        if (journal != null && journal.isCompleted(RunJournal.Stage.EMPLOYEE_REPORTS)) {
+            return journal.loadReports(RunJournal.Stage.EMPLOYEE_REPORTS);
+        }
+        List<Employee> employeeReports = costReportGenerator.generateReports();
+        if (journal != null) {
+            journal.saveReports(RunJournal.Stage.EMPLOYEE_REPORTS, employeeReports);
+        }
+        return employeeReports;
+    }
 
+    private List<Employee> generateAdminReports() {
+        if (journal != null && journal.isCompleted(RunJournal.Stage.ADMIN_REPORTS)) {
+            return journal.loadReports(RunJournal.Stage.ADMIN_REPORTS);
+        }
+        List<Employee> adminReports = costReportGenerator.generateAdminReports();
+        if (journal != null) {
+            journal.saveReports(RunJournal.Stage.ADMIN_REPORTS, adminReports);
+        }
+        return adminReports;
     }
 
     public void setEmailSender(AwsEmailSender emailSender) {
         this.emailSender = emailSender;
+        listenForSentEmails();
+    }
+
+    /**
+     * The fingerprint of a report is only kept once its email is sent.
+     */
+    private void listenForSentEmails() {
+        if (configuration.getSuppressUnchangedBelowPercent() > 0) {
+            emailSender.setSentListener(costReportGenerator::confirmSent);
+        }
     }
 }
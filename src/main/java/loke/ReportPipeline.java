@@ -0,0 +1,118 @@
+package loke;
+
+import loke.email.AwsEmailSender;
+import loke.model.Employee;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders and sends the employee reports at the same time. Finished employees are put on a bounded queue that a pool
+ * of senders drains. When the senders fall behind, e.g. when SES throttles, the queue fills up and rendering blocks
+ * until there is room again, so at most queueCapacity rendered employees are held in memory.
+ */
+public class ReportPipeline {
+    private static final Logger log = LogManager.getLogger(ReportPipeline.class);
+    private static final Employee END_OF_QUEUE = new Employee(null);
+    private AwsEmailSender emailSender;
+    private BlockingQueue<Employee> queue;
+    private int senderThreads;
+    private AtomicLong stallNanos = new AtomicLong();
+    private AtomicInteger peakQueueDepth = new AtomicInteger();
+    private AtomicInteger sent = new AtomicInteger();
+
+    public ReportPipeline(AwsEmailSender emailSender, int queueCapacity, int senderThreads) {
+        this.emailSender = emailSender;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.senderThreads = senderThreads;
+    }
+
+    public void run(CostReportGenerator costReportGenerator) {
+        log.info("Starting report pipeline with queue capacity: {} and {} senders",
+                queue.remainingCapacity(), senderThreads);
+        ExecutorService senders = Executors.newFixedThreadPool(senderThreads);
+        for (int i = 0; i < senderThreads; i++) {
+            senders.submit(this::drain);
+        }
+
+        try {
+            costReportGenerator.generateReports(this::enqueue);
+        } finally {
+            for (int i = 0; i < senderThreads; i++) {
+                enqueue(END_OF_QUEUE);
+            }
+            senders.shutdown();
+            awaitSenders(senders);
+        }
+        log.info("Report pipeline done. Emails handled: {}, rendering stalled for: {} ms, peak queue depth: {}",
+                sent.get(), getStallTimeMillis(), getPeakQueueDepth());
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    /**
+     * @return the total time rendering has been blocked waiting for the senders to make room in the queue
+     */
+    public long getStallTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(stallNanos.get());
+    }
+
+    private void enqueue(Employee employee) {
+        if (!queue.offer(employee)) {
+            long start = System.nanoTime();
+            try {
+                queue.put(employee);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for room in the report queue", e);
+            }
+            long stalled = System.nanoTime() - start;
+            stallNanos.addAndGet(stalled);
+            log.trace("Rendering stalled for {} ms waiting for the senders", TimeUnit.NANOSECONDS.toMillis(stalled));
+        }
+        peakQueueDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    private void drain() {
+        while (true) {
+            Employee employee;
+            try {
+                employee = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (employee == END_OF_QUEUE) {
+                return;
+            }
+            try {
+                emailSender.sendEmployeeMail(employee);
+                sent.incrementAndGet();
+            } catch (Exception e) {
+                log.error("Failed to send email for: {}. Error: {}", employee.getUserName(), e.getMessage());
+            }
+        }
+    }
+
+    private void awaitSenders(ExecutorService senders) {
+        try {
+            senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            senders.shutdownNow();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package loke;
 
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import loke.aws.S3Handler;
+import loke.utils.BillingPartition;
 import loke.utils.ZipToGzUtility;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
@@ -16,13 +17,24 @@ public class S3ZipToGzConverter {
     private static final String ZIP_PATTERN = "^.*aws-billing-detailed-line-items-with-resources-and-tags.*.zip$";
     private S3Handler s3Handler;
     private ZipToGzUtility zipToGzUtility;
+    private boolean partitioned;
 
     public S3ZipToGzConverter(S3Handler s3Handler, ZipToGzUtility zipToGzUtility) {
         this.s3Handler = s3Handler;
         this.zipToGzUtility = zipToGzUtility;
     }
 
-    public void convertZipToGz(String sourceBucket, String destinationBucket){
+    /**
+     * Uploads the gz files under the year and month partition of their billing month, see BillingPartition.
+     */
+    public void setPartitioned(boolean partitioned) {
+        this.partitioned = partitioned;
+    }
+
+    /**
+     * @return the key of the uploaded gz file
+     */
+    public String convertZipToGz(String sourceBucket, String destinationBucket){
         File tmpDir = new File("tmp");
         if(!tmpDir.isFile()) {
             tmpDir.mkdir();
@@ -38,7 +50,8 @@ public class S3ZipToGzConverter {
         }
 
         log.info("GzipFile: {}", gzipFile);
-        s3Handler.uploadFile(destinationBucket, gzipFile, tmpDir.getPath() + '/' + gzipFile);
+        String key = partitioned ? BillingPartition.fromFileName(gzipFile).getKeyPrefix() + gzipFile : gzipFile;
+        s3Handler.uploadFile(destinationBucket, key, tmpDir.getPath() + '/' + gzipFile);
 
         try {
             FileUtils.cleanDirectory(tmpDir);
@@ -47,6 +60,7 @@ public class S3ZipToGzConverter {
             log.error("Tmp dir could not be cleaned");
             e.printStackTrace();
         }
+        return key;
     }
 
     private String downloadLastModifiedIZip(String sourceBucket, String destinationPath) {
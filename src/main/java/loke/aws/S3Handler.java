@@ -5,8 +5,10 @@ import com.amazonaws.services.s3.model.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
@@ -75,4 +77,60 @@ public class S3Handler {
             log.info("Failed to upload file: {}\nError: {}", file, e.getMessage());
         }
     }
+
+    /**
+     * @return the content of the object, streamed from S3 until it is closed
+     */
+    public InputStream openObject(String bucket, String key) {
+        try {
+            return s3.getObject(new GetObjectRequest(bucket, key)).getObjectContent();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to open bucket: " + bucket + ", key: " + key, e);
+        }
+    }
+
+    public boolean exists(String bucket, String key) {
+        return s3.doesObjectExist(bucket, key);
+    }
+
+    /**
+     * Deletes every object whose key starts with the prefix.
+     *
+     * @return the number of objects deleted
+     */
+    public int deleteObjects(String bucket, String prefix) {
+        int deleted = 0;
+        try {
+            ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucket).withPrefix(prefix);
+            ListObjectsV2Result result;
+            do {
+                result = s3.listObjectsV2(request);
+                List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>();
+                for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                    keys.add(new DeleteObjectsRequest.KeyVersion(summary.getKey()));
+                }
+                if (!keys.isEmpty()) {
+                    s3.deleteObjects(new DeleteObjectsRequest(bucket).withKeys(keys));
+                    deleted += keys.size();
+                }
+                request.setContinuationToken(result.getNextContinuationToken());
+            } while (result.isTruncated());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to delete bucket: " + bucket + ", prefix: " + prefix, e);
+        }
+        log.info("Deleted: {} objects from bucket: {}, prefix: {}", deleted, bucket, prefix);
+        return deleted;
+    }
+
+    public void uploadBytes(String bucket, String key, byte[] content, String contentType) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        metadata.setContentType(contentType);
+        try {
+            s3.putObject(new PutObjectRequest(bucket, key, new ByteArrayInputStream(content), metadata));
+            log.info("Uploaded: {} bytes to bucket: {}, key: {}", content.length, bucket, key);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to upload to bucket: " + bucket + ", key: " + key, e);
+        }
+    }
 }
@@ -0,0 +1,351 @@
+package loke.aws.db;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.athena.AmazonAthena;
+import com.amazonaws.services.athena.model.ColumnInfo;
+import com.amazonaws.services.athena.model.Datum;
+import com.amazonaws.services.athena.model.GetQueryExecutionRequest;
+import com.amazonaws.services.athena.model.GetQueryResultsRequest;
+import com.amazonaws.services.athena.model.GetQueryResultsResult;
+import com.amazonaws.services.athena.model.QueryExecution;
+import com.amazonaws.services.athena.model.QueryExecutionState;
+import com.amazonaws.services.athena.model.QueryExecutionStatistics;
+import com.amazonaws.services.athena.model.ResultConfiguration;
+import com.amazonaws.services.athena.model.Row;
+import com.amazonaws.services.athena.model.StartQueryExecutionRequest;
+import com.amazonaws.services.athena.model.StopQueryExecutionRequest;
+import com.amazonaws.services.athena.model.TooManyRequestsException;
+import loke.aws.S3Handler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the queries with the Athena API, StartQueryExecution, GetQueryExecution and GetQueryResults, instead of the
+ * JDBC driver. The states of all running queries are polled from a single thread, starting every 100 ms and backing
+ * off to every 5 seconds for long queries, so a query waiting in Athena does not hold a connection and many queries
+ * can run at the same time. A poll that is throttled or fails with a transient error is retried with the same backoff,
+ * and a query that can no longer be polled or whose future is cancelled is stopped in Athena. The statistics of every
+ * query are logged. The results are paged through GetQueryResults, or streamed from the CSV file in the staging dir
+ * when there is a result store.
+ */
+public class AthenaApiBackend implements QueryBackend {
+    private static final Logger log = LogManager.getLogger(AthenaApiBackend.class);
+    private static final int PAGE_SIZE = 1000;
+    private static final int MAX_START_ATTEMPTS = 5;
+    private static final int MAX_POLL_ERRORS = 10;
+    private AmazonAthena myAthena;
+    private String myOutputLocation;
+    private ScheduledExecutorService myPoller;
+    private long myMinPollMillis = 100;
+    private long myMaxPollMillis = 5000;
+    private AtomicLong myScannedBytes = new AtomicLong();
+    private S3Handler myResultStore;
+
+    /**
+     * @param theOutputLocation the s3 staging dir the results are written to
+     */
+    public AthenaApiBackend(AmazonAthena theAthena, String theOutputLocation) {
+        myAthena = theAthena;
+        myOutputLocation = theOutputLocation;
+        myPoller = Executors.newSingleThreadScheduledExecutor(theRunnable -> {
+            Thread aThread = new Thread(theRunnable, "athena-poller");
+            aThread.setDaemon(true);
+            return aThread;
+        });
+    }
+
+    /**
+     * Sets the delay before the first poll of a query and the longest delay between polls, the delay doubles after
+     * every poll that finds the query still running.
+     */
+    public void setPollInterval(long theMinPollMillis, long theMaxPollMillis) {
+        myMinPollMillis = theMinPollMillis;
+        myMaxPollMillis = theMaxPollMillis;
+    }
+
+    /**
+     * Reads the results from the CSV file Athena writes to the staging dir instead of through GetQueryResults, which
+     * pages through them 1000 rows at a time.
+     */
+    public void setResultStore(S3Handler theResultStore) {
+        myResultStore = theResultStore;
+    }
+
+    @Override
+    public void execute(String theSql) {
+        await(submit(theSql));
+    }
+
+    @Override
+    public <T> List<T> executeQuery(String theSql, Class<T> theResultClass) {
+        return getResults(await(submit(theSql)), theResultClass);
+    }
+
+    /**
+     * Starts the query without waiting for it.
+     *
+     * @return the id of the query, once it has succeeded
+     */
+    public CompletableFuture<String> submit(String theSql) {
+        log.trace("Execute:\n{}", theSql);
+        String anId = start(theSql);
+        CompletableFuture<String> aDone = new CompletableFuture<>();
+        aDone.whenComplete((theId, theError) -> {
+            if (theError instanceof CancellationException) {
+                stop(anId);
+            }
+        });
+        myPoller.schedule(() -> poll(anId, aDone, myMinPollMillis, 0), myMinPollMillis, TimeUnit.MILLISECONDS);
+        return aDone;
+    }
+
+    /**
+     * Reads the rows of a succeeded query, from the result file if there is a result store, else page by page.
+     */
+    public <T> List<T> getResults(String theQueryId, Class<T> theResultClass) {
+        if (myResultStore != null) {
+            return readResultFile(theQueryId, theResultClass);
+        }
+        List<T> someRows = new ArrayList<>();
+        List<Field> someFields = null;
+        String aNextToken = null;
+        do {
+            GetQueryResultsResult aPage = myAthena.getQueryResults(new GetQueryResultsRequest()
+                    .withQueryExecutionId(theQueryId)
+                    .withNextToken(aNextToken)
+                    .withMaxResults(PAGE_SIZE));
+            List<Row> somePageRows = aPage.getResultSet().getRows();
+            int aFirst = 0;
+            if (someFields == null) {
+                List<String> someLabels = getLabels(aPage.getResultSet().getResultSetMetadata().getColumnInfo());
+                someFields = getFields(theResultClass, someLabels);
+                // The first row of a select holds the column names
+                if (!somePageRows.isEmpty() && someLabels.equals(getValues(somePageRows.get(0)))) {
+                    aFirst = 1;
+                }
+            }
+            for (int i = aFirst; i < somePageRows.size(); i++) {
+                someRows.add(getResultInstance(getValues(somePageRows.get(i)), someFields, theResultClass));
+            }
+            aNextToken = aPage.getNextToken();
+        } while (aNextToken != null);
+        return someRows;
+    }
+
+    private <T> List<T> readResultFile(String theQueryId, Class<T> theResultClass) {
+        String aLocation = myAthena.getQueryExecution(new GetQueryExecutionRequest()
+                .withQueryExecutionId(theQueryId)).getQueryExecution().getResultConfiguration().getOutputLocation();
+        if (!aLocation.startsWith("s3://") || aLocation.indexOf('/', 5) < 0) {
+            throw new JdbcManager.SqlException("Not an s3 result location: " + aLocation);
+        }
+        String aBucket = aLocation.substring(5, aLocation.indexOf('/', 5));
+        String aKey = aLocation.substring(aBucket.length() + 6);
+        long aStart = System.currentTimeMillis();
+        List<T> someRows = new ArrayList<>();
+        try (AthenaCsvReader aReader = new AthenaCsvReader(myResultStore.openObject(aBucket, aKey))) {
+            List<String> someLabels = aReader.readRecord();
+            if (someLabels == null) {
+                return someRows;
+            }
+            List<Field> someFields = getFields(theResultClass, someLabels);
+            List<String> someValues = aReader.readRecord();
+            while (someValues != null) {
+                someRows.add(getResultInstance(someValues, someFields, theResultClass));
+                someValues = aReader.readRecord();
+            }
+        } catch (IOException e) {
+            throw new JdbcManager.SqlException("Failed to read the result of query " + theQueryId + ": "
+                    + aLocation, e);
+        }
+        log.info("Read {} rows from {} in {} ms", someRows.size(), aLocation, System.currentTimeMillis() - aStart);
+        return someRows;
+    }
+
+    private String start(String theSql) {
+        StartQueryExecutionRequest aRequest = new StartQueryExecutionRequest()
+                .withQueryString(theSql)
+                .withResultConfiguration(new ResultConfiguration().withOutputLocation(myOutputLocation));
+        for (int anAttempt = 1; ; anAttempt++) {
+            try {
+                return myAthena.startQueryExecution(aRequest).getQueryExecutionId();
+            } catch (TooManyRequestsException e) {
+                if (anAttempt >= MAX_START_ATTEMPTS) {
+                    throw new JdbcManager.SqlException("Athena refused to start the query: " + theSql, e);
+                }
+                long aDelay = myMaxPollMillis << (anAttempt - 1);
+                log.warn("Too many queries running in Athena, retrying in {} ms", aDelay);
+                try {
+                    Thread.sleep(aDelay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new JdbcManager.SqlException("Interrupted while starting the query: " + theSql, ie);
+                }
+            } catch (RuntimeException e) {
+                throw new JdbcManager.SqlException("Failed to start the query: " + theSql, e);
+            }
+        }
+    }
+
+    private void poll(String theQueryId, CompletableFuture<String> theDone, long theDelay, int theErrors) {
+        if (theDone.isDone()) {
+            return;
+        }
+        long aNextDelay = Math.min(theDelay * 2, myMaxPollMillis);
+        try {
+            QueryExecution anExecution = myAthena.getQueryExecution(new GetQueryExecutionRequest()
+                    .withQueryExecutionId(theQueryId)).getQueryExecution();
+            switch (QueryExecutionState.fromValue(anExecution.getStatus().getState())) {
+                case SUCCEEDED:
+                    logStatistics(theQueryId, anExecution.getStatistics());
+                    theDone.complete(theQueryId);
+                    return;
+                case FAILED:
+                case CANCELLED:
+                    theDone.completeExceptionally(new JdbcManager.SqlException("Query " + theQueryId + " "
+                            + anExecution.getStatus().getState() + ": "
+                            + anExecution.getStatus().getStateChangeReason() + "\n" + anExecution.getQuery()));
+                    return;
+                default:
+                    myPoller.schedule(() -> poll(theQueryId, theDone, aNextDelay, 0), aNextDelay,
+                            TimeUnit.MILLISECONDS);
+            }
+        } catch (RuntimeException e) {
+            if (!isTransient(e) || theErrors + 1 >= MAX_POLL_ERRORS) {
+                stop(theQueryId);
+                theDone.completeExceptionally(new JdbcManager.SqlException("Failed to poll query " + theQueryId, e));
+                return;
+            }
+            log.warn("Could not poll query {}, retrying in {} ms: {}", theQueryId, aNextDelay, e.getMessage());
+            myPoller.schedule(() -> poll(theQueryId, theDone, aNextDelay, theErrors + 1), aNextDelay,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return true for throttling, 5xx answers and client errors the SDK would retry, such as a lost connection
+     */
+    private static boolean isTransient(RuntimeException theException) {
+        if (theException instanceof AmazonServiceException) {
+            AmazonServiceException aServiceException = (AmazonServiceException) theException;
+            return theException instanceof TooManyRequestsException
+                    || RetryUtils.isThrottlingException(aServiceException)
+                    || aServiceException.getStatusCode() >= 500;
+        }
+        return theException instanceof AmazonClientException && ((AmazonClientException) theException).isRetryable();
+    }
+
+    /**
+     * Stops the query so that it does not keep running, and scanning, in Athena after its future has failed or has been
+     * cancelled. Stopping a query that has already ended does nothing.
+     */
+    private void stop(String theQueryId) {
+        try {
+            myAthena.stopQueryExecution(new StopQueryExecutionRequest().withQueryExecutionId(theQueryId));
+            log.info("Stopped query {}", theQueryId);
+        } catch (RuntimeException e) {
+            log.warn("Could not stop query {}: {}", theQueryId, e.getMessage());
+        }
+    }
+
+    private void logStatistics(String theQueryId, QueryExecutionStatistics theStatistics) {
+        if (theStatistics == null) {
+            return;
+        }
+        long aScanned = theStatistics.getDataScannedInBytes() != null ? theStatistics.getDataScannedInBytes() : 0;
+        long aTotal = myScannedBytes.addAndGet(aScanned);
+        log.info("Query {} ran for {} ms and scanned {} MB, {} MB in this run", theQueryId,
+                theStatistics.getEngineExecutionTimeInMillis(), aScanned >> 20, aTotal >> 20);
+    }
+
+    private static <T> T await(CompletableFuture<T> theFuture) {
+        try {
+            return theFuture.join();
+        } catch (CompletionException e) {
+            throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private static List<String> getLabels(List<ColumnInfo> theColumns) {
+        List<String> someLabels = new ArrayList<>();
+        for (ColumnInfo aColumn : theColumns) {
+            someLabels.add(aColumn.getLabel() != null ? aColumn.getLabel() : aColumn.getName());
+        }
+        return someLabels;
+    }
+
+    private static List<String> getValues(Row theRow) {
+        List<String> someValues = new ArrayList<>();
+        for (Datum aDatum : theRow.getData()) {
+            someValues.add(aDatum.getVarCharValue());
+        }
+        return someValues;
+    }
+
+    private static List<Field> getFields(Class<?> theResultClass, List<String> theLabels) {
+        List<Field> someFields = new ArrayList<>();
+        for (String aLabel : theLabels) {
+            Field aField = JdbcManager.getField(theResultClass, aLabel);
+            if (aField == null) {
+                throw new RuntimeException("Did not recognize field " + aLabel + " in result class: "
+                        + theResultClass);
+            }
+            aField.setAccessible(true);
+            someFields.add(aField);
+        }
+        return someFields;
+    }
+
+    /**
+     * Populates the fields the same way as JdbcManager does from a result set, from the text of the values.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T getResultInstance(List<String> theValues, List<Field> theFields, Class<T> theResultClass) {
+        try {
+            T aPojo = theResultClass.newInstance();
+            for (int i = 0; i < theFields.size(); i++) {
+                Field aField = theFields.get(i);
+                String aValue = theValues.get(i);
+                Class aFieldType = aField.getType();
+                if (aValue == null) {
+                    if (!aFieldType.isPrimitive()) {
+                        aField.set(aPojo, null);
+                    }
+                } else if (aFieldType == String.class) {
+                    aField.set(aPojo, aValue);
+                } else if (aFieldType == java.util.Date.class) {
+                    aField.set(aPojo, Timestamp.valueOf(aValue));
+                } else if (aFieldType == Integer.class || aFieldType == int.class) {
+                    aField.set(aPojo, Integer.valueOf(aValue));
+                } else if (aFieldType == Long.class || aFieldType == long.class) {
+                    aField.set(aPojo, Long.valueOf(aValue));
+                } else if (aFieldType == Double.class || aFieldType == double.class) {
+                    aField.set(aPojo, Double.valueOf(aValue));
+                } else if (aFieldType == Boolean.class || aFieldType == boolean.class) {
+                    aField.set(aPojo, Boolean.valueOf(aValue));
+                } else if (aFieldType.isEnum()) {
+                    aField.set(aPojo, Enum.valueOf((Class<Enum>) aFieldType, aValue));
+                } else {
+                    throw new IllegalArgumentException("Field type " + aField + " is not supported yet");
+                }
+            }
+            return aPojo;
+        } catch (ReflectiveOperationException e) {
+            throw new JdbcManager.SqlException("Failed to populate: " + theResultClass, e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package loke.aws.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the records of the CSV file Athena writes the result of a query to. Athena quotes every value, doubles the
+ * quotes in it and writes NULL as an empty unquoted value, which is read as null. Quoted values may span lines.
+ */
+public class AthenaCsvReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private Reader myReader;
+    private char[] myBuffer = new char[BUFFER_SIZE];
+    private int myPosition;
+    private int myLimit;
+    private StringBuilder myValue = new StringBuilder();
+
+    public AthenaCsvReader(InputStream theIn) {
+        myReader = new InputStreamReader(theIn, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the values of the next record, or null at the end of the file
+     */
+    public List<String> readRecord() throws IOException {
+        int aChar = read();
+        if (aChar == -1) {
+            return null;
+        }
+        List<String> someValues = new ArrayList<>();
+        while (true) {
+            myValue.setLength(0);
+            boolean aQuoted = aChar == '"';
+            if (aQuoted) {
+                aChar = readQuoted();
+            } else {
+                while (aChar != ',' && aChar != '\n' && aChar != '\r' && aChar != -1) {
+                    myValue.append((char) aChar);
+                    aChar = read();
+                }
+            }
+            someValues.add(aQuoted || myValue.length() > 0 ? myValue.toString() : null);
+            if (aChar == '\r') {
+                aChar = read();
+            }
+            if (aChar == '\n' || aChar == -1) {
+                return someValues;
+            }
+            if (aChar != ',') {
+                throw new IOException("Malformed CSV, expected a comma after: " + myValue);
+            }
+            aChar = read();
+        }
+    }
+
+    /**
+     * Reads a quoted value after its opening quote.
+     *
+     * @return the character after the closing quote
+     */
+    private int readQuoted() throws IOException {
+        while (true) {
+            int aChar = read();
+            if (aChar == -1) {
+                throw new IOException("Malformed CSV, unterminated quoted value: " + myValue);
+            }
+            if (aChar == '"') {
+                aChar = read();
+                if (aChar != '"') {
+                    return aChar;
+                }
+            }
+            myValue.append((char) aChar);
+        }
+    }
+
+    private int read() throws IOException {
+        if (myPosition == myLimit) {
+            myLimit = myReader.read(myBuffer, 0, myBuffer.length);
+            myPosition = 0;
+            if (myLimit <= 0) {
+                myLimit = 0;
+                return -1;
+            }
+        }
+        return myBuffer[myPosition++];
+    }
+
+    @Override
+    public void close() throws IOException {
+        myReader.close();
+    }
+}
@@ -10,14 +10,19 @@ import java.lang.annotation.Target;
 import java.lang.reflect.Field;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
 
 public class JdbcManager {
 
     private static final Logger log = LogManager.getLogger(JdbcManager.class);
+    private static final String OWNER_COLUMN = "user_owner";
     private String myUrl;
     private Properties myProps = new Properties();
+    private QueryCache myQueryCache;
+    private QuerySplitter myQuerySplitter;
+    private QueryBackend myQueryBackend;
 
     /**
      * Sets the JDBC url.
@@ -33,6 +38,28 @@ public class JdbcManager {
         myProps.setProperty(theName, theValue);
     }
 
+    /**
+     * Sets a cache for the results of {@link #executeQuery(String, Class)}.
+     */
+    public void setQueryCache(QueryCache theQueryCache) {
+        myQueryCache = theQueryCache;
+    }
+
+    /**
+     * Sets a splitter that runs the queries of {@link #executeQuery(String, Class)} as concurrent sub-queries over
+     * shards of the owners, for the queries it can split and whose result class has a user_owner column.
+     */
+    public void setQuerySplitter(QuerySplitter theQuerySplitter) {
+        myQuerySplitter = theQuerySplitter;
+    }
+
+    /**
+     * Sends the statements and queries through the backend instead of the JDBC driver.
+     */
+    public void setQueryBackend(QueryBackend theQueryBackend) {
+        myQueryBackend = theQueryBackend;
+    }
+
     /**
      * Executes a custom sql query to DB with callback support for resultset.
      */
@@ -48,6 +75,25 @@ public class JdbcManager {
         }
     }
 
+    /**
+     * Executes a sql statement without a result, e.g. to create or drop a table.
+     */
+    public void execute(String theSql) throws SqlException {
+        if (myQueryBackend != null) {
+            myQueryBackend.execute(theSql);
+            return;
+        }
+        try (
+                Connection aConn = DriverManager.getConnection(myUrl, myProps);
+                Statement aStmt = aConn.createStatement();
+        ) {
+            log.trace("Execute:\n{}", theSql);
+            aStmt.execute(theSql);
+        } catch (Exception e) {
+            throw new SqlException("Failed to execute sql: " + theSql, e);
+        }
+    }
+
     /**
      * Executes a SQL query and populates a custom pojo with the result.
      * <p>
@@ -74,17 +120,53 @@ public class JdbcManager {
      */
     public <T> QueryResult executeQuery(final String theSql, final Class<T> theResultClass) throws SqlException {
         final QueryResult<T> aResult = new QueryResult<>();
+        if (myQueryCache != null) {
+            List<T> aCachedRows = myQueryCache.get(theSql, theResultClass);
+            if (aCachedRows != null) {
+                log.info("Using cached result for query with {} rows", aCachedRows.size());
+                aResult.setResultList(aCachedRows);
+                return aResult;
+            }
+        }
+        Field anOwnerField = getField(theResultClass, OWNER_COLUMN);
+        if (myQuerySplitter != null && anOwnerField != null && myQuerySplitter.canSplit(theSql)) {
+            anOwnerField.setAccessible(true);
+            aResult.setResultList(myQuerySplitter.execute(theSql,
+                    aShardSql -> executeSingleQuery(aShardSql, theResultClass),
+                    Comparator.comparing(theRow -> getOwner(anOwnerField, theRow))));
+        } else {
+            aResult.setResultList(executeSingleQuery(theSql, theResultClass));
+        }
+        if (myQueryCache != null) {
+            myQueryCache.put(theSql, aResult.getResultList());
+        }
+        return aResult;
+    }
+
+    private <T> List<T> executeSingleQuery(String theSql, Class<T> theResultClass) {
+        if (myQueryBackend != null) {
+            return myQueryBackend.executeQuery(theSql, theResultClass);
+        }
+        final List<T> someRows = new ArrayList<>();
         executeQuery(theSql, theResultSet -> {
             try {
                 while (theResultSet.next()) {
-                    T aPojo = getResultInstance(theResultSet, theResultClass);
-                    aResult.addRow(aPojo);
+                    someRows.add(getResultInstance(theResultSet, theResultClass));
                 }
             } catch (Exception e) {
                 throw new SqlException("Failed execute query", e);
             }
         });
-        return aResult;
+        return someRows;
+    }
+
+    private static String getOwner(Field theOwnerField, Object theRow) {
+        try {
+            String anOwner = (String) theOwnerField.get(theRow);
+            return anOwner != null ? anOwner : "";
+        } catch (IllegalAccessException e) {
+            throw new SqlException("Could not read the owner of: " + theRow, e);
+        }
     }
 
     private <T> T getResultInstance(ResultSet theResultSet, final Class<T> theResultClass) throws Exception {
@@ -127,7 +209,7 @@ public class JdbcManager {
         return aPojo;
     }
 
-    private Field getField(Class theClass, String theName) {
+    static Field getField(Class theClass, String theName) {
         while (theClass != null) {
             try {
                 for (Field aField : theClass.getDeclaredFields()) {
@@ -166,10 +248,6 @@ public class JdbcManager {
     public static class QueryResult<T> {
         private List<T> myRows = new ArrayList<>();
 
-        private void addRow(T theRow) {
-            myRows.add(theRow);
-        }
-
         public T getSingleResult() {
             if (myRows.isEmpty()) {
                 return null;
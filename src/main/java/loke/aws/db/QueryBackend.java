@@ -0,0 +1,20 @@
+package loke.aws.db;
+
+import java.util.List;
+
+/**
+ * Runs the sql of a JdbcManager against the database. The JdbcManager keeps caching, splitting and retrying the
+ * queries, the backend only sends a single statement and maps its rows, see JdbcManager.Column.
+ */
+public interface QueryBackend {
+
+    /**
+     * Executes a sql statement without a result, e.g. to create or drop a table.
+     */
+    void execute(String sql);
+
+    /**
+     * Executes a SQL query and populates an instance of the result class for every row.
+     */
+    <T> List<T> executeQuery(String sql, Class<T> resultClass);
+}
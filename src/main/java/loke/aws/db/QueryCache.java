@@ -0,0 +1,16 @@
+package loke.aws.db;
+
+import java.util.List;
+
+/**
+ * Keeps query results so the same query is not sent to the database again, e.g. when a run is resumed.
+ */
+public interface QueryCache {
+
+    /**
+     * @return the cached rows of the query, or null if the query has not been cached
+     */
+    <T> List<T> get(String sql, Class<T> rowClass);
+
+    void put(String sql, List<?> rows);
+}
@@ -0,0 +1,208 @@
+package loke.aws.db;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a report query into sub-queries over disjoint shards of the owners, mod(crc32(user_owner), shards), so that
+ * the query is not held up by one slow stage of a single large query. The sub-queries run concurrently, at most
+ * concurrency at a time for all queries, and each one is retried on its own when it fails for a reason that may pass,
+ * such as a timeout. Errors in the query itself are not retried. Every sub-query is sorted the same way as the query
+ * and the owners of the shards are disjoint, so once every shard has answered a k-way merge on the owner gives the
+ * rows in the order of the whole query.
+ * <p>
+ * The shard predicate is computed per row, so Athena can not prune anything with it: every sub-query scans all the
+ * data the whole query scans, and N shards scan, and are billed for, N times the data. Split the queries of the
+ * working table, which holds only the filtered rows of the report window in Parquet, rather than the billing table.
+ * <p>
+ * Only queries that group by user_owner and order by it first can be split, the others are run as they are.
+ */
+public class QuerySplitter {
+    private static final Logger log = LogManager.getLogger(QuerySplitter.class);
+    private static final Pattern GROUP_BY = Pattern.compile("\\bGROUP\\s+BY\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ORDER_BY = Pattern.compile("\\bORDER\\s+BY\\s+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern USER_OWNER = Pattern.compile("\\buser_owner\\b");
+    private static final Pattern QUERY_ERROR = Pattern.compile("\\b(SYNTAX_ERROR|SEMANTIC_ERROR|COLUMN_NOT_FOUND"
+            + "|TABLE_NOT_FOUND|SCHEMA_NOT_FOUND|FUNCTION_NOT_FOUND|TYPE_MISMATCH|AMBIGUOUS_NAME|NOT_SUPPORTED"
+            + "|INVALID_FUNCTION_ARGUMENT)\\b");
+    private int myShards;
+    private ExecutorService myExecutor;
+    private int myMaxAttempts = 3;
+    private long myRetryDelayMillis = 1000;
+
+    public QuerySplitter(int theShards, int theConcurrency) {
+        myShards = theShards;
+        myExecutor = Executors.newFixedThreadPool(theConcurrency, theRunnable -> {
+            Thread aThread = new Thread(theRunnable, "query-shard");
+            aThread.setDaemon(true);
+            return aThread;
+        });
+    }
+
+    /**
+     * Sets how many times a sub-query is tried and the delay before the first retry, which doubles for each retry.
+     */
+    public void setRetry(int theMaxAttempts, long theRetryDelayMillis) {
+        myMaxAttempts = theMaxAttempts;
+        myRetryDelayMillis = theRetryDelayMillis;
+    }
+
+    /**
+     * @return true if the query has a WHERE clause and groups by user_owner in its last GROUP BY, and orders by
+     * user_owner first
+     */
+    public boolean canSplit(String theSql) {
+        int aGroupBy = lastGroupBy(theSql);
+        if (myShards < 2 || aGroupBy < 0 || !theSql.substring(0, aGroupBy).matches("(?is).*\\bWHERE\\b.*")) {
+            return false;
+        }
+        Matcher anOrderBy = ORDER_BY.matcher(theSql);
+        return anOrderBy.find(aGroupBy)
+                && USER_OWNER.matcher(theSql.substring(aGroupBy, anOrderBy.start())).find()
+                && USER_OWNER.matcher(theSql).region(anOrderBy.end(), theSql.length()).lookingAt();
+    }
+
+    /**
+     * @return the query restricted to the owners of the shard
+     */
+    public String getShardSql(String theSql, int theShard) {
+        int aGroupBy = lastGroupBy(theSql);
+        if (aGroupBy < 0) {
+            throw new IllegalArgumentException("Can not split a query without GROUP BY: " + theSql);
+        }
+        return theSql.substring(0, aGroupBy)
+                + "AND mod(crc32(to_utf8(user_owner)), " + myShards + ") = " + theShard + "\n"
+                + theSql.substring(aGroupBy);
+    }
+
+    /**
+     * Runs the sub-queries of every shard, waits for all of them and merges their rows.
+     *
+     * @param theQuery runs one sub-query
+     * @param theOrder the order of the rows of every sub-query, by owner
+     */
+    public <T> List<T> execute(String theSql, Function<String, List<T>> theQuery, Comparator<T> theOrder) {
+        long aStart = System.currentTimeMillis();
+        List<CompletableFuture<List<T>>> someShards = new ArrayList<>();
+        for (int i = 0; i < myShards; i++) {
+            int aShard = i;
+            someShards.add(CompletableFuture.supplyAsync(() -> executeShard(theSql, aShard, theQuery), myExecutor));
+        }
+        List<List<T>> someResults = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<T>> aShard : someShards) {
+                someResults.add(aShard.join());
+            }
+        } catch (CompletionException e) {
+            throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+        }
+        List<T> aMerged = merge(someResults, theOrder);
+        log.info("Merged {} rows from {} shards in {} ms", aMerged.size(), myShards,
+                System.currentTimeMillis() - aStart);
+        return aMerged;
+    }
+
+    /**
+     * K-way merge of lists that are each sorted by the order.
+     */
+    static <T> List<T> merge(List<List<T>> theSortedLists, Comparator<T> theOrder) {
+        int aSize = 0;
+        PriorityQueue<Head<T>> aHeads = new PriorityQueue<>((a, b) -> theOrder.compare(a.myRow, b.myRow));
+        for (List<T> aList : theSortedLists) {
+            aSize += aList.size();
+            Iterator<T> anIterator = aList.iterator();
+            if (anIterator.hasNext()) {
+                aHeads.add(new Head<>(anIterator.next(), anIterator));
+            }
+        }
+        List<T> aMerged = new ArrayList<>(aSize);
+        while (!aHeads.isEmpty()) {
+            Head<T> aHead = aHeads.poll();
+            aMerged.add(aHead.myRow);
+            if (aHead.myRest.hasNext()) {
+                aHead.myRow = aHead.myRest.next();
+                aHeads.add(aHead);
+            }
+        }
+        return aMerged;
+    }
+
+    private <T> List<T> executeShard(String theSql, int theShard, Function<String, List<T>> theQuery) {
+        String aShardSql = getShardSql(theSql, theShard);
+        for (int anAttempt = 1; ; anAttempt++) {
+            try {
+                return theQuery.apply(aShardSql);
+            } catch (RuntimeException e) {
+                if (isQueryError(e)) {
+                    throw new JdbcManager.SqlException("Shard " + theShard + " of " + myShards + " failed", e);
+                }
+                if (anAttempt >= myMaxAttempts) {
+                    throw new JdbcManager.SqlException("Shard " + theShard + " of " + myShards + " failed after "
+                            + anAttempt + " attempts", e);
+                }
+                long aDelay = myRetryDelayMillis << (anAttempt - 1);
+                log.warn("Shard {} of {} failed, retrying in {} ms. Error message: {}", theShard, myShards, aDelay,
+                        e.getMessage());
+                try {
+                    Thread.sleep(aDelay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new JdbcManager.SqlException("Interrupted while retrying shard " + theShard, ie);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the error is in the query itself, which fails the same way however many times it is run. Athena
+     * names these errors in the message, and the JDBC driver reports them with an SQL state of class 42.
+     */
+    static boolean isQueryError(Throwable theError) {
+        for (Throwable aCause = theError; aCause != null; aCause = aCause.getCause()) {
+            if (aCause instanceof SQLException && ((SQLException) aCause).getSQLState() != null
+                    && ((SQLException) aCause).getSQLState().startsWith("42")) {
+                return true;
+            }
+            if (aCause.getMessage() != null && QUERY_ERROR.matcher(aCause.getMessage()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the start of the last GROUP BY, the one of the outer query, or -1
+     */
+    private static int lastGroupBy(String theSql) {
+        Matcher aMatcher = GROUP_BY.matcher(theSql);
+        int aLast = -1;
+        while (aMatcher.find()) {
+            aLast = aMatcher.start();
+        }
+        return aLast;
+    }
+
+    private static class Head<T> {
+        private T myRow;
+        private Iterator<T> myRest;
+
+        private Head(T theRow, Iterator<T> theRest) {
+            myRow = theRow;
+            myRest = theRest;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package loke.chart;
+
+public interface ChartRenderer {
+
+    /**
+     * @return the url of the chart image, used as the src of an img tag
+     */
+    String render(LineChartSpec chart);
+}
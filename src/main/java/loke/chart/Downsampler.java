@@ -0,0 +1,118 @@
+package loke.chart;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reduces a series to a budget of points with Largest-Triangle-Three-Buckets, which keeps the shape of the line by
+ * picking the point in each bucket that forms the largest triangle with its neighbours. The highest point of the
+ * series is always kept, so the scale of a downsampled chart is the same as that of the full one. The lines of a chart
+ * with several series keep the same points, picked from their sum, so that every line is drawn at the same dates.
+ */
+public class Downsampler {
+
+    private Downsampler() {
+    }
+
+    /**
+     * @param maxPoints the number of points to keep, 0 keeps every point
+     * @return the kept values, spread evenly over the same range as the original series
+     */
+    public static List<Double> downsample(List<Double> values, int maxPoints) {
+        return select(values, selectIndices(values, maxPoints));
+    }
+
+    /**
+     * @param maxPoints the number of points to keep, 0 keeps every point
+     * @return the indices of the points to keep in ascending order, every index if the series is not downsampled
+     */
+    public static int[] selectIndices(List<Double> values, int maxPoints) {
+        int size = values.size();
+        if (maxPoints <= 0 || size <= maxPoints || maxPoints < 3) {
+            int[] every = new int[size];
+            for (int i = 0; i < size; i++) {
+                every[i] = i;
+            }
+            return every;
+        }
+        int peak = 0;
+        for (int i = 1; i < size; i++) {
+            if (values.get(i) > values.get(peak)) {
+                peak = i;
+            }
+        }
+
+        int[] sampled = new int[maxPoints];
+        double bucketSize = (double) (size - 2) / (maxPoints - 2);
+        int previous = 0;
+        for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+
+            // The average of the next bucket is the third corner of the triangle
+            int nextStart = end;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, size);
+            double nextX = 0;
+            double nextY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                nextX += i;
+                nextY += values.get(i);
+            }
+            int nextCount = Math.max(nextEnd - nextStart, 1);
+            nextX /= nextCount;
+            nextY /= nextCount;
+
+            int selected = start;
+            if (peak >= start && peak < end) {
+                selected = peak;
+            } else {
+                double previousY = values.get(previous);
+                double largestArea = -1;
+                for (int i = start; i < end; i++) {
+                    double area = Math.abs((previous - nextX) * (values.get(i) - previousY)
+                            - (previous - i) * (nextY - previousY));
+                    if (area > largestArea) {
+                        largestArea = area;
+                        selected = i;
+                    }
+                }
+            }
+            sampled[bucket + 1] = selected;
+            previous = selected;
+        }
+        sampled[maxPoints - 1] = size - 1;
+        return sampled;
+    }
+
+    /**
+     * @return the values at the indices, the same list if every value is kept
+     */
+    public static <T> List<T> select(List<T> values, int[] indices) {
+        if (indices.length == values.size()) {
+            return values;
+        }
+        List<T> selected = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            selected.add(values.get(index));
+        }
+        return selected;
+    }
+
+    /**
+     * @return the sum of the series at every index, to pick the points that all the lines of a chart keep
+     */
+    public static List<Double> sum(Collection<List<Double>> series) {
+        List<Double> sum = new ArrayList<>();
+        for (List<Double> values : series) {
+            for (int i = 0; i < values.size(); i++) {
+                if (i < sum.size()) {
+                    sum.set(i, sum.get(i) + values.get(i));
+                } else {
+                    sum.add(values.get(i));
+                }
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,31 @@
+package loke.chart;
+
+import com.googlecode.charts4j.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders the chart as a Google Chart url, which the mail client fetches when the email is opened.
+ */
+public class GoogleChartRenderer implements ChartRenderer {
+
+    @Override
+    public String render(LineChartSpec spec) {
+        List<Line> lines = new ArrayList<>();
+        for (LineChartSpec.Series series : spec.getSeries()) {
+            Data data = Data.newData(series.getValues());
+            lines.add(series.getLegend() != null
+                    ? Plots.newLine(data, series.getColor(), series.getLegend())
+                    : Plots.newLine(data, series.getColor()));
+        }
+        LineChart chart = GCharts.newLineChart(lines);
+        chart.addYAxisLabels(AxisLabelsFactory.newNumericAxisLabels(spec.getYAxisLabels()));
+        chart.addXAxisLabels(AxisLabelsFactory.newAxisLabels(spec.getXAxisLabels()));
+        chart.addYAxisLabels(AxisLabelsFactory.newAxisLabels(spec.getYAxisTitle(), 50));
+        chart.addXAxisLabels(AxisLabelsFactory.newAxisLabels(spec.getXAxisTitle(), 50));
+        chart.setSize(spec.getWidth(), spec.getHeight());
+        chart.setTitle(spec.getTitle());
+        return chart.toURLString();
+    }
+}
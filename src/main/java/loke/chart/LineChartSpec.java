@@ -0,0 +1,124 @@
+package loke.chart;
+
+import com.googlecode.charts4j.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a line chart shows, independent of how it is rendered. The values of the series are in percent of the y axis,
+ * the same as charts4j expects them.
+ */
+public class LineChartSpec {
+    private List<Series> series;
+    private List<String> xAxisLabels = new ArrayList<>();
+    private List<Integer> yAxisLabels = new ArrayList<>();
+    private String xAxisTitle;
+    private String yAxisTitle;
+    private String title;
+    private int width;
+    private int height;
+
+    public LineChartSpec(List<Series> series) {
+        this.series = series;
+    }
+
+    public List<Series> getSeries() {
+        return series;
+    }
+
+    public List<String> getXAxisLabels() {
+        return xAxisLabels;
+    }
+
+    public void setXAxisLabels(List<String> xAxisLabels) {
+        this.xAxisLabels = xAxisLabels;
+    }
+
+    public List<Integer> getYAxisLabels() {
+        return yAxisLabels;
+    }
+
+    public void setYAxisLabels(List<Integer> yAxisLabels) {
+        this.yAxisLabels = yAxisLabels;
+    }
+
+    public String getXAxisTitle() {
+        return xAxisTitle;
+    }
+
+    public void setXAxisTitle(String xAxisTitle) {
+        this.xAxisTitle = xAxisTitle;
+    }
+
+    public String getYAxisTitle() {
+        return yAxisTitle;
+    }
+
+    public void setYAxisTitle(String yAxisTitle) {
+        this.yAxisTitle = yAxisTitle;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return everything the chart is made of, two charts with the same key look the same
+     */
+    public String getKey() {
+        StringBuilder key = new StringBuilder();
+        key.append(title).append('\n').append(width).append('x').append(height).append('\n')
+                .append(xAxisTitle).append('\n').append(xAxisLabels).append('\n')
+                .append(yAxisTitle).append('\n').append(yAxisLabels).append('\n');
+        for (Series line : series) {
+            key.append(line.getLegend()).append('|').append(line.getColor()).append('|').append(line.getValues())
+                    .append('\n');
+        }
+        return key.toString();
+    }
+
+    public static class Series {
+        private String legend;
+        private Color color;
+        private List<Double> values;
+
+        /**
+         * @param legend the legend of the line, or null if the chart has no legend
+         */
+        public Series(String legend, Color color, List<Double> values) {
+            this.legend = legend;
+            this.color = color;
+            this.values = values;
+        }
+
+        public String getLegend() {
+            return legend;
+        }
+
+        public Color getColor() {
+            return color;
+        }
+
+        public List<Double> getValues() {
+            return values;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package loke.chart;
+
+import loke.site.SiteStorage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Draws the charts as PNG images locally instead of linking to Google Charts, and uploads each image once. The name
+ * of an image is the hash of the chart it shows, so a chart that already exists, from this run or an earlier one, is
+ * linked to without being drawn again.
+ */
+public class PngChartRenderer implements ChartRenderer {
+    private static final Logger log = LogManager.getLogger(PngChartRenderer.class);
+    private static final String CHART_DIRECTORY = "charts/";
+    private static final int MARGIN_LEFT = 70;
+    private static final int MARGIN_TOP = 30;
+    private static final int MARGIN_BOTTOM = 45;
+    private static final int MARGIN_RIGHT = 20;
+    private static final int LEGEND_WIDTH = 220;
+    private static final Color GRID_COLOR = new Color(0xdd, 0xdd, 0xdd);
+    private SiteStorage storage;
+    private String baseUrl;
+    private Set<String> stored = ConcurrentHashMap.newKeySet();
+    private AtomicInteger drawn = new AtomicInteger();
+
+    /**
+     * @param baseUrl the url the storage is served from
+     */
+    public PngChartRenderer(SiteStorage storage, String baseUrl) {
+        this.storage = storage;
+        this.baseUrl = (baseUrl == null || baseUrl.isEmpty() || baseUrl.endsWith("/")) ? baseUrl : baseUrl + "/";
+    }
+
+    @Override
+    public String render(LineChartSpec chart) {
+        String path = CHART_DIRECTORY + hash(chart.getKey()) + ".png";
+        if (!stored.contains(path)) {
+            if (!storage.exists(path)) {
+                storage.write(path, draw(chart));
+                log.info("Chart drawn: {}, charts drawn: {}", path, drawn.incrementAndGet());
+            }
+            stored.add(path);
+        }
+        return (baseUrl != null ? baseUrl : "") + path;
+    }
+
+    static byte[] draw(LineChartSpec chart) {
+        BufferedImage image = new BufferedImage(chart.getWidth(), chart.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, chart.getWidth(), chart.getHeight());
+            graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 11));
+
+            boolean hasLegend = chart.getSeries().stream().anyMatch(series -> series.getLegend() != null);
+            int left = MARGIN_LEFT;
+            int top = MARGIN_TOP;
+            int right = chart.getWidth() - MARGIN_RIGHT - (hasLegend ? LEGEND_WIDTH : 0);
+            int bottom = chart.getHeight() - MARGIN_BOTTOM;
+
+            drawTitle(graphics, chart, (left + right) / 2);
+            drawYAxis(graphics, chart, left, top, right, bottom);
+            drawXAxis(graphics, chart, left, right, bottom);
+            drawSeries(graphics, chart, left, top, right, bottom);
+            if (hasLegend) {
+                drawLegend(graphics, chart.getSeries(), right + MARGIN_RIGHT, top);
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", png);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode the chart: " + chart.getTitle(), e);
+        }
+        return png.toByteArray();
+    }
+
+    private static void drawTitle(Graphics2D graphics, LineChartSpec chart, int center) {
+        if (chart.getTitle() == null) {
+            return;
+        }
+        graphics.setColor(Color.BLACK);
+        graphics.setFont(graphics.getFont().deriveFont(Font.BOLD, 13f));
+        int width = graphics.getFontMetrics().stringWidth(chart.getTitle());
+        graphics.drawString(chart.getTitle(), center - width / 2, MARGIN_TOP - 12);
+        graphics.setFont(graphics.getFont().deriveFont(Font.PLAIN, 11f));
+    }
+
+    private static void drawYAxis(Graphics2D graphics, LineChartSpec chart, int left, int top, int right, int bottom) {
+        List<Integer> labels = chart.getYAxisLabels();
+        FontMetrics metrics = graphics.getFontMetrics();
+        for (int i = 0; i < labels.size(); i++) {
+            int y = bottom - (labels.size() > 1 ? i * (bottom - top) / (labels.size() - 1) : 0);
+            graphics.setColor(GRID_COLOR);
+            graphics.drawLine(left, y, right, y);
+            graphics.setColor(Color.DARK_GRAY);
+            String label = String.valueOf(labels.get(i));
+            graphics.drawString(label, left - 6 - metrics.stringWidth(label), y + metrics.getAscent() / 2);
+        }
+        if (chart.getYAxisTitle() != null) {
+            AffineTransform transform = graphics.getTransform();
+            graphics.rotate(-Math.PI / 2);
+            int width = metrics.stringWidth(chart.getYAxisTitle());
+            graphics.drawString(chart.getYAxisTitle(), -(top + bottom) / 2 - width / 2, metrics.getAscent() + 4);
+            graphics.setTransform(transform);
+        }
+        graphics.setColor(Color.GRAY);
+        graphics.drawLine(left, top, left, bottom);
+    }
+
+    private static void drawXAxis(Graphics2D graphics, LineChartSpec chart, int left, int right, int bottom) {
+        List<String> labels = chart.getXAxisLabels();
+        FontMetrics metrics = graphics.getFontMetrics();
+        graphics.setColor(Color.GRAY);
+        graphics.drawLine(left, bottom, right, bottom);
+        graphics.setColor(Color.DARK_GRAY);
+        for (int i = 0; i < labels.size(); i++) {
+            int x = left + (labels.size() > 1 ? i * (right - left) / (labels.size() - 1) : 0);
+            String label = labels.get(i);
+            graphics.drawString(label, x - metrics.stringWidth(label) / 2, bottom + metrics.getHeight());
+        }
+        if (chart.getXAxisTitle() != null) {
+            int width = metrics.stringWidth(chart.getXAxisTitle());
+            graphics.drawString(chart.getXAxisTitle(), (left + right) / 2 - width / 2,
+                    bottom + 2 * metrics.getHeight() + 2);
+        }
+    }
+
+    private static void drawSeries(Graphics2D graphics, LineChartSpec chart, int left, int top, int right,
+                                   int bottom) {
+        graphics.setStroke(new BasicStroke(2f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        for (LineChartSpec.Series series : chart.getSeries()) {
+            List<Double> values = series.getValues();
+            if (values.isEmpty()) {
+                continue;
+            }
+            Path2D.Double line = new Path2D.Double();
+            for (int i = 0; i < values.size(); i++) {
+                double x = left + (values.size() > 1 ? (double) i * (right - left) / (values.size() - 1) : 0);
+                double percent = Math.max(0, Math.min(100, values.get(i)));
+                double y = bottom - percent * (bottom - top) / 100;
+                if (i == 0) {
+                    line.moveTo(x, y);
+                } else {
+                    line.lineTo(x, y);
+                }
+            }
+            graphics.setColor(toColor(series.getColor()));
+            graphics.draw(line);
+        }
+        graphics.setStroke(new BasicStroke());
+    }
+
+    private static void drawLegend(Graphics2D graphics, List<LineChartSpec.Series> series, int left, int top) {
+        FontMetrics metrics = graphics.getFontMetrics();
+        int y = top;
+        for (LineChartSpec.Series line : series) {
+            if (line.getLegend() == null) {
+                continue;
+            }
+            graphics.setColor(toColor(line.getColor()));
+            graphics.fillRect(left, y, 10, 10);
+            graphics.setColor(Color.DARK_GRAY);
+            graphics.drawString(line.getLegend(), left + 16, y + 10);
+            y += metrics.getHeight() + 2;
+        }
+    }
+
+    /**
+     * charts4j colors print as RRGGBB, followed by AA if they are transparent.
+     */
+    private static Color toColor(com.googlecode.charts4j.Color color) {
+        return new Color(Integer.parseInt(color.toString().substring(0, 6), 16));
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+}
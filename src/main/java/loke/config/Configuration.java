@@ -22,6 +22,42 @@ public class Configuration {
     private String gzFileDestinationBucket;
     private String sqlDatabaseName;
     private String sqlTableName;
+    private boolean pipelined;
+    private int pipelineQueueSize = 100;
+    private int pipelineSenderThreads = 4;
+    private int renderParallelism = Runtime.getRuntime().availableProcessors();
+    private boolean precompiledTemplates;
+    private boolean rawEmail;
+    private int reportCompressionThreshold = 8192;
+    private int sesSenderThreads;
+    private double sesMaxSendRate;
+    private String sesTemplateName;
+    private String outboxDirectory;
+    private String outboxStage = "all";
+    private String journalDirectory;
+    private double suppressUnchangedBelowPercent;
+    private int maxResourcesPerReport;
+    private int maxAccountsPerReport;
+    private int maxStartedResourcesPerReport;
+    private int adminTopSpenders;
+    private int adminTopMovers;
+    private String reportSiteLocation;
+    private String reportSiteUrl;
+    private String chartImageLocation;
+    private String chartImageUrl;
+    private int chartMaxPoints;
+    private String fingerprintFile = "fingerprints.csv";
+    private int reportWindowDays = 30;
+    private String reportGranularity;
+    private int startedResourceDays = 7;
+    private String firstSeenIndexFile;
+    private int queryShards = 1;
+    private int queryConcurrency = 4;
+    private String workingTableName;
+    private String workingTableLocation;
+    private boolean partitionedTable;
+    private String queryBackend = "jdbc";
+    private String resultFetch = "api";
 
     public String getZipFileSourceBucket() {
         return zipFileSourceBucket;
@@ -122,4 +158,280 @@ public class Configuration {
     public void setRegion(String region) {
         this.region = region;
     }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public int getPipelineQueueSize() {
+        return pipelineQueueSize;
+    }
+
+    public int getPipelineSenderThreads() {
+        return pipelineSenderThreads;
+    }
+
+    public int getRenderParallelism() {
+        return renderParallelism;
+    }
+
+    public void setRenderParallelism(int renderParallelism) {
+        this.renderParallelism = renderParallelism;
+    }
+
+    public boolean isPrecompiledTemplates() {
+        return precompiledTemplates;
+    }
+
+    public void setPrecompiledTemplates(boolean precompiledTemplates) {
+        this.precompiledTemplates = precompiledTemplates;
+    }
+
+    public boolean isRawEmail() {
+        return rawEmail;
+    }
+
+    public void setRawEmail(boolean rawEmail) {
+        this.rawEmail = rawEmail;
+    }
+
+    public int getReportCompressionThreshold() {
+        return reportCompressionThreshold;
+    }
+
+    public int getSesSenderThreads() {
+        return sesSenderThreads;
+    }
+
+    public void setSesSenderThreads(int sesSenderThreads) {
+        this.sesSenderThreads = sesSenderThreads;
+    }
+
+    public double getSesMaxSendRate() {
+        return sesMaxSendRate;
+    }
+
+    public void setSesMaxSendRate(double sesMaxSendRate) {
+        this.sesMaxSendRate = sesMaxSendRate;
+    }
+
+    public String getSesTemplateName() {
+        return sesTemplateName;
+    }
+
+    public void setSesTemplateName(String sesTemplateName) {
+        this.sesTemplateName = sesTemplateName;
+    }
+
+    public String getOutboxDirectory() {
+        return outboxDirectory;
+    }
+
+    public void setOutboxDirectory(String outboxDirectory) {
+        this.outboxDirectory = outboxDirectory;
+    }
+
+    public String getOutboxStage() {
+        return outboxStage;
+    }
+
+    public void setOutboxStage(String outboxStage) {
+        this.outboxStage = outboxStage;
+    }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    public double getSuppressUnchangedBelowPercent() {
+        return suppressUnchangedBelowPercent;
+    }
+
+    public void setSuppressUnchangedBelowPercent(double suppressUnchangedBelowPercent) {
+        this.suppressUnchangedBelowPercent = suppressUnchangedBelowPercent;
+    }
+
+    public String getFingerprintFile() {
+        return fingerprintFile;
+    }
+
+    public void setFingerprintFile(String fingerprintFile) {
+        this.fingerprintFile = fingerprintFile;
+    }
+
+    public int getMaxResourcesPerReport() {
+        return maxResourcesPerReport;
+    }
+
+    public void setMaxResourcesPerReport(int maxResourcesPerReport) {
+        this.maxResourcesPerReport = maxResourcesPerReport;
+    }
+
+    public int getMaxAccountsPerReport() {
+        return maxAccountsPerReport;
+    }
+
+    public void setMaxAccountsPerReport(int maxAccountsPerReport) {
+        this.maxAccountsPerReport = maxAccountsPerReport;
+    }
+
+    public int getMaxStartedResourcesPerReport() {
+        return maxStartedResourcesPerReport;
+    }
+
+    public void setMaxStartedResourcesPerReport(int maxStartedResourcesPerReport) {
+        this.maxStartedResourcesPerReport = maxStartedResourcesPerReport;
+    }
+
+    public int getAdminTopSpenders() {
+        return adminTopSpenders;
+    }
+
+    public void setAdminTopSpenders(int adminTopSpenders) {
+        this.adminTopSpenders = adminTopSpenders;
+    }
+
+    public int getAdminTopMovers() {
+        return adminTopMovers;
+    }
+
+    public void setAdminTopMovers(int adminTopMovers) {
+        this.adminTopMovers = adminTopMovers;
+    }
+
+    public String getReportSiteLocation() {
+        return reportSiteLocation;
+    }
+
+    public void setReportSiteLocation(String reportSiteLocation) {
+        this.reportSiteLocation = reportSiteLocation;
+    }
+
+    public String getReportSiteUrl() {
+        return reportSiteUrl;
+    }
+
+    public void setReportSiteUrl(String reportSiteUrl) {
+        this.reportSiteUrl = reportSiteUrl;
+    }
+
+    public String getChartImageLocation() {
+        return chartImageLocation;
+    }
+
+    public void setChartImageLocation(String chartImageLocation) {
+        this.chartImageLocation = chartImageLocation;
+    }
+
+    public String getChartImageUrl() {
+        return chartImageUrl;
+    }
+
+    public void setChartImageUrl(String chartImageUrl) {
+        this.chartImageUrl = chartImageUrl;
+    }
+
+    public int getChartMaxPoints() {
+        return chartMaxPoints;
+    }
+
+    public void setChartMaxPoints(int chartMaxPoints) {
+        this.chartMaxPoints = chartMaxPoints;
+    }
+
+    public int getReportWindowDays() {
+        return reportWindowDays;
+    }
+
+    public void setReportWindowDays(int reportWindowDays) {
+        this.reportWindowDays = reportWindowDays;
+    }
+
+    public String getReportGranularity() {
+        return reportGranularity;
+    }
+
+    public void setReportGranularity(String reportGranularity) {
+        this.reportGranularity = reportGranularity;
+    }
+
+    public int getStartedResourceDays() {
+        return startedResourceDays;
+    }
+
+    public void setStartedResourceDays(int startedResourceDays) {
+        this.startedResourceDays = startedResourceDays;
+    }
+
+    public String getFirstSeenIndexFile() {
+        return firstSeenIndexFile;
+    }
+
+    public void setFirstSeenIndexFile(String firstSeenIndexFile) {
+        this.firstSeenIndexFile = firstSeenIndexFile;
+    }
+
+    public int getQueryShards() {
+        return queryShards;
+    }
+
+    public void setQueryShards(int queryShards) {
+        this.queryShards = queryShards;
+    }
+
+    public int getQueryConcurrency() {
+        return queryConcurrency;
+    }
+
+    public void setQueryConcurrency(int queryConcurrency) {
+        this.queryConcurrency = queryConcurrency;
+    }
+
+    public String getWorkingTableName() {
+        return workingTableName;
+    }
+
+    public void setWorkingTableName(String workingTableName) {
+        this.workingTableName = workingTableName;
+    }
+
+    public String getWorkingTableLocation() {
+        return workingTableLocation;
+    }
+
+    public void setWorkingTableLocation(String workingTableLocation) {
+        this.workingTableLocation = workingTableLocation;
+    }
+
+    public boolean isPartitionedTable() {
+        return partitionedTable;
+    }
+
+    public void setPartitionedTable(boolean partitionedTable) {
+        this.partitionedTable = partitionedTable;
+    }
+
+    public String getQueryBackend() {
+        return queryBackend;
+    }
+
+    public void setQueryBackend(String queryBackend) {
+        this.queryBackend = queryBackend;
+    }
+
+    public String getResultFetch() {
+        return resultFetch;
+    }
+
+    public void setResultFetch(String resultFetch) {
+        this.resultFetch = resultFetch;
+    }
 }
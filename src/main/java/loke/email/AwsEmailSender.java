@@ -1,21 +1,61 @@
 package loke.email;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import loke.journal.RunJournal;
 import loke.model.Admin;
 import loke.model.Employee;
 import loke.model.Report;
 import loke.model.TotalReport;
+import loke.site.ReportSite;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class AwsEmailSender {
     private static final Logger log = LogManager.getLogger(AwsEmailSender.class);
+    private static final int MAX_BULK_RECIPIENTS = 50;
+    private static final int MAX_BULK_TEMPLATE_DATA_SIZE = 9 * 1024 * 1024;
+    private static final int MAX_TEMPLATE_DATA_SIZE = 262144;
+    private static final String LINK_STYLE = "<p style=\"font-family:'arial'\">";
+    private static final String TEMPLATE_HTML_PART = "{{#each sections}}"
+            + "{{#if chart}}<img src=\"{{chart}}\"/img><br>{{/if}}"
+            + "{{#if table}}{{{table}}}<br>{{/if}}"
+            + "{{/each}}"
+            + "{{#if url}}" + LINK_STYLE + "The full report is available at: <a href=\"{{url}}\">{{url}}</a></p>{{/if}}"
+            + "{{#if index}}" + LINK_STYLE
+            + "The reports of all owners are listed at: <a href=\"{{index}}\">{{index}}</a></p>{{/if}}";
+    private static final String EMPLOYEE = "employee";
+    private static final String ADMIN = "admin";
     private AwsSesHandler awsSesHandler;
     private String toEmailDomainName;
     private String subject = "Weekly AWS cost report";
     private String from;
     private boolean dryRun;
+    private boolean rawEmail;
+    private FragmentStore fragmentStore = new FragmentStore();
+    private String lineBreak = fragmentStore.put("<br>");
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private String templateName;
+    private boolean templateCreated;
+    private Map<String, String> bulkTemplateData = new LinkedHashMap<>();
+    private int bulkTemplateDataSize;
+    private Outbox outbox;
+    private RunJournal journal;
+    private ReportSite reportSite;
+    private AtomicInteger unsent = new AtomicInteger();
+    private Consumer<String> sentListener = owner -> {
+    };
 
     public AwsEmailSender(AwsSesHandler awsSesHandler, String from, String toEmailDomainName, boolean dryRun) {
         this.awsSesHandler = awsSesHandler;
@@ -24,65 +64,435 @@ public class AwsEmailSender {
         this.dryRun = dryRun;
     }
 
+    /**
+     * Sends the emails as MIME messages streamed from the stored fragments instead of building the html body as a
+     * String.
+     */
+    public void setRawEmail(boolean rawEmail) {
+        this.rawEmail = rawEmail;
+    }
+
+    /**
+     * Registers the email layout as an SES template with this name and sends the emails with SendBulkTemplatedEmail,
+     * up to 50 recipients per request, with only the chart urls, tables and links of each email as template data. An
+     * email whose template data is over the SES limit is sent on its own. Null sends one request per email.
+     */
+    public void setTemplateName(String templateName) {
+        this.templateName = templateName == null || templateName.isEmpty() ? null : templateName;
+    }
+
+    /**
+     * Writes the emails to the outbox instead of sending them. They are sent by {@link #sendOutbox()}.
+     */
+    public void setOutbox(Outbox outbox) {
+        this.outbox = outbox;
+    }
+
+    /**
+     * Records the recipients SES has accepted an email for in the journal, and skips the recipients it already holds.
+     * Emails in the outbox are not recorded, the outbox keeps track of its own emails.
+     */
+    public void setJournal(RunJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Publishes the full reports to the site and only sends a summary with a link to the report.
+     */
+    public void setReportSite(ReportSite reportSite) {
+        this.reportSite = reportSite;
+    }
+
+    /**
+     * @param sentListener called with the user name of each employee SES has accepted the email for, or whose email
+     * the journal holds as sent
+     */
+    public void setSentListener(Consumer<String> sentListener) {
+        this.sentListener = sentListener;
+    }
+
+    /**
+     * Sends the emails in the outbox that have not been sent yet.
+     */
+    public void sendOutbox() {
+        if (dryRun) {
+            log.info("DryRun: {} emails in the outbox not sent", outbox.getPendingCount());
+            return;
+        }
+        outbox.drain(awsSesHandler, to -> {
+            if (to.endsWith(toEmailDomainName)) {
+                sentListener.accept(toUserName(to));
+            }
+        });
+        unsent.addAndGet(outbox.getPendingCount());
+    }
+
+    /**
+     * @return true if SES has accepted every email handed to it, or to the outbox, so far. Only reliable after
+     * {@link #awaitPendingEmails()}.
+     */
+    public boolean isAllSent() {
+        return unsent.get() == 0;
+    }
+
     public void sendEmployeeMails(List<Employee> employeeReports) {
         log.info("Sending emails to employees");
         for (Employee employee : employeeReports) {
-            StringBuilder htmlBody = new StringBuilder();
-            log.info("Creating email for: {}", employee.getUserName());
-            String to = employee.getUserName() + toEmailDomainName;
-            for (Report report : employee.getReports()) {
-                addChartUrl(htmlBody, report);
-                addHtmlTable(htmlBody, report);
-            }
+            sendEmployeeMail(employee);
+        }
+        sendBulkEmails();
+    }
+
+    public void sendEmployeeMail(Employee employee) {
+        List<String> fragments = new ArrayList<>();
+        String to = employee.getUserName() + toEmailDomainName;
+        if (journal != null && journal.isSent(EMPLOYEE, to)) {
+            log.info("Email already sent to: {}", to);
+            sentListener.accept(employee.getUserName());
+            return;
+        }
+        log.info("Creating email for: {}", employee.getUserName());
+        for (Report report : employee.getReports()) {
+            addChartUrl(fragments, report);
+            addHtmlTable(fragments, report);
+        }
+        List<String> summary = Collections.emptyList();
+        try {
             if (dryRun) {
                 log.info("DryRun: Email not sent to: {}", employee.getUserName());
-                log.trace("Email for {}: {}", employee.getUserName(), htmlBody.toString().trim());
+                if (log.isTraceEnabled()) {
+                    log.trace("Email for {}: {}", employee.getUserName(), fragmentStore.assemble(fragments));
+                }
+                return;
+            }
+            if (fragments.isEmpty()) {
                 return;
             }
-            if (htmlBody.length() > 0) {
-                awsSesHandler.sendEmail(to, htmlBody.toString().trim(), subject, from);
+            String url = null;
+            if (reportSite != null) {
+                url = reportSite.publish(employee.getUserName(), fragmentStore.assemble(fragments));
+                summary = summarize(employee.getReports(), url, null);
+            }
+            List<String> body = reportSite != null ? summary : fragments;
+            String templateData = null;
+            if (outbox == null && templateName != null) {
+                templateData = toTemplateData(url == null ? toSections(employee.getReports(), false)
+                        : toSummarySections(employee.getReports()), url, null);
             }
+            if (outbox != null) {
+                byte[] htmlBody = RawEmail.encodeHtmlBody(fragmentStore, body);
+                outbox.add(to, from, RawEmail.createMessage(from, to, subject, htmlBody));
+            } else if (templateData != null && fitsTemplate(to, templateData)) {
+                addToBulkEmails(to, templateData);
+            } else if (rawEmail) {
+                byte[] htmlBody = RawEmail.encodeHtmlBody(fragmentStore, body);
+                recordSent(EMPLOYEE, to,
+                        awsSesHandler.sendRawEmail(to, from, RawEmail.createMessage(from, to, subject, htmlBody)));
+            } else {
+                recordSent(EMPLOYEE, to, awsSesHandler.sendEmail(to, fragmentStore.assemble(body), subject, from));
+            }
+        } finally {
+            fragmentStore.release(fragments);
+            fragmentStore.release(summary);
         }
     }
 
     public void sendAdminMails(List<Admin> admins, List<Employee> adminReports) {
         log.info("Sending emails to administrators");
-        StringBuilder htmlBody = new StringBuilder();
+        List<String> fragments = new ArrayList<>();
         for (Employee employee : adminReports) {
             log.info("Adding reports for: {} to html body", employee.getUserName());
             for (Report report : employee.getReports()) {
                 if (report instanceof TotalReport) {
-                    addChartUrl(htmlBody, report);
+                    addChartUrl(fragments, report);
                 }
-                addHtmlTable(htmlBody, report);
+                addHtmlTable(fragments, report);
             }
         }
-        if (dryRun) {
-            log.info("DryRun: Admin-email not sent");
-            log.trace("Admin-email: {}", htmlBody.toString().trim());
-            return;
+        List<String> summary = Collections.emptyList();
+        try {
+            if (dryRun) {
+                log.info("DryRun: Admin-email not sent");
+                if (log.isTraceEnabled()) {
+                    log.trace("Admin-email: {}", fragmentStore.assemble(fragments));
+                }
+                return;
+            }
+
+            String url = null;
+            String indexUrl = null;
+            List<Map<String, String>> sections = new ArrayList<>();
+            if (reportSite != null && !fragments.isEmpty()) {
+                List<Report> summaryReports = adminReports.isEmpty() ? Collections.emptyList()
+                        : adminReports.get(0).getReports();
+                url = reportSite.publish(ADMIN, fragmentStore.assemble(fragments));
+                // The index links every page of the run, so only the admins get its url
+                indexUrl = reportSite.writeIndex();
+                summary = summarize(summaryReports, url, indexUrl);
+                sections = toSummarySections(summaryReports);
+            } else if (templateName != null) {
+                for (Employee employee : adminReports) {
+                    sections.addAll(toSections(employee.getReports(), true));
+                }
+            }
+            List<String> body = url != null ? summary : fragments;
+            String templateData = outbox == null && templateName != null
+                    ? toTemplateData(sections, url, indexUrl) : null;
+
+            // The body is built once and shared by all admins
+            if (body.isEmpty()) {
+                log.info("No admin emails were sent. HtmlBody size: 0");
+            } else if (outbox != null) {
+                byte[] htmlBody = RawEmail.encodeHtmlBody(fragmentStore, body);
+                for (Admin admin : admins) {
+                    outbox.add(admin.getEmailAddress(), from,
+                            RawEmail.createMessage(from, admin.getEmailAddress(), subject, htmlBody));
+                }
+            } else if (templateData != null && fitsTemplate(ADMIN, templateData)) {
+                sendBulkAdminMails(admins, templateData);
+            } else if (rawEmail) {
+                byte[] htmlBody = RawEmail.encodeHtmlBody(fragmentStore, body);
+                for (Admin admin : getUnsentAdmins(admins)) {
+                    recordSent(ADMIN, admin.getEmailAddress(), awsSesHandler.sendRawEmail(admin.getEmailAddress(), from,
+                            RawEmail.createMessage(from, admin.getEmailAddress(), subject, htmlBody)));
+                }
+            } else {
+                String htmlBody = fragmentStore.assemble(body);
+                for (Admin admin : getUnsentAdmins(admins)) {
+                    recordSent(ADMIN, admin.getEmailAddress(),
+                            awsSesHandler.sendEmail(admin.getEmailAddress(), htmlBody, subject, from));
+                }
+            }
+            log.info("Fragments stored: {}, size: {} bytes", fragmentStore.size(), fragmentStore.getByteSize());
+        } finally {
+            fragmentStore.release(fragments);
+            fragmentStore.release(summary);
         }
+    }
 
-        if (htmlBody.length() > 0) {
-            for (Admin admin : admins) {
-                awsSesHandler.sendEmail(admin.getEmailAddress(), htmlBody.toString().trim(), subject, from);
+    /**
+     * @return the fragments of the summary that is sent instead of a report published to the site: the first chart of
+     * the reports and a link, for the admins also a link to the index of the run
+     */
+    private List<String> summarize(List<Report> reports, String url, String indexUrl) {
+        List<String> summary = new ArrayList<>();
+        for (Report report : reports) {
+            if (report.getChartUrl() != null) {
+                addChartUrl(summary, report);
+                break;
             }
-        } else {
-            log.info("No admin emails were sent. HtmlBody size: {}", htmlBody.length());
         }
+        summary.add(fragmentStore.put(LINK_STYLE + "The full report is available at: <a href=\""
+                + url + "\">" + url + "</a></p>"));
+        if (indexUrl != null) {
+            summary.add(fragmentStore.put(LINK_STYLE + "The reports of all owners are listed at: "
+                    + "<a href=\"" + indexUrl + "\">" + indexUrl + "</a></p>"));
+        }
+        return summary;
     }
 
-    private void addChartUrl(StringBuilder htmlBody, Report report) {
+    private void addChartUrl(List<String> fragments, Report report) {
         if (report.getChartUrl() != null) {
-            htmlBody.append("<img src=\"").append(report.getChartUrl()).append("\"/img>");
-            htmlBody.append("<br>");
+            fragments.add(fragmentStore.put("<img src=\"" + report.getChartUrl() + "\"/img><br>"));
         }
     }
 
-    private void addHtmlTable(StringBuilder htmlBody, Report report) {
-        if (report.getHtmlTable() != null) {
-            htmlBody.append(report.getHtmlTable());
-            htmlBody.append("<br>");
+    private void addHtmlTable(List<String> fragments, Report report) {
+        if (report.getCompactHtmlTable() != null) {
+            fragments.add(fragmentStore.put(report.getCompactHtmlTable()));
+            fragments.add(fragmentStore.retain(lineBreak));
+        }
+    }
+
+    /**
+     * Sends the bulk emails that are still waiting for a full request, and waits for the emails that are still being
+     * sent in the background.
+     */
+    public void awaitPendingEmails() {
+        sendBulkEmails();
+        awsSesHandler.awaitPendingEmails();
+    }
+
+    private List<Admin> getUnsentAdmins(List<Admin> admins) {
+        if (journal == null) {
+            return admins;
+        }
+        List<Admin> unsent = new ArrayList<>();
+        for (Admin admin : admins) {
+            if (journal.isSent(ADMIN, admin.getEmailAddress())) {
+                log.info("Admin email already sent to: {}", admin.getEmailAddress());
+            } else {
+                unsent.add(admin);
+            }
+        }
+        return unsent;
+    }
+
+    private void recordSent(String kind, String to, CompletableFuture<Boolean> delivery) {
+        if (delivery != null) {
+            delivery.thenAccept(sent -> {
+                if (sent) {
+                    markSent(kind, to);
+                } else {
+                    unsent.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    private void recordSent(String kind, Collection<String> recipients, CompletableFuture<List<String>> delivery) {
+        if (delivery != null) {
+            delivery.thenAccept(accepted -> {
+                for (String to : recipients) {
+                    if (accepted.contains(to)) {
+                        markSent(kind, to);
+                    } else {
+                        unsent.incrementAndGet();
+                    }
+                }
+            });
+        }
+    }
+
+    private void markSent(String kind, String to) {
+        if (journal != null) {
+            journal.markSent(kind, to);
+        }
+        if (EMPLOYEE.equals(kind)) {
+            sentListener.accept(toUserName(to));
+        }
+    }
+
+    private String toUserName(String to) {
+        return to.substring(0, to.length() - toEmailDomainName.length());
+    }
+
+    /**
+     * Adds the email to the waiting bulk request. The requests that are full are sent after the lock is released, so
+     * the other senders can keep adding emails meanwhile.
+     */
+    private void addToBulkEmails(String to, String templateData) {
+        int size = templateData.getBytes(StandardCharsets.UTF_8).length;
+        Map<String, String> fullRequest = null;
+        Map<String, String> lastRequest = null;
+        synchronized (this) {
+            if (bulkTemplateDataSize + size > MAX_BULK_TEMPLATE_DATA_SIZE) {
+                fullRequest = takeBulkEmails();
+            }
+            bulkTemplateData.put(to, templateData);
+            bulkTemplateDataSize += size;
+            if (bulkTemplateData.size() == MAX_BULK_RECIPIENTS) {
+                lastRequest = takeBulkEmails();
+            }
+        }
+        sendBulkEmails(fullRequest);
+        sendBulkEmails(lastRequest);
+    }
+
+    private void sendBulkEmails() {
+        sendBulkEmails(takeBulkEmails());
+    }
+
+    private synchronized Map<String, String> takeBulkEmails() {
+        Map<String, String> request = bulkTemplateData;
+        bulkTemplateData = new LinkedHashMap<>();
+        bulkTemplateDataSize = 0;
+        return request;
+    }
+
+    private void sendBulkEmails(Map<String, String> recipients) {
+        if (recipients == null || recipients.isEmpty()) {
+            return;
+        }
+        createTemplate();
+        recordSent(EMPLOYEE, recipients.keySet(),
+                awsSesHandler.sendBulkTemplatedEmail(from, templateName, "{}", recipients));
+    }
+
+    /**
+     * The admins all get the same email, so its template data is sent once as the default template data.
+     */
+    private void sendBulkAdminMails(List<Admin> admins, String defaultTemplateData) {
+        createTemplate();
+        Map<String, String> recipients = new LinkedHashMap<>();
+        for (Admin admin : getUnsentAdmins(admins)) {
+            recipients.put(admin.getEmailAddress(), "{}");
+            if (recipients.size() == MAX_BULK_RECIPIENTS) {
+                recordSent(ADMIN, recipients.keySet(),
+                        awsSesHandler.sendBulkTemplatedEmail(from, templateName, defaultTemplateData, recipients));
+                recipients = new LinkedHashMap<>();
+            }
+        }
+        if (!recipients.isEmpty()) {
+            recordSent(ADMIN, recipients.keySet(),
+                    awsSesHandler.sendBulkTemplatedEmail(from, templateName, defaultTemplateData, recipients));
+        }
+    }
+
+    private synchronized void createTemplate() {
+        if (!templateCreated) {
+            awsSesHandler.createTemplate(templateName, subject, TEMPLATE_HTML_PART);
+            templateCreated = true;
+        }
+    }
+
+    /**
+     * SES rejects the whole bulk request if the template data of one of its emails is over the limit.
+     */
+    private boolean fitsTemplate(String to, String templateData) {
+        int size = templateData.getBytes(StandardCharsets.UTF_8).length;
+        if (size > MAX_TEMPLATE_DATA_SIZE) {
+            log.info("Template data for: {} is {} bytes, over the limit of {}, sending it on its own", to, size,
+                    MAX_TEMPLATE_DATA_SIZE);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param chartsOfTotalsOnly true to leave out the charts of the reports that are not totals, as the admin
+     * email does
+     * @return the values of the sections of the template: the chart and the table of each report
+     */
+    private static List<Map<String, String>> toSections(List<Report> reports, boolean chartsOfTotalsOnly) {
+        List<Map<String, String>> sections = new ArrayList<>();
+        for (Report report : reports) {
+            Map<String, String> section = new LinkedHashMap<>();
+            if (report.getChartUrl() != null && (!chartsOfTotalsOnly || report instanceof TotalReport)) {
+                section.put("chart", report.getChartUrl());
+            }
+            if (report.getCompactHtmlTable() != null) {
+                section.put("table", report.getCompactHtmlTable().getText());
+            }
+            if (!section.isEmpty()) {
+                sections.add(section);
+            }
+        }
+        return sections;
+    }
+
+    private static List<Map<String, String>> toSummarySections(List<Report> reports) {
+        for (Report report : reports) {
+            if (report.getChartUrl() != null) {
+                return Collections.singletonList(Collections.singletonMap("chart", report.getChartUrl()));
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    private String toTemplateData(List<Map<String, String>> sections, String url, String indexUrl) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("sections", sections);
+        if (url != null) {
+            values.put("url", url);
+        }
+        if (indexUrl != null) {
+            values.put("index", indexUrl);
+        }
+        try {
+            return objectMapper.writeValueAsString(values);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Could not create the template data", e);
         }
     }
 }
@@ -5,27 +5,157 @@ import com.amazonaws.services.simpleemail.model.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 public class AwsSesHandler {
     private static final Logger log = LogManager.getLogger(AwsSesHandler.class);
     private AmazonSimpleEmailService client;
+    private SesDispatcher dispatcher;
 
     public AwsSesHandler(AmazonSimpleEmailService client) {
         this.client = client;
     }
 
-    public void sendEmail(String to, String htmlBody, String subject, String from) {
+    /**
+     * Hands the emails to the dispatcher, which sends them in parallel and retries throttled emails, instead of
+     * sending them one at a time.
+     */
+    public AwsSesHandler(AmazonSimpleEmailService client, SesDispatcher dispatcher) {
+        this.client = client;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * @return completes with true when SES has accepted the email, or false when it was not sent
+     */
+    public CompletableFuture<Boolean> sendEmail(String to, String htmlBody, String subject, String from) {
+        SendEmailRequest request = new SendEmailRequest()
+                .withDestination(new Destination().withToAddresses(to))
+                .withMessage(new Message()
+                        .withBody(new Body().withHtml(new Content().withCharset("UTF-8").withData(htmlBody)))
+                        .withSubject(new Content().withCharset("UTF-8").withData(subject)))
+                .withSource(from);
+        if (dispatcher != null) {
+            return dispatcher.send(to, request);
+        }
         try {
-            SendEmailRequest request = new SendEmailRequest()
-                    .withDestination(new Destination().withToAddresses(to))
-                    .withMessage(new Message()
-                            .withBody(new Body().withHtml(new Content().withCharset("UTF-8").withData(htmlBody)))
-                            .withSubject(new Content().withCharset("UTF-8").withData(subject)))
-                    .withSource(from);
             client.sendEmail(request);
             log.info("Email sent to: {}", to);
+            return CompletableFuture.completedFuture(true);
+        } catch (Exception ex) {
+            log.error("The email was not sent. Error message: "
+                    + ex.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /**
+     * Sends a complete MIME message, see {@link RawEmail}.
+     *
+     * @return completes with true when SES has accepted the email, or false when it was not sent
+     */
+    public CompletableFuture<Boolean> sendRawEmail(String to, String from, byte[] rawMessage) {
+        SendRawEmailRequest request = new SendRawEmailRequest()
+                .withRawMessage(new RawMessage(ByteBuffer.wrap(rawMessage)))
+                .withDestinations(to)
+                .withSource(from);
+        if (dispatcher != null) {
+            return dispatcher.send(to, request);
+        }
+        try {
+            client.sendRawEmail(request);
+            log.info("Email sent to: {}", to);
+            return CompletableFuture.completedFuture(true);
         } catch (Exception ex) {
             log.error("The email was not sent. Error message: "
                     + ex.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /**
+     * Registers the template, or updates it if a template with the same name already exists.
+     */
+    public void createTemplate(String templateName, String subject, String htmlPart) {
+        Template template = new Template()
+                .withTemplateName(templateName)
+                .withSubjectPart(subject)
+                .withHtmlPart(htmlPart);
+        try {
+            client.createTemplate(new CreateTemplateRequest().withTemplate(template));
+            log.info("Created email template: {}", templateName);
+        } catch (AlreadyExistsException e) {
+            client.updateTemplate(new UpdateTemplateRequest().withTemplate(template));
+            log.info("Updated email template: {}", templateName);
+        }
+    }
+
+    /**
+     * Sends the template to every recipient in one request. SES accepts at most 50 recipients per request.
+     *
+     * @param defaultTemplateData JSON with the template data used for the values a recipient has no data for
+     * @param templateDataByRecipient JSON template data of each recipient
+     * @return completes with the recipients SES has accepted the email for
+     */
+    public CompletableFuture<List<String>> sendBulkTemplatedEmail(String from, String templateName,
+                                                                  String defaultTemplateData,
+                                                                  Map<String, String> templateDataByRecipient) {
+        List<BulkEmailDestination> destinations = new ArrayList<>();
+        for (Map.Entry<String, String> recipient : templateDataByRecipient.entrySet()) {
+            destinations.add(new BulkEmailDestination()
+                    .withDestination(new Destination().withToAddresses(recipient.getKey()))
+                    .withReplacementTemplateData(recipient.getValue()));
+        }
+        SendBulkTemplatedEmailRequest request = new SendBulkTemplatedEmailRequest()
+                .withSource(from)
+                .withTemplate(templateName)
+                .withDefaultTemplateData(defaultTemplateData)
+                .withDestinations(destinations);
+        if (dispatcher != null) {
+            return dispatcher.send(request);
+        }
+        try {
+            return CompletableFuture.completedFuture(getAccepted(request, client.sendBulkTemplatedEmail(request)));
+        } catch (Exception ex) {
+            log.error("The emails were not sent. Error message: "
+                    + ex.getMessage());
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Logs the outcome for each recipient of a bulk request.
+     *
+     * @return the recipients SES accepted the email for
+     */
+    static List<String> getAccepted(SendBulkTemplatedEmailRequest request, SendBulkTemplatedEmailResult result) {
+        List<String> accepted = new ArrayList<>();
+        List<BulkEmailDestinationStatus> statuses = result.getStatus();
+        for (int i = 0; i < statuses.size(); i++) {
+            List<String> toAddresses = request.getDestinations().get(i).getDestination().getToAddresses();
+            String to = String.join(", ", toAddresses);
+            BulkEmailDestinationStatus status = statuses.get(i);
+            if ("Success".equals(status.getStatus())) {
+                accepted.addAll(toAddresses);
+                log.info("Email sent to: {}", to);
+            } else {
+                log.error("The email was not sent to: {}. Status: {}, error message: {}",
+                        to, status.getStatus(), status.getError());
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Waits for the emails handed to the dispatcher to be sent.
+     */
+    public void awaitPendingEmails() {
+        if (dispatcher != null) {
+            dispatcher.close();
         }
     }
 }
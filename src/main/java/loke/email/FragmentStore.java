@@ -0,0 +1,173 @@
+package loke.email;
+
+import loke.model.CompactText;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content addressed store for the rendered parts of the emails, such as chart images and html tables. Each distinct
+ * fragment is kept once as {@link CompactText}, however many emails it is part of, and the email bodies are put
+ * together from the keys of their fragments. A table that is sent both to an employee and in the admin email is
+ * stored once while both emails are being built. Every put counts as a reference to the fragment, and a fragment is
+ * dropped once all of its references are released, so the store only holds the emails still being built.
+ */
+public class FragmentStore {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private Map<String, Fragment> fragments = new ConcurrentHashMap<>();
+
+    /**
+     * @return the key of the fragment, which is the SHA-256 of its content
+     */
+    public String put(String html) {
+        return put(CompactText.of(html));
+    }
+
+    /**
+     * Stores the fragment as is, without copying or recompressing it.
+     *
+     * @return the key of the fragment, which is the SHA-256 of its uncompressed content
+     */
+    public String put(CompactText fragment) {
+        String key = hash(fragment);
+        fragments.compute(key, (k, stored) -> stored == null ? new Fragment(fragment) : stored.retain());
+        return key;
+    }
+
+    /**
+     * Adds a reference to a fragment that is already stored.
+     *
+     * @return the key
+     */
+    public String retain(String key) {
+        if (fragments.computeIfPresent(key, (k, stored) -> stored.retain()) == null) {
+            throw new IllegalArgumentException("No fragment stored with key: " + key);
+        }
+        return key;
+    }
+
+    /**
+     * Releases one reference per key, and drops the fragments that are no longer referenced.
+     */
+    public void release(List<String> keys) {
+        for (String key : keys) {
+            fragments.computeIfPresent(key, (k, stored) -> --stored.references == 0 ? null : stored);
+        }
+    }
+
+    public CompactText get(String key) {
+        Fragment fragment = fragments.get(key);
+        return fragment == null ? null : fragment.text;
+    }
+
+    /**
+     * Concatenates the fragments in the given order, with leading and trailing whitespace removed.
+     */
+    public String assemble(List<String> keys) {
+        int length = 0;
+        for (String key : keys) {
+            length += getFragment(key).getLength();
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(length);
+        try {
+            writeTo(keys, body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Streams the UTF-8 bytes of the fragments in the given order.
+     */
+    public void writeTo(List<String> keys, OutputStream out) throws IOException {
+        for (String key : keys) {
+            getFragment(key).writeTo(out);
+        }
+    }
+
+    public int size() {
+        return fragments.size();
+    }
+
+    /**
+     * @return the number of bytes held by the stored fragments
+     */
+    public long getByteSize() {
+        long byteSize = 0;
+        for (Fragment fragment : fragments.values()) {
+            byteSize += fragment.text.getStoredSize();
+        }
+        return byteSize;
+    }
+
+    private CompactText getFragment(String key) {
+        CompactText fragment = get(key);
+        if (fragment == null) {
+            throw new IllegalArgumentException("No fragment stored with key: " + key);
+        }
+        return fragment;
+    }
+
+    private String hash(CompactText fragment) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+        try (OutputStream digestStream = new DigestOutputStream(NullOutputStream.INSTANCE, messageDigest)) {
+            fragment.writeTo(digestStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return toHex(messageDigest.digest());
+    }
+
+    static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * The references are only changed inside the atomic map operations.
+     */
+    private static class Fragment {
+        private final CompactText text;
+        private int references = 1;
+
+        private Fragment(CompactText text) {
+            this.text = text;
+        }
+
+        private Fragment retain() {
+            references++;
+            return this;
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        private static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package loke.email;
+
+import loke.utils.DurableFiles;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Spool directory that decouples rendering the emails from sending them. Every email is written as a complete MIME
+ * message to [id].eml, where the id is the SHA-256 of the run date and the message, and listed in index.csv once the
+ * file is on disk. Draining sends the listed emails that have no [id].sent marker and writes the marker when SES has
+ * accepted the email, so a drain that is interrupted can be resumed without sending anything twice, apart from an
+ * email that was accepted just before the crash. Spooling the same email again in the same run is a no-op, the same
+ * report in a later run is sent again.
+ */
+public class Outbox {
+    private static final Logger log = LogManager.getLogger(Outbox.class);
+    private static final String INDEX_FILE = "index.csv";
+    private Path directory;
+    private LocalDate runDate;
+    private Set<String> indexedIds = new HashSet<>();
+
+    /**
+     * @param runDate the date of the run, an email already spooled by a run of another date is spooled again
+     */
+    public Outbox(Path directory, LocalDate runDate) {
+        this.directory = directory;
+        this.runDate = runDate;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create the outbox directory: " + directory, e);
+        }
+        for (Entry entry : readIndex()) {
+            indexedIds.add(entry.id);
+        }
+    }
+
+    /**
+     * @return the id of the email in the outbox
+     */
+    public synchronized String add(String to, String from, byte[] rawMessage) {
+        String id = hash(runDate, rawMessage);
+        if (indexedIds.contains(id)) {
+            log.info("Email to: {} is already in the outbox", to);
+            return id;
+        }
+        try {
+            DurableFiles.replace(directory.resolve(id + ".eml"), rawMessage);
+            DurableFiles.append(directory.resolve(INDEX_FILE),
+                    (id + "," + to + "," + from + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write the email to: " + to + " to the outbox", e);
+        }
+        indexedIds.add(id);
+        log.info("Email to: {} added to the outbox", to);
+        return id;
+    }
+
+    /**
+     * Sends the emails that have not been sent yet, in the order they were added, and waits for SES to answer.
+     *
+     * @return the number of emails sent
+     */
+    public int drain(AwsSesHandler awsSesHandler) {
+        return drain(awsSesHandler, to -> {
+        });
+    }
+
+    /**
+     * @param sentListener called with the recipient of each email SES has accepted
+     * @return the number of emails sent
+     */
+    public int drain(AwsSesHandler awsSesHandler, Consumer<String> sentListener) {
+        List<Entry> pending = getPending();
+        log.info("Sending {} emails from the outbox: {}", pending.size(), directory);
+        AtomicInteger sent = new AtomicInteger();
+        List<CompletableFuture<Void>> deliveries = new ArrayList<>();
+        for (Entry entry : pending) {
+            byte[] rawMessage;
+            try {
+                rawMessage = Files.readAllBytes(directory.resolve(entry.id + ".eml"));
+            } catch (IOException e) {
+                log.error("Could not read the email to: {} from the outbox. Error message: {}", entry.to,
+                        e.getMessage());
+                continue;
+            }
+            deliveries.add(awsSesHandler.sendRawEmail(entry.to, entry.from, rawMessage).thenAccept(accepted -> {
+                if (accepted) {
+                    markSent(entry);
+                    sent.incrementAndGet();
+                    sentListener.accept(entry.to);
+                }
+            }));
+        }
+        CompletableFuture.allOf(deliveries.toArray(new CompletableFuture[0])).join();
+        log.info("Sent {} of {} emails from the outbox", sent.get(), pending.size());
+        return sent.get();
+    }
+
+    public int getPendingCount() {
+        return getPending().size();
+    }
+
+    public boolean isSent(String id) {
+        return Files.exists(directory.resolve(id + ".sent"));
+    }
+
+    private List<Entry> getPending() {
+        List<Entry> pending = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Entry entry : readIndex()) {
+            if (seen.add(entry.id) && !isSent(entry.id)) {
+                pending.add(entry);
+            }
+        }
+        return pending;
+    }
+
+    private void markSent(Entry entry) {
+        try {
+            DurableFiles.write(directory.resolve(entry.id + ".sent"), new byte[0], StandardOpenOption.CREATE);
+        } catch (IOException e) {
+            log.error("Could not mark the email to: {} as sent. Error message: {}", entry.to, e.getMessage());
+        }
+    }
+
+    private List<Entry> readIndex() {
+        Path index = directory.resolve(INDEX_FILE);
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(index)) {
+            return entries;
+        }
+        try {
+            for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+                String[] columns = line.split(",", 3);
+                if (columns.length == 3) {
+                    entries.add(new Entry(columns[0], columns[1], columns[2]));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the outbox index: " + index, e);
+        }
+        return entries;
+    }
+
+    private static String hash(LocalDate runDate, byte[] rawMessage) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((runDate + "\n").getBytes(StandardCharsets.UTF_8));
+            return FragmentStore.toHex(digest.digest(rawMessage));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class Entry {
+        private String id;
+        private String to;
+        private String from;
+
+        private Entry(String id, String to, String from) {
+            this.id = id;
+            this.to = to;
+            this.from = from;
+        }
+    }
+}
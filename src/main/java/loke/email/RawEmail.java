@@ -0,0 +1,51 @@
+package loke.email;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Builds MIME messages for SES SendRawEmail. The html body is streamed from the fragment store into a base64 encoder,
+ * so the body never exists as one large String.
+ */
+public class RawEmail {
+    private static final String CRLF = "\r\n";
+
+    private RawEmail() {
+    }
+
+    /**
+     * @return the html made up of the fragments, base64 encoded in lines of 76 characters
+     */
+    public static byte[] encodeHtmlBody(FragmentStore fragmentStore, List<String> keys) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (OutputStream encoder = Base64.getMimeEncoder().wrap(encoded)) {
+            fragmentStore.writeTo(keys, encoder);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode the email body", e);
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * The encoded body can be shared between several messages, e.g. one per admin.
+     */
+    public static byte[] createMessage(String from, String to, String subject, byte[] encodedHtmlBody) {
+        String headers = "From: " + from + CRLF
+                + "To: " + to + CRLF
+                + "Subject: =?UTF-8?B?" + Base64.getEncoder().encodeToString(subject.getBytes(StandardCharsets.UTF_8))
+                + "?=" + CRLF
+                + "MIME-Version: 1.0" + CRLF
+                + "Content-Type: text/html; charset=UTF-8" + CRLF
+                + "Content-Transfer-Encoding: base64" + CRLF
+                + CRLF;
+        byte[] headerBytes = headers.getBytes(StandardCharsets.UTF_8);
+        byte[] message = new byte[headerBytes.length + encodedHtmlBody.length];
+        System.arraycopy(headerBytes, 0, message, 0, headerBytes.length);
+        System.arraycopy(encodedHtmlBody, 0, message, headerBytes.length, encodedHtmlBody.length);
+        return message;
+    }
+}
@@ -0,0 +1,88 @@
+package loke.email;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that hands out one token per email at the current send rate, with room for at most one second of
+ * tokens. The rate adapts like TCP congestion control: every successful send adds 1 / rate messages per second, i.e.
+ * about one message per second for every second without throttling, and every throttling halves it. The rate never
+ * goes above the max send rate of the account.
+ */
+public class SendRateLimiter {
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double MIN_RATE = 0.1;
+    private double maxRate;
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public SendRateLimiter(double maxRate) {
+        if (maxRate <= 0) {
+            throw new IllegalArgumentException("The max send rate must be positive, was: " + maxRate);
+        }
+        this.maxRate = maxRate;
+        this.rate = maxRate;
+        this.tokens = 1;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until an email may be sent.
+     */
+    public void acquire() throws InterruptedException {
+        acquire(1);
+    }
+
+    /**
+     * Blocks until the given number of emails may be sent. A bulk send larger than the bucket goes out as soon as
+     * there is a token, and the sends after it wait until the excess has been paid back.
+     */
+    public void acquire(int emails) throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (tokens >= 1) {
+                    tokens -= emails;
+                    return;
+                }
+                waitNanos = (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1));
+        }
+    }
+
+    public synchronized void onSuccess() {
+        onSuccess(1);
+    }
+
+    public synchronized void onSuccess(int emails) {
+        for (int i = 0; i < emails; i++) {
+            rate = Math.min(maxRate, rate + 1 / rate);
+        }
+    }
+
+    /**
+     * Halves the rate and drops the tokens saved up, so that the next send waits for the new rate.
+     */
+    public synchronized void onThrottled() {
+        refill();
+        rate = Math.max(Math.min(MIN_RATE, maxRate), rate * DECREASE_FACTOR);
+        tokens = Math.min(tokens, 0);
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public double getMaxRate() {
+        return maxRate;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        tokens = Math.min(Math.max(1, rate), tokens + elapsedSeconds * rate);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,237 @@
+package loke.email;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
+import com.amazonaws.services.simpleemail.model.GetSendQuotaRequest;
+import com.amazonaws.services.simpleemail.model.SendBulkTemplatedEmailRequest;
+import com.amazonaws.services.simpleemail.model.SendEmailRequest;
+import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends emails through SES from a pool of sender threads, paced by a {@link SendRateLimiter} that starts at the max
+ * send rate of the account. Emails that SES throttles are retried with exponential backoff and full jitter, and the
+ * rate is lowered so the senders stay below what SES accepts. At most two requests per sender are waiting at any time,
+ * callers block until there is room.
+ */
+public class SesDispatcher {
+    private static final Logger log = LogManager.getLogger(SesDispatcher.class);
+    private static final double DEFAULT_MAX_SEND_RATE = 1;
+    private static final long MAX_BACKOFF_MILLIS = 20_000;
+    private AmazonSimpleEmailService client;
+    private SendRateLimiter limiter;
+    private ExecutorService senders;
+    private Semaphore pending;
+    private int maxRetries = 5;
+    private long baseBackoffMillis = 100;
+    private AtomicInteger sent = new AtomicInteger();
+    private AtomicInteger failed = new AtomicInteger();
+    private AtomicInteger throttled = new AtomicInteger();
+    private AtomicLong firstSendNanos = new AtomicLong();
+    private AtomicLong lastSendNanos = new AtomicLong();
+
+    /**
+     * @param maxSendRate max emails per second, or 0 to use the max send rate of the account
+     */
+    public SesDispatcher(AmazonSimpleEmailService client, double maxSendRate, int senderThreads) {
+        this.client = client;
+        this.limiter = new SendRateLimiter(maxSendRate > 0 ? maxSendRate : readMaxSendRate(client));
+        this.senders = Executors.newFixedThreadPool(senderThreads);
+        this.pending = new Semaphore(senderThreads * 2);
+        log.info("Sending emails with {} senders at up to {} emails per second", senderThreads, limiter.getMaxRate());
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setBaseBackoffMillis(long baseBackoffMillis) {
+        this.baseBackoffMillis = baseBackoffMillis;
+    }
+
+    /**
+     * @return completes with true when SES has accepted the email, or false when it was given up on
+     */
+    public CompletableFuture<Boolean> send(String to, SendEmailRequest request) {
+        return dispatch(to, 1, () -> {
+            client.sendEmail(request);
+            log.info("Email sent to: {}", to);
+            return 1;
+        }).thenApply(sentEmails -> sentEmails == 1);
+    }
+
+    /**
+     * @return completes with true when SES has accepted the email, or false when it was given up on
+     */
+    public CompletableFuture<Boolean> send(String to, SendRawEmailRequest request) {
+        return dispatch(to, 1, () -> {
+            client.sendRawEmail(request);
+            log.info("Email sent to: {}", to);
+            return 1;
+        }).thenApply(sentEmails -> sentEmails == 1);
+    }
+
+    /**
+     * Sends a bulk request, which counts as one email per destination against the send rate.
+     *
+     * @return completes with the recipients SES has accepted the email for
+     */
+    public CompletableFuture<List<String>> send(SendBulkTemplatedEmailRequest request) {
+        int destinations = request.getDestinations().size();
+        List<String> accepted = new CopyOnWriteArrayList<>();
+        return dispatch(destinations + " recipients", destinations, () -> {
+            accepted.addAll(AwsSesHandler.getAccepted(request, client.sendBulkTemplatedEmail(request)));
+            return accepted.size();
+        }).thenApply(sentEmails -> accepted);
+    }
+
+    /**
+     * Waits for the emails that have been handed to the dispatcher to be sent. No more emails can be sent afterwards.
+     */
+    public void close() {
+        senders.shutdown();
+        try {
+            senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            senders.shutdownNow();
+        }
+        log.info("Emails sent: {}, failed: {}, throttled: {}, achieved rate: {} emails per second, final rate: {}",
+                sent.get(), failed.get(), throttled.get(), String.format("%.2f", getAchievedRate()),
+                String.format("%.2f", limiter.getRate()));
+    }
+
+    public int getSentCount() {
+        return sent.get();
+    }
+
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    public int getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * @return the emails sent per second, from the first email handed to the dispatcher to the last one sent
+     */
+    public double getAchievedRate() {
+        long elapsedNanos = lastSendNanos.get() - firstSendNanos.get();
+        if (sent.get() == 0 || elapsedNanos <= 0) {
+            return sent.get();
+        }
+        return sent.get() / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public SendRateLimiter getLimiter() {
+        return limiter;
+    }
+
+    private CompletableFuture<Integer> dispatch(String to, int emails, SesRequest request) {
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to send email to: " + to, e);
+        }
+        firstSendNanos.compareAndSet(0, System.nanoTime());
+        CompletableFuture<Integer> delivery = new CompletableFuture<>();
+        try {
+            senders.execute(() -> {
+                try {
+                    delivery.complete(deliver(to, emails, request));
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.release();
+            throw e;
+        }
+        return delivery;
+    }
+
+    /**
+     * @return the number of emails SES accepted
+     */
+    private int deliver(String to, int emails, SesRequest request) {
+        try {
+            for (int attempt = 0; ; attempt++) {
+                limiter.acquire(emails);
+                try {
+                    int sentEmails = request.send();
+                    limiter.onSuccess(emails);
+                    sent.addAndGet(sentEmails);
+                    failed.addAndGet(emails - sentEmails);
+                    lastSendNanos.set(System.nanoTime());
+                    return sentEmails;
+                } catch (AmazonServiceException e) {
+                    if (!isSendRateExceeded(e) || attempt >= maxRetries) {
+                        throw e;
+                    }
+                    throttled.incrementAndGet();
+                    limiter.onThrottled();
+                    long backoff = backoffMillis(attempt);
+                    log.debug("Throttled sending email to: {}, retrying in {} ms at {} emails per second",
+                            to, backoff, limiter.getRate());
+                    TimeUnit.MILLISECONDS.sleep(backoff);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.addAndGet(emails);
+            log.error("The email was not sent to: {}. Interrupted", to);
+        } catch (Exception e) {
+            failed.addAndGet(emails);
+            log.error("The email was not sent to: {}. Error message: {}", to, e.getMessage());
+        }
+        return 0;
+    }
+
+    /**
+     * SES answers both a too high send rate and a used up daily quota with Throttling. Only the first one is worth
+     * retrying.
+     */
+    private boolean isSendRateExceeded(AmazonServiceException e) {
+        return "Throttling".equals(e.getErrorCode())
+                && (e.getErrorMessage() == null || !e.getErrorMessage().contains("Daily message quota"));
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static double readMaxSendRate(AmazonSimpleEmailService client) {
+        try {
+            Double maxSendRate = client.getSendQuota(new GetSendQuotaRequest()).getMaxSendRate();
+            if (maxSendRate != null && maxSendRate > 0) {
+                return maxSendRate;
+            }
+        } catch (Exception e) {
+            log.warn("Could not read the send quota of the SES account. Error message: {}", e.getMessage());
+        }
+        log.warn("Using the default max send rate: {} emails per second", DEFAULT_MAX_SEND_RATE);
+        return DEFAULT_MAX_SEND_RATE;
+    }
+
+    private interface SesRequest {
+        /**
+         * @return the number of emails SES accepted
+         */
+        int send();
+    }
+}
@@ -0,0 +1,72 @@
+package loke.journal;
+
+import loke.model.SpendFingerprint;
+import loke.utils.DurableFiles;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@link SpendFingerprint} of the last report each owner was sent, kept between runs in a csv file with one
+ * owner,hash,total line per owner.
+ */
+public class FingerprintStore {
+    private static final Logger log = LogManager.getLogger(FingerprintStore.class);
+    private Path file;
+    private Map<String, SpendFingerprint> fingerprints = new TreeMap<>();
+
+    public FingerprintStore(Path file) {
+        this.file = file;
+        if (!Files.exists(file)) {
+            log.info("No fingerprints found in: {}", file);
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                int totalStart = line.lastIndexOf(',');
+                int hashStart = line.lastIndexOf(',', totalStart - 1);
+                if (hashStart < 0) {
+                    continue;
+                }
+                fingerprints.put(line.substring(0, hashStart), new SpendFingerprint(
+                        Long.parseUnsignedLong(line.substring(hashStart + 1, totalStart), 16),
+                        Double.parseDouble(line.substring(totalStart + 1))));
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new RuntimeException("Could not read the fingerprints: " + file, e);
+        }
+        log.info("Loaded {} fingerprints from: {}", fingerprints.size(), file);
+    }
+
+    /**
+     * @return the fingerprint of the last report the owner was sent, or null if the owner has not been sent one
+     */
+    public synchronized SpendFingerprint get(String owner) {
+        return fingerprints.get(owner);
+    }
+
+    public synchronized void put(String owner, SpendFingerprint fingerprint) {
+        fingerprints.put(owner, fingerprint);
+    }
+
+    public synchronized void save() {
+        StringBuilder csv = new StringBuilder();
+        for (Map.Entry<String, SpendFingerprint> entry : fingerprints.entrySet()) {
+            csv.append(entry.getKey()).append(',')
+                    .append(Long.toHexString(entry.getValue().getHash())).append(',')
+                    .append(entry.getValue().getTotal()).append('\n');
+        }
+        try {
+            DurableFiles.replace(file, csv.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not save the fingerprints: " + file, e);
+        }
+        log.info("Saved {} fingerprints to: {}", fingerprints.size(), file);
+    }
+}
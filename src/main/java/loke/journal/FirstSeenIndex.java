@@ -0,0 +1,228 @@
+package loke.journal;
+
+import loke.utils.BloomFilter;
+import loke.utils.DurableFiles;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * The date every resource id was first seen in the billing data, kept between runs so that the started resources
+ * report only has to query the days since the last run instead of the whole table. The file is memory-mapped and
+ * holds, after a header with the day the index was last updated, a Bloom filter of the ids, the offsets of the entries
+ * and the entries sorted by id, each an epoch day, the length of the id and the UTF-8 id. Ids that are not in the file
+ * are mostly answered by the Bloom filter alone, the others by a binary search over the offsets. Added ids are kept in
+ * memory until the next save, which merges them into a new file.
+ */
+public class FirstSeenIndex {
+    private static final Logger log = LogManager.getLogger(FirstSeenIndex.class);
+    private static final int MAGIC = 0x4c4b4653;
+    private static final int HEADER_BYTES = 20;
+    private static final int ENTRY_HEADER_BYTES = 6;
+    private static final int NOT_UPDATED = Integer.MIN_VALUE;
+    private Path file;
+    private ByteBuffer buffer;
+    private int count;
+    private int offsetsStart;
+    private int entriesStart;
+    private BloomFilter bloomFilter;
+    private Map<String, LocalDate> added = new TreeMap<>();
+    private LocalDate updatedTo;
+    private LocalDate savedUpdatedTo;
+
+    public FirstSeenIndex(Path file) {
+        this.file = file;
+        if (!Files.exists(file)) {
+            log.info("No first seen index found in: {}", file);
+            return;
+        }
+        map();
+        log.info("Loaded {} first seen resources from: {}", count, file);
+    }
+
+    /**
+     * @return true until the index has been filled, the first run has to find the first seen dates in the whole table
+     */
+    public synchronized boolean isEmpty() {
+        return count == 0 && added.isEmpty();
+    }
+
+    /**
+     * @return the date the resource was first seen, or null if it has not been seen
+     */
+    public synchronized LocalDate getFirstSeen(String resourceId) {
+        LocalDate addedDate = added.get(resourceId);
+        LocalDate savedDate = findSaved(resourceId);
+        if (addedDate == null || (savedDate != null && savedDate.isBefore(addedDate))) {
+            return savedDate;
+        }
+        return addedDate;
+    }
+
+    /**
+     * Records that the resource was seen on the date. The earliest date of a resource is kept.
+     */
+    public synchronized void add(String resourceId, LocalDate seen) {
+        LocalDate firstSeen = getFirstSeen(resourceId);
+        if (firstSeen == null || seen.isBefore(firstSeen)) {
+            added.put(resourceId, seen);
+        }
+    }
+
+    /**
+     * @return the day up to which every seen resource has been added, or null if it has not been set
+     */
+    public synchronized LocalDate getUpdatedTo() {
+        return updatedTo;
+    }
+
+    /**
+     * Records that every resource seen up to the day has been added, the next run only has to query the days after it.
+     */
+    public synchronized void setUpdatedTo(LocalDate updatedTo) {
+        this.updatedTo = updatedTo;
+    }
+
+    public synchronized void save() {
+        if (added.isEmpty() && Objects.equals(updatedTo, savedUpdatedTo)) {
+            return;
+        }
+        TreeMap<String, Integer> entries = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            int position = entryPosition(i);
+            entries.put(readId(position), buffer.getInt(position));
+        }
+        for (Map.Entry<String, LocalDate> entry : added.entrySet()) {
+            entries.merge(entry.getKey(), (int) entry.getValue().toEpochDay(), Math::min);
+        }
+        try {
+            DurableFiles.replace(file, serialize(entries, updatedTo));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not save the first seen index: " + file, e);
+        }
+        log.info("Saved {} first seen resources, {} new, to: {}", entries.size(), added.size(), file);
+        added.clear();
+        map();
+    }
+
+    private static byte[] serialize(TreeMap<String, Integer> entries, LocalDate updatedTo) throws IOException {
+        BloomFilter bloomFilter = new BloomFilter(entries.size());
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        DataOutputStream entryOut = new DataOutputStream(entryBytes);
+        int[] offsets = new int[entries.size()];
+        Iterator<Map.Entry<String, Integer>> iterator = entries.entrySet().iterator();
+        for (int i = 0; iterator.hasNext(); i++) {
+            Map.Entry<String, Integer> entry = iterator.next();
+            byte[] id = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            offsets[i] = entryOut.size();
+            entryOut.writeInt(entry.getValue());
+            entryOut.writeShort(id.length);
+            entryOut.write(id);
+            bloomFilter.add(entry.getKey());
+        }
+
+        long[] bits = bloomFilter.getBits();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + bits.length * 8
+                + offsets.length * 4 + entryOut.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(offsets.length);
+        out.writeInt(bloomFilter.getHashCount());
+        out.writeInt(bits.length);
+        out.writeInt(updatedTo != null ? (int) updatedTo.toEpochDay() : NOT_UPDATED);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        entryBytes.writeTo(out);
+        return bytes.toByteArray();
+    }
+
+    private void map() {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the first seen index: " + file, e);
+        }
+        // A file cut short by a crash must not be read past its end
+        int size = buffer.capacity();
+        if (size < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new RuntimeException("Not a first seen index: " + file);
+        }
+        int savedCount = buffer.getInt(4);
+        int hashCount = buffer.getInt(8);
+        int bitsLength = buffer.getInt(12);
+        long savedEntriesStart = HEADER_BYTES + bitsLength * 8L + savedCount * 4L;
+        if (savedCount < 0 || bitsLength < 0 || savedEntriesStart > size) {
+            throw new RuntimeException("Not a first seen index: " + file);
+        }
+        int savedOffsetsStart = HEADER_BYTES + bitsLength * 8;
+        for (int i = 0; i < savedCount; i++) {
+            long position = savedEntriesStart + buffer.getInt(savedOffsetsStart + i * 4);
+            if (position < savedEntriesStart || position + ENTRY_HEADER_BYTES > size
+                    || position + ENTRY_HEADER_BYTES + (buffer.getShort((int) position + 4) & 0xffff) > size) {
+                throw new RuntimeException("Not a first seen index: " + file);
+            }
+        }
+        count = savedCount;
+        offsetsStart = savedOffsetsStart;
+        entriesStart = (int) savedEntriesStart;
+        int updatedDay = buffer.getInt(16);
+        updatedTo = (updatedDay != NOT_UPDATED) ? LocalDate.ofEpochDay(updatedDay) : null;
+        savedUpdatedTo = updatedTo;
+        long[] bits = new long[bitsLength];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong(HEADER_BYTES + i * 8);
+        }
+        bloomFilter = new BloomFilter(bits, hashCount);
+    }
+
+    private LocalDate findSaved(String resourceId) {
+        if (count == 0 || !bloomFilter.mightContain(resourceId)) {
+            return null;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = entryPosition(middle);
+            int comparison = readId(position).compareTo(resourceId);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return LocalDate.ofEpochDay(buffer.getInt(position));
+            }
+        }
+        return null;
+    }
+
+    private int entryPosition(int index) {
+        return entriesStart + buffer.getInt(offsetsStart + index * 4);
+    }
+
+    private String readId(int position) {
+        byte[] id = new byte[buffer.getShort(position + 4) & 0xffff];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = buffer.get(position + ENTRY_HEADER_BYTES + i);
+        }
+        return new String(id, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,208 @@
+package loke.journal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import loke.aws.db.QueryCache;
+import loke.model.Employee;
+import loke.model.Report;
+import loke.model.TotalReport;
+import loke.utils.DurableFiles;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checkpoints of a run for one report date, kept in a directory of its own so that a failed run can be resumed from
+ * the last completed stage. It holds the completed stages, the results of the Athena queries, the rendered reports and
+ * the recipients that have been sent their email. Every write is forced to disk before the run moves on.
+ */
+public class RunJournal implements QueryCache {
+    private static final Logger log = LogManager.getLogger(RunJournal.class);
+    private static final String STAGES_FILE = "stages.csv";
+    private static final String SENT_FILE = "sent.csv";
+    private static final String QUERY_DIRECTORY = "queries";
+    private Path directory;
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private Map<Stage, String> completedStages = new EnumMap<>(Stage.class);
+    private Set<String> sentRecipients = ConcurrentHashMap.newKeySet();
+
+    public enum Stage {
+        CONVERSION, EMPLOYEE_REPORTS, ADMIN_REPORTS, EMAILS
+    }
+
+    public RunJournal(Path journalDirectory, LocalDate reportDate) {
+        this.directory = journalDirectory.resolve(reportDate.toString());
+        try {
+            Files.createDirectories(directory.resolve(QUERY_DIRECTORY));
+            for (String line : readLines(STAGES_FILE)) {
+                String[] columns = line.split(",", 2);
+                completedStages.put(Stage.valueOf(columns[0]), columns.length > 1 ? columns[1] : "");
+            }
+            sentRecipients.addAll(readLines(SENT_FILE));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the run journal: " + directory, e);
+        }
+        log.info("Run journal: {}, completed stages: {}, emails sent: {}", directory, completedStages.keySet(),
+                sentRecipients.size());
+    }
+
+    public synchronized boolean isCompleted(Stage stage) {
+        return completedStages.containsKey(stage);
+    }
+
+    /**
+     * @return what the stage recorded when it completed, e.g. the key of the converted billing file
+     */
+    public synchronized String getStageDetail(Stage stage) {
+        return completedStages.get(stage);
+    }
+
+    public void complete(Stage stage) {
+        complete(stage, "");
+    }
+
+    public synchronized void complete(Stage stage, String detail) {
+        String value = detail == null ? "" : detail.replace('\n', ' ');
+        append(STAGES_FILE, stage + "," + value);
+        completedStages.put(stage, value);
+        log.info("Stage completed: {}", stage);
+    }
+
+    /**
+     * Saves the reports and completes the stage.
+     */
+    public void saveReports(Stage stage, List<Employee> employees) {
+        ArrayNode employeeNodes = objectMapper.createArrayNode();
+        for (Employee employee : employees) {
+            ObjectNode employeeNode = employeeNodes.addObject();
+            employeeNode.put("userName", employee.getUserName());
+            ArrayNode reportNodes = employeeNode.putArray("reports");
+            for (Report report : employee.getReports()) {
+                ObjectNode reportNode = reportNodes.addObject();
+                reportNode.put("total", report instanceof TotalReport);
+                reportNode.put("owner", report.getOwner());
+                reportNode.put("chartUrl", report.getChartUrl());
+                reportNode.put("htmlTable", report.getHtmlTable());
+            }
+        }
+        try {
+            DurableFiles.replace(reportFile(stage), objectMapper.writeValueAsBytes(employeeNodes));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not save the reports of stage: " + stage, e);
+        }
+        complete(stage);
+    }
+
+    public List<Employee> loadReports(Stage stage) {
+        List<Employee> employees = new ArrayList<>();
+        try {
+            for (JsonNode employeeNode : objectMapper.readTree(reportFile(stage).toFile())) {
+                Employee employee = new Employee(employeeNode.get("userName").asText());
+                for (JsonNode reportNode : employeeNode.get("reports")) {
+                    String owner = text(reportNode, "owner");
+                    Report report = reportNode.get("total").asBoolean() ? new TotalReport(owner) : new Report(owner);
+                    report.setChartUrl(text(reportNode, "chartUrl"));
+                    report.setHtmlTable(text(reportNode, "htmlTable"));
+                    employee.addReport(report);
+                }
+                employees.add(employee);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load the reports of stage: " + stage, e);
+        }
+        log.info("Loaded {} employees from stage: {}", employees.size(), stage);
+        return employees;
+    }
+
+    public boolean isSent(String kind, String recipient) {
+        return sentRecipients.contains(kind + "," + recipient);
+    }
+
+    public synchronized void markSent(String kind, String recipient) {
+        String line = kind + "," + recipient;
+        if (sentRecipients.add(line)) {
+            append(SENT_FILE, line);
+        }
+    }
+
+    @Override
+    public <T> List<T> get(String sql, Class<T> rowClass) {
+        Path queryFile = queryFile(sql);
+        if (!Files.exists(queryFile)) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(queryFile.toFile(),
+                    objectMapper.getTypeFactory().constructCollectionType(List.class, rowClass));
+        } catch (IOException e) {
+            log.warn("Could not read the cached query result: {}. Error message: {}", queryFile, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String sql, List<?> rows) {
+        try {
+            DurableFiles.replace(queryFile(sql), objectMapper.writeValueAsBytes(rows));
+        } catch (IOException e) {
+            log.warn("Could not cache the query result. Error message: {}", e.getMessage());
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private Path reportFile(Stage stage) {
+        return directory.resolve(stage.name().toLowerCase() + ".json");
+    }
+
+    private Path queryFile(String sql) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sql.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return directory.resolve(QUERY_DIRECTORY).resolve(name.append(".json").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    private List<String> readLines(String fileName) throws IOException {
+        Path file = directory.resolve(fileName);
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+
+    private void append(String fileName, String line) {
+        try {
+            DurableFiles.append(directory.resolve(fileName), (line + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write to the run journal: " + directory.resolve(fileName), e);
+        }
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+}
@@ -0,0 +1,145 @@
+package loke.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Immutable text stored as UTF-8 bytes. Texts longer than the compression threshold are deflated, which shrinks the
+ * html tables to a fraction of their size since they are mostly repeated markup.
+ */
+public class CompactText {
+    private static volatile int compressionThreshold = 8192;
+    private byte[] bytes;
+    private int length;
+    private boolean compressed;
+
+    private CompactText(byte[] bytes, int length, boolean compressed) {
+        this.bytes = bytes;
+        this.length = length;
+        this.compressed = compressed;
+    }
+
+    /**
+     * @return the compact text, or null if the text is null
+     */
+    public static CompactText of(String text) {
+        if (text == null) {
+            return null;
+        }
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        if (compressionThreshold < 0 || utf8.length < compressionThreshold) {
+            return new CompactText(utf8, utf8.length, false);
+        }
+        byte[] deflated = deflate(utf8);
+        if (deflated.length >= utf8.length) {
+            return new CompactText(utf8, utf8.length, false);
+        }
+        return new CompactText(deflated, utf8.length, true);
+    }
+
+    /**
+     * Texts of at least this many UTF-8 bytes are compressed. A negative threshold turns compression off.
+     */
+    public static void setCompressionThreshold(int compressionThreshold) {
+        CompactText.compressionThreshold = compressionThreshold;
+    }
+
+    public static int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public String getText() {
+        return new String(getBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the uncompressed UTF-8 bytes
+     */
+    public byte[] getBytes() {
+        if (!compressed) {
+            return bytes.clone();
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            byte[] result = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                read += inflater.inflate(result, read, length - read);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Corrupt compressed text", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes the uncompressed UTF-8 bytes without materializing the whole text.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (!compressed) {
+            out.write(bytes);
+            return;
+        }
+        Inflater inflater = new Inflater();
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes), inflater)) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the number of UTF-8 bytes of the uncompressed text
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the number of bytes held in memory
+     */
+    public int getStoredSize() {
+        return bytes.length;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int written = deflater.deflate(buffer);
+                out.write(buffer, 0, written);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
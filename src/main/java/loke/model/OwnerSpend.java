@@ -0,0 +1,42 @@
+package loke.model;
+
+/**
+ * An owner's spend over the whole report period and over the last two weeks of it, used to pick the owners that get
+ * a section of their own in the admin digest.
+ */
+public class OwnerSpend {
+    private String owner;
+    private double total;
+    private double lastWeek;
+    private double previousWeek;
+
+    public OwnerSpend(String owner, double total, double lastWeek, double previousWeek) {
+        this.owner = owner;
+        this.total = total;
+        this.lastWeek = lastWeek;
+        this.previousWeek = previousWeek;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public double getLastWeek() {
+        return lastWeek;
+    }
+
+    public double getPreviousWeek() {
+        return previousWeek;
+    }
+
+    /**
+     * @return how much the spend changed from the previous week to the last week, in USD
+     */
+    public double getWeekOverWeekChange() {
+        return lastWeek - previousWeek;
+    }
+}
@@ -1,9 +1,13 @@
 package loke.model;
 
+/**
+ * The chart url and html table are kept as {@link CompactText}, so a full run holding every report until the emails
+ * are sent needs a fraction of the memory Strings would.
+ */
 public class Report {
     private String owner;
-    private String chartUrl;
-    private String htmlTable;
+    private CompactText chartUrl;
+    private CompactText htmlTable;
 
     public Report(String owner) {
         this.owner = owner;
@@ -14,18 +18,26 @@ public class Report {
     }
 
     public String getChartUrl() {
-        return chartUrl;
+        return (chartUrl != null) ? chartUrl.getText() : null;
     }
 
     public void setChartUrl(String chartUrl) {
-        this.chartUrl = chartUrl;
+        this.chartUrl = CompactText.of(chartUrl);
+    }
+
+    public CompactText getCompactChartUrl() {
+        return chartUrl;
     }
 
     public String getHtmlTable() {
-        return htmlTable;
+        return (htmlTable != null) ? htmlTable.getText() : null;
     }
 
     public void setHtmlTable(String htmlTable) {
-        this.htmlTable = htmlTable;
+        this.htmlTable = CompactText.of(htmlTable);
+    }
+
+    public CompactText getCompactHtmlTable() {
+        return htmlTable;
     }
 }
@@ -0,0 +1,60 @@
+package loke.model;
+
+/**
+ * Compact summary of the spend behind an owner's reports: a hash of the rows in the reports, e.g. the products and
+ * accounts the owner has spend in, and the total cost. Two weeks with the same rows and almost the same total give the
+ * owner the same report apart from the numbers, so it does not have to be sent again. The hash does not depend on the
+ * order the rows are added in.
+ */
+public class SpendFingerprint {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private long hash;
+    private double total;
+
+    public SpendFingerprint() {
+    }
+
+    public SpendFingerprint(long hash, double total) {
+        this.hash = hash;
+        this.total = total;
+    }
+
+    public void addRow(String key) {
+        long keyHash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < key.length(); i++) {
+            keyHash ^= key.charAt(i);
+            keyHash *= FNV_PRIME;
+        }
+        // Spread the bits before summing, so that similar keys do not cancel out
+        keyHash ^= keyHash >>> 33;
+        keyHash *= 0xff51afd7ed558ccdL;
+        keyHash ^= keyHash >>> 33;
+        hash += keyHash;
+    }
+
+    public void addCost(double cost) {
+        total += cost;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    /**
+     * @return true if the rows are the same and the total changed less than minChangePercent percent
+     */
+    public boolean isUnchangedSince(SpendFingerprint previous, double minChangePercent) {
+        if (hash != previous.hash) {
+            return false;
+        }
+        if (previous.total == 0) {
+            return total == 0;
+        }
+        return Math.abs(total - previous.total) / Math.abs(previous.total) * 100 < minChangePercent;
+    }
+}
@@ -0,0 +1,21 @@
+package loke.render;
+
+import java.util.List;
+
+public class AccountCostRows {
+    private CostRow account;
+    private List<CostRow> resources;
+
+    public AccountCostRows(CostRow account, List<CostRow> resources) {
+        this.account = account;
+        this.resources = resources;
+    }
+
+    public CostRow getAccount() {
+        return account;
+    }
+
+    public List<CostRow> getResources() {
+        return resources;
+    }
+}
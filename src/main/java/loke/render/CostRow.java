@@ -0,0 +1,28 @@
+package loke.render;
+
+/**
+ * One row of a daily cost table. Days without any recorded cost are {@link Double#NaN} and are rendered as 0.00.
+ */
+public class CostRow {
+    private String name;
+    private double[] dailyCosts;
+    private double total;
+
+    public CostRow(String name, double[] dailyCosts, double total) {
+        this.name = name;
+        this.dailyCosts = dailyCosts;
+        this.total = total;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double[] getDailyCosts() {
+        return dailyCosts;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,83 @@
+package loke.render;
+
+import loke.model.OwnerSpend;
+import loke.utils.CostFormatter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * One row per owner with the total, the last two weeks, or months for long report windows, and the change between
+ * them. Used by the admin digest for the owners that do not get a section of their own, with the sum of the rows in
+ * the footer.
+ */
+public class OwnerSpendTable {
+    private static final String CELL = "                <td nowrap style=\"border:1px solid #ddd;padding:8px;\">";
+    private static final String NUMBER_CELL =
+            "                <td nowrap style=\"border:1px solid #ddd;padding:8px;text-align:right\">";
+    private static final String FOOTER_CELL =
+            "                <td nowrap style=\"border:1px solid #ddd;padding:8px;text-align:right;background-color:#428aff\">";
+
+    private OwnerSpendTable() {
+    }
+
+    /**
+     * @param period the period the last two columns cover, week or month
+     */
+    public static void render(String title, List<OwnerSpend> rows, int days, String period,
+                              CostFormatter costFormat, Appendable out) throws IOException {
+        out.append("<div style=\"font-family:'arial'\">\n")
+                .append("    <h4>").append(ResourcesStartedLastWeekTable.text(title)).append("</h4>\n")
+                .append("    <div style=\"overflow-x:auto;width:1100px;border:1px solid #ddd\">\n")
+                .append("        <table style=\"border-collapse:collapse;border-spacing:0;width:100%;font-size:small\">\n")
+                .append("            <thead>\n")
+                .append("            <tr>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px;width:270px\">Owner</th>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">Past ").append(String.valueOf(days))
+                .append(" days ($)</th>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">Last ").append(period)
+                .append(" ($)</th>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">Previous ").append(period)
+                .append(" ($)</th>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">Change ($)</th>\n")
+                .append("            </tr>\n")
+                .append("            </thead>\n")
+                .append("            <tbody>\n");
+
+        double total = 0;
+        double lastWeek = 0;
+        double previousWeek = 0;
+        boolean striped = true;
+        for (OwnerSpend row : rows) {
+            out.append(striped ? "            <tr style=\"background-color:#f2f2f2\">\n" : "            <tr>\n")
+                    .append(CELL).append(ResourcesStartedLastWeekTable.text(row.getOwner())).append("</td>\n");
+            appendCosts(row.getTotal(), row.getLastWeek(), row.getPreviousWeek(), NUMBER_CELL, costFormat, out);
+            out.append("            </tr>\n");
+            total += row.getTotal();
+            lastWeek += row.getLastWeek();
+            previousWeek += row.getPreviousWeek();
+            striped = !striped;
+        }
+
+        out.append("            </tbody>\n")
+                .append("            <tfoot>\n")
+                .append("            <tr>\n")
+                .append("                <td nowrap style=\"border:1px solid #ddd;padding:8px;background-color:#428aff\">")
+                .append("Total for ").append(String.valueOf(rows.size())).append(" owners</td>\n");
+        appendCosts(total, lastWeek, previousWeek, FOOTER_CELL, costFormat, out);
+        out.append("            </tr>\n")
+                .append("            </tfoot>\n")
+                .append("        </table>\n")
+                .append("    </div>\n")
+                .append("</div>\n");
+    }
+
+    private static void appendCosts(double total, double lastWeek, double previousWeek, String cell,
+                                    CostFormatter costFormat, Appendable out) throws IOException {
+        for (double cost : new double[]{total, lastWeek, previousWeek, lastWeek - previousWeek}) {
+            out.append(cell);
+            costFormat.format(cost, out);
+            out.append("</td>\n");
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package loke.render;
+
+import loke.utils.CostFormatter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Java version of templates/resourcesstartedlastweek.vm. The output is identical to the Velocity template, including
+ * the whitespace Velocity leaves behind from the directive lines.
+ */
+public class ResourcesStartedLastWeekTable {
+    private static final String CELL = "                <td nowrap style=\"border:1px solid #ddd;padding:8px;\">";
+
+    private ResourcesStartedLastWeekTable() {
+    }
+
+    public static void render(String userName, List<StartedResourceRow> rows, double total, CostFormatter costFormat,
+                              Appendable out) throws IOException {
+        out.append("<div style=\"font-family:'arial'\">\n")
+                .append("    <h4>Resources started last week by ").append(text(userName)).append("</h4>\n")
+                .append("    <div style=\"overflow-x:auto;width:1100px;border:1px solid #ddd\">\n")
+                .append("        <table style=\"border-collapse:collapse;border-spacing:0;width:100%;font-size:small\">\n")
+                .append("            <thead>\n")
+                .append("            <tr>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px;width:270px\">Account</th>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">Product Name</th>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">Resource Id</th>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">Start Date</th>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">Cost ($)</th>\n")
+                .append("            </tr>\n")
+                .append("            </thead>\n")
+                .append("            <tbody>\n")
+                .append("                        ");
+
+        boolean striped = true;
+        for (StartedResourceRow row : rows) {
+            out.append("            ");
+            if (striped) {
+                out.append("            <tr style=\"background-color:#f2f2f2\">\n");
+            } else {
+                out.append("            <tr>\n");
+            }
+            out.append("            ")
+                    .append(CELL).append(text(row.getAccountId())).append("</td>\n")
+                    .append(CELL).append(text(row.getProductName())).append("</td>\n")
+                    .append(CELL).append(text(row.getResourceId())).append("</td>\n")
+                    .append(CELL).append(text(row.getStartDate())).append("</td>\n")
+                    .append(CELL);
+            costFormat.format(row.getCost(), out);
+            out.append("</td>\n")
+                    .append("            </tr>\n")
+                    .append("                        ");
+            striped = !striped;
+        }
+
+        out.append("            </tbody>\n")
+                .append("            <tfoot>\n")
+                .append("            <tr>\n")
+                .append("                <td style=\"border:1px solid #ddd;padding:8px;background-color:#428aff\" colspan=\"5\">\n")
+                .append("                    Total: $");
+        costFormat.format(total, out);
+        out.append("\n")
+                .append("                </td>\n")
+                .append("            </tr>\n")
+                .append("            </tfoot>\n")
+                .append("        </table>\n")
+                .append("    </div>\n")
+                .append("</div>\n");
+    }
+
+    static String text(String value) {
+        return value != null ? value : "";
+    }
+}
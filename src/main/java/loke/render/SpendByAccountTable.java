@@ -0,0 +1,132 @@
+package loke.render;
+
+import loke.utils.CostFormatter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Java version of templates/spendperemployeebyaccount.vm. The output is identical to the Velocity template, including
+ * the whitespace Velocity leaves behind from the directive lines.
+ */
+public class SpendByAccountTable {
+    private static final String ACCOUNT_CELL =
+            "                <td style=\"border:1px solid #ddd;padding:8px;background-color:#b3ccff;text-align:right;\">\n";
+    private static final String RESOURCE_CELL =
+            "                <td nowrap style=\"border:1px solid #ddd;padding:8px;text-align:right\">";
+
+    private SpendByAccountTable() {
+    }
+
+    /**
+     * Accounts with a total below the threshold are left out of the table, but are still part of the total.
+     */
+    public static void render(String userName, double threshold, List<String> dateLabels,
+                              List<AccountCostRows> accounts, double total, CostFormatter costFormat,
+                              Appendable out) throws IOException {
+        out.append("<div style=\"font-family:'arial'\">\n")
+                .append("    <h4>Monthly spend for ").append(ResourcesStartedLastWeekTable.text(userName))
+                .append(" (Accounts with total spend below $").append(String.valueOf(threshold))
+                .append(" will not be shown)</h4>\n")
+                .append("    <div style=\"overflow-x:auto;width:100%;border:1px solid #ddd\">\n")
+                .append("        <table style=\"border-collapse:collapse;border-spacing:0;width:99%;font-size:small\">\n")
+                .append("            <thead>\n")
+                .append("            <tr>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px;width:270px\">Products by Account</th>\n")
+                .append("                ");
+        for (String dateLabel : dateLabels) {
+            out.append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">\n")
+                    .append("                    ").append(dateLabel).append("\n")
+                    .append("                </th>\n")
+                    .append("                ");
+        }
+        out.append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">Total ($)</th>\n")
+                .append("            </tr>\n")
+                .append("            </thead>\n")
+                .append("            <tbody>\n")
+                .append("            ");
+
+        boolean striped = false;
+        for (AccountCostRows accountRows : accounts) {
+            CostRow account = accountRows.getAccount();
+            out.append("            ");
+            if (account.getTotal() < threshold) {
+                out.append("            ");
+                continue;
+            }
+            out.append("            <tr>\n")
+                    .append("                <td style=\"border:1px solid #ddd;padding:8px;width:270px;background-color:#b3ccff\">\n")
+                    .append("                    ").append(ResourcesStartedLastWeekTable.text(account.getName()))
+                    .append("\n")
+                    .append("                </td>\n")
+                    .append("                ");
+            for (double dailyCost : account.getDailyCosts()) {
+                out.append(ACCOUNT_CELL)
+                        .append("                    ");
+                costFormat.format(dailyCost, out);
+                out.append("\n")
+                        .append("                </td>\n")
+                        .append("                ");
+            }
+            out.append(ACCOUNT_CELL)
+                    .append("                    ");
+            costFormat.format(account.getTotal(), out);
+            out.append("\n")
+                    .append("                </td>\n")
+                    .append("            </tr>\n")
+                    .append("                        ");
+
+            for (CostRow resource : accountRows.getResources()) {
+                out.append("            ");
+                if (striped) {
+                    out.append("            <tr style=\"background-color:#f2f2f2\">\n");
+                } else {
+                    out.append("            <tr>\n");
+                }
+                out.append("                ")
+                        .append("                <td nowrap style=\"border:1px solid #ddd;padding:8px;width:270px\">\n")
+                        .append("                    ").append(ResourcesStartedLastWeekTable.text(resource.getName()))
+                        .append(" ($)\n")
+                        .append("                </td>\n")
+                        .append("                ");
+                for (double dailyCost : resource.getDailyCosts()) {
+                    out.append("                ");
+                    if (Double.isNaN(dailyCost)) {
+                        out.append(RESOURCE_CELL).append("0.00</td>\n");
+                    } else {
+                        out.append(RESOURCE_CELL).append("\n")
+                                .append("                    ");
+                        costFormat.format(dailyCost, out);
+                        out.append("\n")
+                                .append("                </td>\n");
+                    }
+                    out.append("                                ");
+                }
+                out.append(RESOURCE_CELL).append("\n")
+                        .append("                    ");
+                costFormat.format(resource.getTotal(), out);
+                out.append("\n")
+                        .append("                </td>\n")
+                        .append("            </tr>\n")
+                        .append("                        ");
+                striped = !striped;
+            }
+            out.append("                        ");
+        }
+
+        out.append("            </tbody>\n")
+                .append("            <tfoot>\n")
+                .append("            <tr>\n")
+                .append("                <td style=\"border:1px solid #ddd;padding:8px;background-color:#428aff\" colspan=\"")
+                .append(String.valueOf(dateLabels.size() + 2)).append("\">\n")
+                .append("                    Total: $");
+        costFormat.format(total, out);
+        out.append("\n")
+                .append("                </td>\n")
+                .append("            </tr>\n")
+                .append("            </tfoot>\n")
+                .append("        </table>\n")
+                .append("    </div>\n")
+                .append("</div>\n");
+    }
+}
@@ -0,0 +1,94 @@
+package loke.render;
+
+import loke.utils.CostFormatter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Java version of templates/spendperemployeebyresource.vm. The output is identical to the Velocity template,
+ * including the whitespace Velocity leaves behind from the directive lines.
+ */
+public class SpendByResourceTable {
+    private static final String DAY_CELL =
+            "                            <td nowrap style=\"border:1px solid #ddd;padding:8px;text-align:right\">";
+
+    private SpendByResourceTable() {
+    }
+
+    public static void render(String userName, int days, List<String> dateLabels, List<CostRow> rows, double total,
+                              CostFormatter costFormat, Appendable out) throws IOException {
+        out.append("<div style=\"font-family:'arial'\">\n")
+                .append("    <h4>Total spend for ").append(ResourcesStartedLastWeekTable.text(userName))
+                .append(" the past ").append(String.valueOf(days)).append(" days</h4>\n")
+                .append("    <div style=\"overflow-x:auto;width:100%;border:1px solid #ddd\">\n")
+                .append("        <table style=\"border-collapse:collapse;border-spacing:0;width:99%;font-size:small\">\n")
+                .append("            <thead>\n")
+                .append("            <tr>\n")
+                .append("                <th nowrap style=\"border:1px solid #ddd;padding:8px;width:270px\">Service</th>\n")
+                .append("                ");
+        for (String dateLabel : dateLabels) {
+            out.append("                    <th nowrap style=\"border:1px solid #ddd;padding:8px\">\n")
+                    .append("                        ").append(dateLabel).append("\n")
+                    .append("                    </th>\n")
+                    .append("                ");
+        }
+        out.append("                <th nowrap style=\"border:1px solid #ddd;padding:8px\">Total ($)</th>\n")
+                .append("            </tr>\n")
+                .append("            </thead>\n")
+                .append("            <tbody>\n")
+                .append("                                ");
+
+        boolean striped = true;
+        for (CostRow row : rows) {
+            out.append("                    ");
+            if (striped) {
+                out.append("                    <tr style=\"background-color:#f2f2f2\">\n");
+            } else {
+                out.append("                    <tr>\n");
+            }
+            out.append("                    ")
+                    .append("                    <td nowrap style=\"border:1px solid #ddd;padding:8px;width:270px\">\n")
+                    .append("                        ").append(ResourcesStartedLastWeekTable.text(row.getName()))
+                    .append(" ($)\n")
+                    .append("                    </td>\n")
+                    .append("                    ");
+            for (double dailyCost : row.getDailyCosts()) {
+                out.append("                        ");
+                if (Double.isNaN(dailyCost)) {
+                    out.append(DAY_CELL).append("0.00</td>\n");
+                } else {
+                    out.append(DAY_CELL).append("\n")
+                            .append("                                ");
+                    costFormat.format(dailyCost, out);
+                    out.append("\n")
+                            .append("                            </td>\n");
+                }
+                out.append("                                            ");
+            }
+            out.append("                    <td nowrap style=\"border:1px solid #ddd;padding:8px;text-align:right\">\n")
+                    .append("                        ");
+            costFormat.format(row.getTotal(), out);
+            out.append("\n")
+                    .append("                    </td>\n")
+                    .append("                </tr>\n")
+                    .append("                                    ");
+            striped = !striped;
+        }
+
+        out.append("            </tbody>\n")
+                .append("            <tfoot>\n")
+                .append("            <tr>\n")
+                .append("                <td style=\"border:1px solid #ddd;padding:8px;background-color:#428aff\" colspan=\"")
+                .append(String.valueOf(dateLabels.size() + 2)).append("\">\n")
+                .append("                    Total: $");
+        costFormat.format(total, out);
+        out.append("\n")
+                .append("                </td>\n")
+                .append("            </tr>\n")
+                .append("            </tfoot>\n")
+                .append("        </table>\n")
+                .append("    </div>\n")
+                .append("</div>");
+    }
+}
@@ -0,0 +1,38 @@
+package loke.render;
+
+public class StartedResourceRow {
+    private String accountId;
+    private String productName;
+    private String resourceId;
+    private String startDate;
+    private double cost;
+
+    public StartedResourceRow(String accountId, String productName, String resourceId, String startDate,
+                              double cost) {
+        this.accountId = accountId;
+        this.productName = productName;
+        this.resourceId = resourceId;
+        this.startDate = startDate;
+        this.cost = cost;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public String getStartDate() {
+        return startDate;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+}
@@ -0,0 +1,70 @@
+package loke.service;
+
+import loke.aws.S3Handler;
+import loke.aws.db.AthenaClient;
+import loke.utils.ResourceLoader;
+import loke.utils.SqlConfigInjector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.UUID;
+
+/**
+ * The working table the report queries read when the SqlConfigInjector has a working table name. It holds the spend of
+ * the report window that passes the report filter, summed per owner, account, product and day, or hour for an hourly
+ * window, in compressed Parquet. The billing table is then scanned, filtered and parsed once per run instead of once
+ * per report query, and the queries roll their weeks and months up from the daily sums.
+ * <p>
+ * The Parquet files are written under a prefix of the location of their own for each run, which is deleted with the
+ * table. Creating the table deletes everything under the location first, the files of a run that never dropped its
+ * table.
+ */
+public class ReportWorkingTable {
+    private static final Logger log = LogManager.getLogger(ReportWorkingTable.class);
+    private AthenaClient athenaClient;
+    private String tableName;
+    private String createSql;
+    private String dropSql;
+    private S3Handler s3Handler;
+    private String bucket;
+    private String prefix;
+    private String runPrefix;
+
+    /**
+     * @param location s3://bucket/prefix
+     */
+    public ReportWorkingTable(AthenaClient athenaClient, SqlConfigInjector configInjector, S3Handler s3Handler,
+                              String location) {
+        this.athenaClient = athenaClient;
+        this.s3Handler = s3Handler;
+        this.tableName = configInjector.getWorkingTableName();
+        String path = location.substring("s3://".length());
+        int slash = path.indexOf('/');
+        this.bucket = (slash < 0) ? path : path.substring(0, slash);
+        String keyPrefix = (slash < 0) ? "" : path.substring(slash + 1);
+        this.prefix = keyPrefix.isEmpty() || keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+        this.runPrefix = prefix + UUID.randomUUID() + "/";
+        this.createSql = configInjector.injectWorkingTableSql(
+                ResourceLoader.getResource("sql/ReportWorkingTable.sql"))
+                .replace("workinglocation", "s3://" + bucket + "/" + runPrefix);
+        this.dropSql = configInjector.injectWorkingTableSql(
+                ResourceLoader.getResource("sql/DropReportWorkingTable.sql"));
+    }
+
+    /**
+     * Creates the table, a table and files left by a failed run are dropped first.
+     */
+    public void create() {
+        long start = System.currentTimeMillis();
+        athenaClient.execute(dropSql);
+        s3Handler.deleteObjects(bucket, prefix);
+        athenaClient.execute(createSql);
+        log.info("Created the working table {} in {} ms", tableName, System.currentTimeMillis() - start);
+    }
+
+    public void drop() {
+        athenaClient.execute(dropSql);
+        s3Handler.deleteObjects(bucket, runPrefix);
+        log.info("Dropped the working table {}", tableName);
+    }
+}
@@ -2,18 +2,24 @@ package loke.service;
 
 import loke.aws.db.AthenaClient;
 import loke.aws.db.JdbcManager;
+import loke.journal.FirstSeenIndex;
 import loke.model.Report;
-import loke.utils.DecimalFormatFactory;
+import loke.model.SpendFingerprint;
+import loke.render.ResourcesStartedLastWeekTable;
+import loke.render.StartedResourceRow;
+import loke.utils.CalendarGenerator;
+import loke.utils.CostFormatter;
 import loke.utils.ResourceLoader;
 import loke.utils.SqlConfigInjector;
+import loke.utils.TemplateRenderer;
+import loke.utils.TopK;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 
+import java.io.IOException;
 import java.io.StringWriter;
-import java.text.DecimalFormat;
+import java.io.Writer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
@@ -22,13 +28,23 @@ import java.util.*;
 
 public class ResourceStartedLastWeek implements Service {
     private static final Logger log = LogManager.getLogger(ResourceStartedLastWeek.class);
-    private SimpleDateFormat layoutDateFormat = new SimpleDateFormat("MMM dd, YYYY", Locale.US);
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-    private DecimalFormat costFormatter = DecimalFormatFactory.create(2);
+    private ThreadLocal<SimpleDateFormat> layoutDateFormat =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("MMM dd, YYYY", Locale.US));
+    private ThreadLocal<SimpleDateFormat> dateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd"));
+    private CostFormatter costFormatter = new CostFormatter(2);
     private String sqlQuery;
+    private String seenSql;
+    private String firstSeenSqlQuery;
     private AthenaClient athenaClient;
     private String userOwnerRegExp;
     private Map<String, String> csvAccounts;
+    private Map<String, User> users = new HashMap<>();
+    private boolean precompiledTemplates;
+    private int maxResources;
+    private int startedResourceDays;
+    private FirstSeenIndex firstSeenIndex;
+    private boolean saveFirstSeenIndex;
+    private SqlConfigInjector configInjector;
 
     public ResourceStartedLastWeek(AthenaClient athenaClient, String userOwnerRegExp, Map<String, String> csvAccounts,
                                    SqlConfigInjector configInjector) {
@@ -37,57 +53,172 @@ public class ResourceStartedLastWeek implements Service {
         this.csvAccounts = csvAccounts;
         this.sqlQuery = configInjector.injectSqlConfig(
                 ResourceLoader.getResource("sql/ResourceStartedLastWeek.sql"));
+        this.seenSql = ResourceLoader.getResource("sql/ResourceSeenLastWeek.sql");
+        this.firstSeenSqlQuery = configInjector.injectSqlConfig(
+                ResourceLoader.getResource("sql/ResourceFirstSeen.sql"));
+        this.startedResourceDays = configInjector.getStartedResourceDays();
+        this.configInjector = configInjector;
     }
 
     @Override
     public List<Report> getReports() {
-        Map<String, User> users = sendRequest();
+        fetchData();
         return generateReports(users);
     }
 
+    @Override
+    public void fetchData() {
+        this.users = (firstSeenIndex != null) ? sendIndexedRequest() : sendRequest();
+        if (maxResources > 0) {
+            for (User user : users.values()) {
+                limitResources(user);
+            }
+        }
+    }
+
+    /**
+     * Keeps the maxResources most expensive started resources of each user and rolls the rest into an Other row.
+     * 0 keeps every resource.
+     */
+    public void setMaxResources(int maxResources) {
+        this.maxResources = maxResources;
+    }
+
+    /**
+     * Finds the started resources by querying only the resources seen in the last days and looking up when they were
+     * first seen in the index, instead of comparing them with every resource in the table. The index is filled from
+     * the whole table on the first run and is kept up to date with the resources seen since its last update, which is
+     * saved unless saveIndex is false, e.g. on a dry run.
+     */
+    public void setFirstSeenIndex(FirstSeenIndex firstSeenIndex, boolean saveIndex) {
+        this.firstSeenIndex = firstSeenIndex;
+        this.saveFirstSeenIndex = saveIndex;
+    }
+
+    private void limitResources(User user) {
+        TopK<Resource> topK = new TopK<>(maxResources);
+        List<Resource> dropped = new ArrayList<>();
+        for (Resource resource : user.getResources()) {
+            Resource droppedResource = topK.offer(resource, resource.getCost());
+            if (droppedResource != null) {
+                dropped.add(droppedResource);
+            }
+        }
+        if (dropped.isEmpty()) {
+            return;
+        }
+        double cost = 0;
+        Calendar firstStartDate = dropped.get(0).getStartDate();
+        for (Resource resource : dropped) {
+            cost += resource.getCost();
+            if (resource.getStartDate().before(firstStartDate)) {
+                firstStartDate = resource.getStartDate();
+            }
+        }
+        log.info("Rolled {} of {} started resources into Other for: {}", dropped.size(), user.getResources().size(),
+                user.getUserName());
+        user.getResources().clear();
+        user.getResources().addAll(topK.getTop());
+        user.addResource(new Resource("Other", dropped.size() + " resources", "", firstStartDate, cost));
+    }
+
+    @Override
+    public List<String> getOwners() {
+        return new ArrayList<>(users.keySet());
+    }
+
+    @Override
+    public void addToFingerprint(String owner, SpendFingerprint fingerprint) {
+        User user = users.get(owner);
+        if (user == null) {
+            return;
+        }
+        for (Resource resource : user.getResources()) {
+            fingerprint.addRow("started:" + resource.getAccountId() + "/" + resource.getResourceId());
+        }
+    }
+
+    @Override
+    public Report getReport(String owner) {
+        User user = users.get(owner);
+        if (user == null) {
+            return null;
+        }
+        return generateReport(user);
+    }
+
     private List<Report> generateReports(Map<String, User> users) {
-        long amountToSubtract = 7;
-        LocalDate start = LocalDate.now().minus(amountToSubtract, ChronoUnit.DAYS);
+        LocalDate start = LocalDate.now().minus(startedResourceDays, ChronoUnit.DAYS);
         LocalDate end = LocalDate.now();
         log.info("Generating reports for resources started between {} and {}", start, end);
 
         List<Report> reports = new ArrayList<>();
         for (User user : users.values()) {
-            Report report = new Report(user.getUserName());
-            report.setHtmlTable(generateHTMLTable(user));
-            reports.add(report);
-            log.info("Report generated for: {}", user.getUserName());
+            reports.add(generateReport(user));
         }
         log.info("Reports generated: {}", reports.size());
         return reports;
     }
 
+    private Report generateReport(User user) {
+        Report report = new Report(user.getUserName());
+        report.setHtmlTable(generateHTMLTable(user));
+        log.info("Report generated for: {}", user.getUserName());
+        return report;
+    }
+
     private String generateHTMLTable(User user) {
-        VelocityEngine velocityEngine = new VelocityEngine();
-        Properties p = new Properties();
-        p.setProperty("resource.loader", "class");
-        p.setProperty("class.resource.loader.class", "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
-        velocityEngine.init(p);
+        StringWriter stringWriter = new StringWriter();
+        writeHTMLTable(user, stringWriter);
+        return stringWriter.toString().trim();
+    }
 
+    private void writeHTMLTable(User user, Writer writer) {
+        if (precompiledTemplates) {
+            writePrecompiledHTMLTable(user, writer);
+            return;
+        }
         VelocityContext context = new VelocityContext();
         context.put("user", user);
         context.put("costFormat", costFormatter);
-        context.put("dateFormat", layoutDateFormat);
+        context.put("dateFormat", layoutDateFormat.get());
 
-        Template template = velocityEngine.getTemplate("templates/resourcesstartedlastweek.vm");
+        TemplateRenderer.getInstance().merge("templates/resourcesstartedlastweek.vm", context, writer);
+    }
 
-        StringWriter stringWriter = new StringWriter();
-        template.merge(context, stringWriter);
+    private void writePrecompiledHTMLTable(User user, Writer writer) {
+        List<StartedResourceRow> rows = new ArrayList<>();
+        for (Resource resource : user.getResources()) {
+            rows.add(new StartedResourceRow(resource.getAccountId(), resource.getProductName(),
+                    resource.getResourceId(), layoutDateFormat.get().format(resource.getStartDate().getTime()),
+                    resource.getCost()));
+        }
 
-        return stringWriter.toString().trim();
+        try {
+            ResourcesStartedLastWeekTable.render(user.getUserName(), rows, user.calculateTotalSpend(),
+                    costFormatter, writer);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to render the started resources table for: " + user.getUserName(), e);
+        }
+    }
+
+    /**
+     * Renders the table with the Java version of the template instead of Velocity. Both produce the same html.
+     */
+    public void setPrecompiledTemplates(boolean precompiledTemplates) {
+        this.precompiledTemplates = precompiledTemplates;
     }
 
     private Map<String, User> sendRequest() {
         log.trace("Fetching data and mapping objects");
-        Map<String, User> users = new HashMap<>();
         JdbcManager.QueryResult<ResourceStartedLastWeekDao> queryResult =
                 athenaClient.executeQuery(sqlQuery, ResourceStartedLastWeekDao.class);
-        for (ResourceStartedLastWeekDao dao : queryResult.getResultList()) {
+        return mapUsers(queryResult.getResultList());
+    }
+
+    private Map<String, User> mapUsers(List<ResourceStartedLastWeekDao> resultList) {
+        Map<String, User> users = new HashMap<>();
+        for (ResourceStartedLastWeekDao dao : resultList) {
             if (!dao.userOwner.matches(userOwnerRegExp)) {
                 continue;
             }
@@ -98,7 +229,7 @@ public class ResourceStartedLastWeek implements Service {
 
             Calendar calendar = Calendar.getInstance();
             try {
-                Date date = dateFormat.parse(dao.startDate);
+                Date date = dateFormat.get().parse(dao.startDate);
                 calendar.setTime(date);
             } catch (ParseException e) {
                 e.printStackTrace();
@@ -116,6 +247,53 @@ public class ResourceStartedLastWeek implements Service {
         return users;
     }
 
+    private Map<String, User> sendIndexedRequest() {
+        if (firstSeenIndex.isEmpty()) {
+            log.info("Filling the first seen index from the whole table");
+            JdbcManager.QueryResult<ResourceFirstSeenDao> firstSeen =
+                    athenaClient.executeQuery(firstSeenSqlQuery, ResourceFirstSeenDao.class);
+            for (ResourceFirstSeenDao dao : firstSeen.getResultList()) {
+                firstSeenIndex.add(dao.resourceId, parseDay(dao.startDate));
+            }
+        }
+        LocalDate today = LocalDate.now(CalendarGenerator.clock);
+        LocalDate startedAfter = today.minusDays(startedResourceDays);
+        int seenDays = startedResourceDays;
+        LocalDate updatedTo = firstSeenIndex.getUpdatedTo();
+        if (updatedTo != null && updatedTo.isBefore(startedAfter)) {
+            seenDays = (int) ChronoUnit.DAYS.between(updatedTo, today);
+            log.info("Adding the resources seen since the last update of the first seen index: {}", updatedTo);
+        }
+        List<ResourceStartedLastWeekDao> started = new ArrayList<>();
+        JdbcManager.QueryResult<ResourceStartedLastWeekDao> queryResult = athenaClient.executeQuery(
+                configInjector.injectSqlConfig(seenSql, seenDays), ResourceStartedLastWeekDao.class);
+        for (ResourceStartedLastWeekDao dao : queryResult.getResultList()) {
+            firstSeenIndex.add(dao.resourceId, parseDay(dao.startDate));
+            LocalDate firstSeen = firstSeenIndex.getFirstSeen(dao.resourceId);
+            if (!firstSeen.isBefore(startedAfter) && !dao.userOwner.isEmpty()) {
+                started.add(dao);
+            }
+        }
+        firstSeenIndex.setUpdatedTo(today);
+        if (saveFirstSeenIndex) {
+            firstSeenIndex.save();
+        }
+        log.info("Started resources: {} of {} seen the last {} days", started.size(),
+                queryResult.getResultList().size(), seenDays);
+        return mapUsers(started);
+    }
+
+    private static LocalDate parseDay(String startDate) {
+        return LocalDate.parse(startDate.substring(0, 10));
+    }
+
+    public static class ResourceFirstSeenDao {
+        @JdbcManager.Column(value = "resource_id")
+        public String resourceId;
+        @JdbcManager.Column(value = "start_date")
+        public String startDate;
+    }
+
     public static class ResourceStartedLastWeekDao {
         @JdbcManager.Column(value = "account_id")
         public String accountId;
@@ -1,10 +1,33 @@
 package loke.service;
 
 import loke.model.Report;
+import loke.model.SpendFingerprint;
 
 import java.util.List;
 
 public interface Service {
 
     List<Report> getReports();
+
+    /**
+     * Queries the data behind the reports and keeps it until the next call. Must be called before
+     * {@link #getOwners()} and {@link #getReport(String)}.
+     */
+    void fetchData();
+
+    List<String> getOwners();
+
+    /**
+     * Generates the report for a single owner from the fetched data.
+     *
+     * @return the report, or null if the owner has no report for this service
+     */
+    Report getReport(String owner);
+
+    /**
+     * Adds what the owner's report is made of to the fingerprint, which is compared with last week's to find the
+     * owners whose spend has not changed. Called after {@link #fetchData()}.
+     */
+    default void addToFingerprint(String owner, SpendFingerprint fingerprint) {
+    }
 }
@@ -1,88 +1,200 @@
 package loke.service;
 
-import com.googlecode.charts4j.*;
 import loke.aws.db.AthenaClient;
 import loke.aws.db.JdbcManager;
+import loke.chart.ChartRenderer;
+import loke.chart.Downsampler;
+import loke.chart.GoogleChartRenderer;
+import loke.chart.LineChartSpec;
 import loke.model.Report;
+import loke.model.SpendFingerprint;
+import loke.render.AccountCostRows;
+import loke.render.CostRow;
+import loke.render.SpendByAccountTable;
 import loke.utils.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 
+import java.io.IOException;
 import java.io.StringWriter;
-import java.text.DecimalFormat;
+import java.io.Writer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
 public class SpendPerEmployeeByAccount implements Service {
     private static final Logger log = LogManager.getLogger(SpendPerEmployeeByAccount.class);
-    private SimpleDateFormat layoutDateFormat = new SimpleDateFormat("MMM dd, YYYY", Locale.US);
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-    private List<Calendar> daysBack = CalendarGenerator.getDaysBack(30);
-    private DecimalFormat costFormatter = DecimalFormatFactory.create(2);
+    private ThreadLocal<SimpleDateFormat> layoutDateFormat =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("MMM dd, YYYY", Locale.US));
+    private ThreadLocal<SimpleDateFormat> dateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd"));
+    private ReportWindow reportWindow;
+    private List<Calendar> daysBack;
+    private CostFormatter costFormatter = new CostFormatter(2);
     private String sqlQuery;
     private AthenaClient athenaClient;
-    private ColorPicker colorPicker;
     private String userOwnerRegExp;
     private double generateReportThreshold;
     private Map<String, String> csvAccounts;
+    private Map<String, User> users = new HashMap<>();
+    private boolean precompiledTemplates;
+    private int maxAccounts;
+    private ChartRenderer chartRenderer = new GoogleChartRenderer();
+    private int chartMaxPoints;
 
     public SpendPerEmployeeByAccount(AthenaClient athenaClient, String userOwnerRegExp, double generateReportThreshold,
-                                     Map<String, String> csvAccounts, ColorPicker colorPicker, SqlConfigInjector configInjector) {
+                                     Map<String, String> csvAccounts, SqlConfigInjector configInjector) {
         this.athenaClient = athenaClient;
         this.userOwnerRegExp = userOwnerRegExp;
         this.generateReportThreshold = generateReportThreshold;
         this.csvAccounts = csvAccounts;
-        this.colorPicker = colorPicker;
-        this.sqlQuery = configInjector.injectSqlConfig(ResourceLoader.getResource("sql/SpendPerEmployeeByAccount.sql"));
+        this.reportWindow = configInjector.getReportWindow().toDaily();
+        this.sqlQuery = configInjector.injectSqlConfig(ResourceLoader.getResource("sql/SpendPerEmployeeByAccount.sql"),
+                reportWindow);
+        this.daysBack = reportWindow.getPeriods();
     }
 
     @Override
     public List<Report> getReports() {
-        Map<String, User> users = sendRequest();
+        fetchData();
         return generateReports(users);
     }
 
+    @Override
+    public void fetchData() {
+        this.users = sendRequest();
+        if (maxAccounts > 0) {
+            for (User user : users.values()) {
+                limitAccounts(user);
+            }
+        }
+    }
+
+    /**
+     * Keeps the maxAccounts most expensive accounts of each user and rolls the rest into an Other account, so that the
+     * chart and table stay readable for users with spend in many accounts. 0 keeps every account.
+     */
+    public void setMaxAccounts(int maxAccounts) {
+        this.maxAccounts = maxAccounts;
+    }
+
+    private void limitAccounts(User user) {
+        TopK<Map.Entry<String, Account>> topK = new TopK<>(maxAccounts);
+        List<Account> dropped = new ArrayList<>();
+        for (Map.Entry<String, Account> entry : user.getAccounts().entrySet()) {
+            Map.Entry<String, Account> droppedEntry = topK.offer(entry, entry.getValue().getAccountTotal());
+            if (droppedEntry != null) {
+                dropped.add(droppedEntry.getValue());
+            }
+        }
+        if (dropped.isEmpty()) {
+            return;
+        }
+        Account other = new Account("Other (" + dropped.size() + " accounts)");
+        for (Account account : dropped) {
+            for (Resource resource : account.getResources().values()) {
+                if (!other.getResources().containsKey(resource.getResourceName())) {
+                    other.addResource(resource.getResourceName(), new Resource(resource.getResourceName()));
+                }
+                Resource otherResource = other.getResources().get(resource.getResourceName());
+                for (Map.Entry<String, Day> entry : resource.getDays().entrySet()) {
+                    Day otherDay = otherResource.getDay(entry.getKey());
+                    double cost = (otherDay != null) ? otherDay.getDailyCost() : 0.0;
+                    otherResource.getDays().put(entry.getKey(),
+                            new Day(entry.getValue().getDate(), cost + entry.getValue().getDailyCost()));
+                }
+            }
+        }
+        log.info("Rolled {} of {} accounts into: {} for: {}", dropped.size(), user.getAccounts().size(),
+                other.getAccountId(), user.getUserName());
+        List<Map.Entry<String, Account>> top = topK.getTop();
+        Map<String, Account> kept = new HashMap<>();
+        for (Map.Entry<String, Account> entry : top) {
+            kept.put(entry.getKey(), entry.getValue());
+        }
+        user.getAccounts().clear();
+        user.getAccounts().putAll(kept);
+        user.addAccount(other.getAccountId(), other);
+    }
+
+    @Override
+    public List<String> getOwners() {
+        return new ArrayList<>(users.keySet());
+    }
+
+    @Override
+    public void addToFingerprint(String owner, SpendFingerprint fingerprint) {
+        User user = users.get(owner);
+        if (user == null) {
+            return;
+        }
+        for (Account account : user.getAccounts().values()) {
+            for (Resource resource : account.getResources().values()) {
+                fingerprint.addRow("account:" + account.getAccountId() + "/" + resource.getResourceName());
+            }
+        }
+    }
+
+    @Override
+    public Report getReport(String owner) {
+        User user = users.get(owner);
+        if (user == null) {
+            return null;
+        }
+        if (user.calculateTotalCost() < generateReportThreshold) {
+            log.info("User: {} fell beneith the account threshold of: {}. Account total: {}", user.getUserName(),
+                    generateReportThreshold, user.calculateTotalCost());
+            return null;
+        }
+        return generateReport(user);
+    }
+
     private List<Report> generateReports(Map<String, User> users) {
-        log.info("Generating reports for spend per user listed by account the last {} days", daysBack.size());
+        log.info("Generating reports for spend per user listed by account the last {} days", reportWindow.getDays());
         List<Report> reports = new ArrayList<>();
         for (User user : users.values()) {
-            if (user.calculateTotalCost() < generateReportThreshold) {
-                log.info("User: {} fell beneith the account threshold of: {}. Account total: {}", user.getUserName(),
-                        generateReportThreshold, user.calculateTotalCost());
-                continue;
+            Report report = getReport(user.getUserName());
+            if (report != null) {
+                reports.add(report);
             }
-            Report report = new Report(user.getUserName());
-            report.setChartUrl(generateChartUrl(user));
-            report.setHtmlTable(generateHTMLTable(user));
-            reports.add(report);
-            log.info("Report generated for: {}", user.getUserName());
         }
         log.info("Reports generated: {}", reports.size());
         return reports;
     }
 
+    private Report generateReport(User user) {
+        Report report = new Report(user.getUserName());
+        report.setChartUrl(generateChartUrl(user));
+        report.setHtmlTable(generateHTMLTable(user));
+        log.info("Report generated for: {}", user.getUserName());
+        return report;
+    }
+
     private String generateChartUrl(User user) {
-        colorPicker.resetColor();
-        ScaleChecker.Scale scale = checkScale(user.getAccounts().values());
-        List<String> xAxisLabels = getXAxisLabels();
-        List<Line> lineChartPlots = createPlots(user, scale);
-        LineChart chart = GCharts.newLineChart(lineChartPlots);
+        ColorPicker colorPicker = new ColorPicker();
+        Map<Account, List<Double>> dailyTotals = getChartDailyTotals(user);
+
+        // Every line keeps the same days, so that they are all drawn at the dates of the labels
+        int[] kept = Downsampler.selectIndices(Downsampler.sum(dailyTotals.values()), chartMaxPoints);
+        dailyTotals.replaceAll((account, totals) -> Downsampler.select(totals, kept));
+        List<String> xAxisLabels = Downsampler.select(getXAxisLabels(), kept);
+        ScaleChecker.Scale scale = ScaleChecker.checkScale(dailyTotals.values());
+        LineChartSpec chart = new LineChartSpec(createPlots(dailyTotals, scale, colorPicker));
         configureChart(xAxisLabels, chart, user, scale, user.getUserName());
-        return chart.toURLString();
+        return chartRenderer.render(chart);
     }
 
     private String generateHTMLTable(User user) {
-        VelocityEngine velocityEngine = new VelocityEngine();
-
-        Properties p = new Properties();
-        p.setProperty("resource.loader", "class");
-        p.setProperty("class.resource.loader.class", "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
-        velocityEngine.init(p);
+        StringWriter stringWriter = new StringWriter();
+        writeHTMLTable(user, stringWriter);
+        return stringWriter.toString().trim();
+    }
 
+    private void writeHTMLTable(User user, Writer writer) {
+        if (precompiledTemplates) {
+            writePrecompiledHTMLTable(user, writer);
+            return;
+        }
         VelocityContext context = new VelocityContext();
         context.put("userName", user.getUserName());
         context.put("generateReportThreshold", this.generateReportThreshold);
@@ -90,75 +202,126 @@ public class SpendPerEmployeeByAccount implements Service {
         context.put("accounts", user.getAccounts().values());
         context.put("total", user.calculateTotalCost());
         context.put("colspan", daysBack.size() + 2);
-        context.put("simpleDateFormat", layoutDateFormat);
-        context.put("dateFormat", this.dateFormat);
+        context.put("simpleDateFormat", layoutDateFormat.get());
+        context.put("dateFormat", this.dateFormat.get());
         context.put("costFormat", costFormatter);
 
-        Template template = velocityEngine.getTemplate("templates/spendperemployeebyaccount.vm");
+        TemplateRenderer.getInstance().merge("templates/spendperemployeebyaccount.vm", context, writer);
+    }
 
-        StringWriter stringWriter = new StringWriter();
-        template.merge(context, stringWriter);
+    private void writePrecompiledHTMLTable(User user, Writer writer) {
+        List<String> dates = new ArrayList<>();
+        List<String> dateLabels = new ArrayList<>();
+        for (Calendar day : daysBack) {
+            dates.add(dateFormat.get().format(day.getTime()));
+            dateLabels.add(layoutDateFormat.get().format(day.getTime()));
+        }
 
-        return stringWriter.toString().trim();
+        List<AccountCostRows> accounts = new ArrayList<>();
+        for (Account account : user.getAccounts().values()) {
+            double[] accountDailyCosts = new double[dates.size()];
+            List<CostRow> resources = new ArrayList<>();
+            for (Resource resource : account.getResources().values()) {
+                double[] dailyCosts = new double[dates.size()];
+                for (int i = 0; i < dates.size(); i++) {
+                    Day day = resource.getDay(dates.get(i));
+                    if (day != null) {
+                        dailyCosts[i] = day.getDailyCost();
+                        accountDailyCosts[i] += day.getDailyCost();
+                    } else {
+                        dailyCosts[i] = Double.NaN;
+                    }
+                }
+                resources.add(new CostRow(resource.getResourceName(), dailyCosts, resource.getResourceTotal()));
+            }
+            CostRow accountRow = new CostRow(account.getAccountId(), accountDailyCosts, account.getAccountTotal());
+            accounts.add(new AccountCostRows(accountRow, resources));
+        }
+
+        try {
+            SpendByAccountTable.render(user.getUserName(), generateReportThreshold, dateLabels, accounts,
+                    user.calculateTotalCost(), costFormatter, writer);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to render the account table for: " + user.getUserName(), e);
+        }
+    }
+
+    /**
+     * Renders the table with the Java version of the template instead of Velocity. Both produce the same html.
+     */
+    public void setPrecompiledTemplates(boolean precompiledTemplates) {
+        this.precompiledTemplates = precompiledTemplates;
+    }
+
+    /**
+     * Renders the charts, by default as Google Chart urls.
+     */
+    public void setChartRenderer(ChartRenderer chartRenderer) {
+        this.chartRenderer = chartRenderer;
+    }
+
+    /**
+     * Downsamples the lines of the chart to at most chartMaxPoints points. 0 draws every day.
+     */
+    public void setChartMaxPoints(int chartMaxPoints) {
+        this.chartMaxPoints = chartMaxPoints;
     }
 
-    private void configureChart(List<String> daysXAxisLabels, LineChart chart, User user, ScaleChecker.Scale scale,
-                                String userName) {
+    private void configureChart(List<String> daysXAxisLabels, LineChartSpec chart, User user,
+                                ScaleChecker.Scale scale, String userName) {
         int chartWidth = 1000;
         int chartHeight = 300;
-        chart.addYAxisLabels(AxisLabelsFactory.newNumericAxisLabels(scale.getyAxisLabels()));
-        chart.addXAxisLabels(AxisLabelsFactory.newAxisLabels(daysXAxisLabels));
-        chart.addYAxisLabels(AxisLabelsFactory.newAxisLabels("Cost in " + scale.getSuffix(), 50));
-        chart.addXAxisLabels(AxisLabelsFactory.newAxisLabels("Day", 50));
+        chart.setYAxisLabels(scale.getyAxisLabels());
+        chart.setXAxisLabels(daysXAxisLabels);
+        chart.setYAxisTitle("Cost in " + scale.getSuffix());
+        chart.setXAxisTitle(reportWindow.getAxisTitle());
         chart.setSize(chartWidth, chartHeight);
         chart.setTitle("Total spend for "
                 + userName
                 + " by account the past "
-                + daysBack.size()
+                + reportWindow.getDays()
                 + " days. "
                 + costFormatter.format(user.calculateTotalCost()) + " UDS.");
     }
 
-    private List<Line> createPlots(User user, ScaleChecker.Scale scale) {
-        List<Line> plots = new ArrayList<>();
+    private List<LineChartSpec.Series> createPlots(Map<Account, List<Double>> dailyTotals, ScaleChecker.Scale scale,
+                                                   ColorPicker colorPicker) {
+        List<LineChartSpec.Series> plots = new ArrayList<>();
 
-        for (Account account : user.getAccounts().values()) {
+        for (Map.Entry<Account, List<Double>> entry : dailyTotals.entrySet()) {
+            Account account = entry.getKey();
             List<Double> lineSizeValues = new ArrayList<>();
-            for (Calendar calendar : daysBack) {
-                lineSizeValues.add(
-                        account.getAccountDailyTotal(dateFormat.format(calendar.getTime())) / scale.getDivideBy()
-                );
+            for (Double dailyTotal : entry.getValue()) {
+                lineSizeValues.add(dailyTotal / scale.getDivideBy());
             }
-            Line lineChartPlot = Plots.newLine(
-                    Data.newData(lineSizeValues),
-                    colorPicker.getNextColor(),
+            LineChartSpec.Series lineChartPlot = new LineChartSpec.Series(
                     account.getAccountId()
                             + " "
-                            + costFormatter.format(account.getAccountTotal()));
+                            + costFormatter.format(account.getAccountTotal()),
+                    colorPicker.getNextColor(),
+                    lineSizeValues);
             plots.add(0, lineChartPlot);
         }
         return plots;
     }
 
-    private ScaleChecker.Scale checkScale(Collection<Account> accounts) {
-        List<Double> dailyCosts = new ArrayList<>();
-        for (Account account : accounts) {
+    private Map<Account, List<Double>> getChartDailyTotals(User user) {
+        Map<Account, List<Double>> dailyTotals = new LinkedHashMap<>();
+        for (Account account : user.getAccounts().values()) {
+            List<Double> accountDailyTotals = new ArrayList<>();
             for (Calendar calendar : daysBack) {
-                dailyCosts.add(account.getAccountDailyTotal(dateFormat.format(calendar.getTime())));
+                accountDailyTotals.add(account.getAccountDailyTotal(dateFormat.get().format(calendar.getTime())));
             }
+            dailyTotals.put(account, accountDailyTotals);
         }
-        dailyCosts.sort((o1, o2) -> Double.compare(o2, o1));
-        return ScaleChecker.checkScale(dailyCosts.get(0));
+        return dailyTotals;
     }
 
     private List<String> getXAxisLabels() {
         List<String> labels = new ArrayList<>();
 
-        for (Calendar day : daysBack) {
-            String date = dateFormat.format(day.getTime());
-            if (!labels.contains(date)) {
-                labels.add(date.substring(8, 10));
-            }
+        for (Calendar period : daysBack) {
+            labels.add(reportWindow.getAxisLabel(period));
         }
         return labels;
     }
@@ -192,13 +355,13 @@ public class SpendPerEmployeeByAccount implements Service {
             Resource resource = account.getResources().get(dao.productName);
             Calendar date = Calendar.getInstance();
             try {
-                date.setTime(dateFormat.parse(dao.startDate));
+                date.setTime(dateFormat.get().parse(dao.startDate));
             } catch (ParseException e) {
                 e.printStackTrace();
             }
 
             Day day = new Day(date, dao.cost);
-            resource.getDays().put(dateFormat.format(day.getDate().getTime()), day);
+            resource.getDays().put(dateFormat.get().format(day.getDate().getTime()), day);
         }
         log.trace("Done mapping objects");
         return users;
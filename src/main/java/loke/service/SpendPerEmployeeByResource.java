@@ -1,156 +1,302 @@
 package loke.service;
 
-import com.googlecode.charts4j.*;
 import loke.aws.db.AthenaClient;
 import loke.aws.db.JdbcManager;
+import loke.chart.ChartRenderer;
+import loke.chart.Downsampler;
+import loke.chart.GoogleChartRenderer;
+import loke.chart.LineChartSpec;
 import loke.model.Report;
+import loke.model.SpendFingerprint;
+import loke.render.CostRow;
+import loke.render.SpendByResourceTable;
 import loke.utils.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
 
+import java.io.IOException;
 import java.io.StringWriter;
-import java.text.DecimalFormat;
+import java.io.Writer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
 public class SpendPerEmployeeByResource implements Service {
     private static final Logger log = LogManager.getLogger(SpendPerEmployeeByResource.class);
-    private SimpleDateFormat layoutDateFormat = new SimpleDateFormat("MMM dd, YYYY", Locale.US);
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-    private List<Calendar> daysBack = CalendarGenerator.getDaysBack(30);
-    private DecimalFormat costFormatter = DecimalFormatFactory.create(2);
+    private ThreadLocal<SimpleDateFormat> layoutDateFormat =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("MMM dd, YYYY", Locale.US));
+    private ThreadLocal<SimpleDateFormat> dateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd"));
+    private ThreadLocal<SimpleDateFormat> hourFormat =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"));
+    private ReportWindow reportWindow;
+    private List<Calendar> daysBack;
+    private CostFormatter costFormatter = new CostFormatter(2);
     private AthenaClient athenaClient;
     private String sqlQuery;
-    private ColorPicker colorPicker;
     private String userOwnerRegExp;
     private double generateReportThreshold;
+    private Map<String, User> users = new HashMap<>();
+    private boolean precompiledTemplates;
+    private int maxResources;
+    private ChartRenderer chartRenderer = new GoogleChartRenderer();
+    private int chartMaxPoints;
 
     public SpendPerEmployeeByResource(AthenaClient athenaClient, String userOwnerRegExp, double generateReportThreshold,
-                                      ColorPicker colorPicker, SqlConfigInjector configInjector) {
+                                      SqlConfigInjector configInjector) {
         this.athenaClient = athenaClient;
         this.userOwnerRegExp = userOwnerRegExp;
         this.generateReportThreshold = generateReportThreshold;
-        this.colorPicker = colorPicker;
         this.sqlQuery = configInjector.injectSqlConfig(ResourceLoader.getResource("sql/SpendPerEmployeeByResource.sql"));
+        this.reportWindow = configInjector.getReportWindow();
+        this.daysBack = reportWindow.getPeriods();
     }
 
     @Override
     public List<Report> getReports() {
-        Map<String, User> users = sendRequest();
+        fetchData();
         return generateReports(users);
     }
 
+    @Override
+    public void fetchData() {
+        this.users = sendRequest();
+        if (maxResources > 0) {
+            for (User user : users.values()) {
+                limitResources(user);
+            }
+        }
+    }
+
+    /**
+     * Keeps the maxResources most expensive resources of each user and rolls the rest into an Other row, so that the
+     * chart and table stay readable for users with spend in many services. 0 keeps every resource.
+     */
+    public void setMaxResources(int maxResources) {
+        this.maxResources = maxResources;
+    }
+
+    private void limitResources(User user) {
+        TopK<Resource> topK = new TopK<>(maxResources);
+        List<Resource> dropped = new ArrayList<>();
+        for (Resource resource : user.getResources().values()) {
+            Resource droppedResource = topK.offer(resource, resource.getResourceTotal());
+            if (droppedResource != null) {
+                dropped.add(droppedResource);
+            }
+        }
+        if (dropped.isEmpty()) {
+            return;
+        }
+        Resource other = new Resource("Other (" + dropped.size() + " services)");
+        List<CompressedTimeSeries> droppedHours = new ArrayList<>();
+        for (Resource resource : dropped) {
+            droppedHours.add(resource.getHours());
+            for (Map.Entry<String, Day> entry : resource.getDays().entrySet()) {
+                Day otherDay = other.getDay(entry.getKey());
+                double cost = (otherDay != null) ? otherDay.getDailyCost() : 0.0;
+                other.addDay(entry.getKey(), new Day(entry.getValue().getDate(), cost + entry.getValue().getDailyCost()));
+            }
+        }
+        other.setHours(CompressedTimeSeries.sum(droppedHours));
+        log.info("Rolled {} of {} resources into: {} for: {}", dropped.size(), user.getResources().size(),
+                other.getResourceName(), user.getUserName());
+        user.getResources().clear();
+        for (Resource resource : topK.getTop()) {
+            user.addResource(resource);
+        }
+        user.addResource(other);
+    }
+
+    @Override
+    public List<String> getOwners() {
+        return new ArrayList<>(users.keySet());
+    }
+
+    @Override
+    public Report getReport(String owner) {
+        User user = users.get(owner);
+        if (user == null) {
+            return null;
+        }
+        if (user.calculateTotalCost() < generateReportThreshold) {
+            log.info("User: {} fell beneith the account threshold of: {}. Account total: {}", user.getUserName(),
+                    generateReportThreshold, user.calculateTotalCost());
+            return null;
+        }
+        return generateReport(user);
+    }
+
+    @Override
+    public void addToFingerprint(String owner, SpendFingerprint fingerprint) {
+        User user = users.get(owner);
+        if (user == null) {
+            return;
+        }
+        for (Resource resource : user.getResources().values()) {
+            fingerprint.addRow("resource:" + resource.getResourceName());
+            fingerprint.addCost(resource.getResourceTotal());
+        }
+    }
+
     private List<Report> generateReports(Map<String, User> users) {
-        log.info("Generating reports for spend per user listed by resource the last {} days", daysBack.size());
+        log.info("Generating reports for spend per user listed by resource the last {} days", reportWindow.getDays());
         List<Report> reports = new ArrayList<>();
         for (User user : users.values()) {
-            if (user.calculateTotalCost() < generateReportThreshold) {
-                log.info("User: {} fell beneith the account threshold of: {}. Account total: {}", user.getUserName(),
-                        generateReportThreshold, user.calculateTotalCost());
-                continue;
+            Report report = getReport(user.getUserName());
+            if (report != null) {
+                reports.add(report);
             }
-            Report report = new Report(user.getUserName());
-            report.setChartUrl(generateChartUrl(user));
-            report.setHtmlTable(generateHTMLTable(user));
-            reports.add(report);
-            log.info("Report generated for: {}", user.getUserName());
         }
         log.info("Reports generated: {}", reports.size());
         return reports;
     }
 
+    private Report generateReport(User user) {
+        Report report = new Report(user.getUserName());
+        report.setChartUrl(generateChartUrl(user));
+        report.setHtmlTable(generateHTMLTable(user));
+        log.info("Report generated for: {}", user.getUserName());
+        return report;
+    }
+
     private String generateChartUrl(User user) {
-        colorPicker.resetColor();
-        ScaleChecker.Scale scale = checkScale(user);
+        ColorPicker colorPicker = new ColorPicker();
+        Map<Resource, List<Double>> dailyCosts = getChartDailyCosts(user);
         List<String> xAxisLabels = getXAxisLabels();
-        List<Line> lineChartPlots = createPlots(user, scale);
-        LineChart chart = GCharts.newLineChart(lineChartPlots);
+
+        // Every line keeps the same points, so that they are all drawn at the dates of the labels
+        int[] kept = Downsampler.selectIndices(Downsampler.sum(dailyCosts.values()),
+                reportWindow.getChartMaxPoints(chartMaxPoints));
+        dailyCosts.replaceAll((resource, costs) -> Downsampler.select(costs, kept));
+        if (!reportWindow.isHourly()) {
+            xAxisLabels = Downsampler.select(xAxisLabels, kept);
+        }
+        ScaleChecker.Scale scale = ScaleChecker.checkScale(dailyCosts.values());
+        LineChartSpec chart = new LineChartSpec(createPlots(dailyCosts, scale, colorPicker));
         configureChart(xAxisLabels, chart, user, scale);
-        return chart.toURLString();
+        return chartRenderer.render(chart);
     }
 
     private String generateHTMLTable(User user) {
-        VelocityEngine velocityEngine = new VelocityEngine();
-        Properties p = new Properties();
-        p.setProperty("resource.loader", "class");
-        p.setProperty("class.resource.loader.class", "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
-        velocityEngine.init(p);
+        StringWriter stringWriter = new StringWriter();
+        writeHTMLTable(user, stringWriter);
+        return stringWriter.toString();
+    }
 
+    private void writeHTMLTable(User user, Writer writer) {
+        if (precompiledTemplates) {
+            writePrecompiledHTMLTable(user, writer);
+            return;
+        }
         VelocityContext context = new VelocityContext();
         context.put("dates", daysBack);
+        context.put("days", reportWindow.getDays());
         context.put("user", user);
         context.put("colspan", daysBack.size() + 2);
-        context.put("simpleDateForamt", layoutDateFormat);
-        context.put("dateFormat", dateFormat);
+        context.put("simpleDateForamt", layoutDateFormat.get());
+        context.put("dateFormat", dateFormat.get());
         context.put("costFormat", costFormatter);
 
-        Template template = velocityEngine.getTemplate("templates/spendperemployeebyresource.vm");
-
-        StringWriter stringWriter = new StringWriter();
-        template.merge(context, stringWriter);
-
-        return stringWriter.toString();
+        TemplateRenderer.getInstance().merge("templates/spendperemployeebyresource.vm", context, writer);
     }
 
-    private ScaleChecker.Scale checkScale(User user) {
-        List<Double> dailyCosts = new ArrayList<>();
+    private void writePrecompiledHTMLTable(User user, Writer writer) {
+        List<String> dates = new ArrayList<>();
+        List<String> dateLabels = new ArrayList<>();
+        for (Calendar day : daysBack) {
+            dates.add(dateFormat.get().format(day.getTime()));
+            dateLabels.add(layoutDateFormat.get().format(day.getTime()));
+        }
 
-        for (Calendar calendar : daysBack) {
-            for (Resource resource : user.getResources().values()) {
-                Day day = resource.getDays().get(dateFormat.format(calendar.getTime()));
-                if (day != null) {
-                    dailyCosts.add(day.getDailyCost());
-                } else {
-                    dailyCosts.add(0.0);
-                }
+        List<CostRow> rows = new ArrayList<>();
+        for (Resource resource : user.getResources().values()) {
+            double[] dailyCosts = new double[dates.size()];
+            for (int i = 0; i < dates.size(); i++) {
+                Day day = resource.getDay(dates.get(i));
+                dailyCosts[i] = (day != null) ? day.getDailyCost() : Double.NaN;
             }
+            rows.add(new CostRow(resource.getResourceName(), dailyCosts, resource.getResourceTotal()));
+        }
+
+        try {
+            SpendByResourceTable.render(user.getUserName(), reportWindow.getDays(), dateLabels, rows,
+                    user.calculateTotalCost(), costFormatter, writer);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to render the resource table for: " + user.getUserName(), e);
         }
+    }
+
+    /**
+     * Renders the table with the Java version of the template instead of Velocity. Both produce the same html.
+     */
+    public void setPrecompiledTemplates(boolean precompiledTemplates) {
+        this.precompiledTemplates = precompiledTemplates;
+    }
+
+    /**
+     * Renders the charts, by default as Google Chart urls.
+     */
+    public void setChartRenderer(ChartRenderer chartRenderer) {
+        this.chartRenderer = chartRenderer;
+    }
+
+    /**
+     * Downsamples the lines of the chart to at most chartMaxPoints points. 0 draws every day, and a few points per
+     * day when the report window is hourly.
+     */
+    public void setChartMaxPoints(int chartMaxPoints) {
+        this.chartMaxPoints = chartMaxPoints;
+    }
 
-        dailyCosts.sort((o1, o2) -> Double.compare(o2, o1));
-        return ScaleChecker.checkScale(dailyCosts.get(0));
+    private Map<Resource, List<Double>> getChartDailyCosts(User user) {
+        Map<Resource, List<Double>> dailyCosts = new LinkedHashMap<>();
+        for (Resource resource : user.getResources().values()) {
+            List<Double> costs = reportWindow.isHourly() ? reportWindow.getHourlyValues(resource.getHours())
+                    : getDailyCosts(resource);
+            dailyCosts.put(resource, costs);
+        }
+        return dailyCosts;
     }
 
     private List<String> getXAxisLabels() {
         List<String> labels = new ArrayList<>();
 
-        for (Calendar day : daysBack) {
-            String date = dateFormat.format(day.getTime());
-            if (!labels.contains(date)) {
-                labels.add(date.substring(8, 10));
-            }
+        for (Calendar period : daysBack) {
+            labels.add(reportWindow.getAxisLabel(period));
         }
         return labels;
     }
 
-    private void configureChart(List<String> daysXAxisLabels, LineChart chart, User user, ScaleChecker.Scale scale) {
+    private void configureChart(List<String> daysXAxisLabels, LineChartSpec chart, User user,
+                                ScaleChecker.Scale scale) {
         int chartWidth = 1000;
         int chartHeight = 300;
-        chart.addYAxisLabels(AxisLabelsFactory.newNumericAxisLabels(scale.getyAxisLabels()));
-        chart.addXAxisLabels(AxisLabelsFactory.newAxisLabels(daysXAxisLabels));
-        chart.addYAxisLabels(AxisLabelsFactory.newAxisLabels("Cost in " + scale.getSuffix(), 50));
+        chart.setYAxisLabels(scale.getyAxisLabels());
+        chart.setXAxisLabels(daysXAxisLabels);
+        chart.setYAxisTitle("Cost in " + scale.getSuffix());
 
-        chart.addXAxisLabels(AxisLabelsFactory.newAxisLabels("Day", 50));
+        chart.setXAxisTitle(reportWindow.getAxisTitle());
         chart.setSize(chartWidth, chartHeight);
         chart.setTitle("Total spend for "
                 + user.getUserName()
                 + " the past "
-                + daysBack.size()
+                + reportWindow.getDays()
                 + " days "
                 + costFormatter.format(user.calculateTotalCost())
                 + " USD");
     }
 
-    private List<Line> createPlots(User user, ScaleChecker.Scale scale) {
-        List<Line> plots = new ArrayList<>();
-        for (Resource resource : user.getResources().values()) {
-            List<Double> lineSizeValues = getLineSize(resource, scale);
+    private List<LineChartSpec.Series> createPlots(Map<Resource, List<Double>> dailyCosts, ScaleChecker.Scale scale,
+                                                   ColorPicker colorPicker) {
+        List<LineChartSpec.Series> plots = new ArrayList<>();
+        for (Map.Entry<Resource, List<Double>> entry : dailyCosts.entrySet()) {
+            Resource resource = entry.getKey();
+            List<Double> lineSizeValues = getLineSize(entry.getValue(), scale);
             double total = getResourceTotal(resource);
-            Line lineChartPlot = Plots.newLine(Data.newData(lineSizeValues),colorPicker.getNextColor(),
-                    resource.getResourceName() + " " + costFormatter.format(total));
+            LineChartSpec.Series lineChartPlot = new LineChartSpec.Series(
+                    resource.getResourceName() + " " + costFormatter.format(total), colorPicker.getNextColor(),
+                    lineSizeValues);
             plots.add(0, lineChartPlot);
         }
         return plots;
@@ -164,9 +310,9 @@ public class SpendPerEmployeeByResource implements Service {
         return total;
     }
 
-    private List<Double> getLineSize(Resource resource, ScaleChecker.Scale scale) {
+    private List<Double> getLineSize(List<Double> dailyCosts, ScaleChecker.Scale scale) {
         List<Double> lineSizeValues = new ArrayList<>();
-        for (Double cost : getDailyCosts(resource)) {
+        for (Double cost : dailyCosts) {
             lineSizeValues.add(cost / scale.getDivideBy());
         }
         return lineSizeValues;
@@ -175,11 +321,11 @@ public class SpendPerEmployeeByResource implements Service {
     private List<Double> getDailyCosts(Resource resource) {
         List<Double> data = new ArrayList<>();
         for (Calendar calendar : daysBack) {
-            Day day = resource.getDays().get(dateFormat.format(calendar.getTime()));
+            Day day = resource.getDays().get(dateFormat.get().format(calendar.getTime()));
             if (day == null) {
                 data.add(0.0);
             } else {
-                data.add(resource.getDays().get(dateFormat.format(calendar.getTime())).getDailyCost());
+                data.add(resource.getDays().get(dateFormat.get().format(calendar.getTime())).getDailyCost());
             }
         }
         return data;
@@ -205,20 +351,40 @@ public class SpendPerEmployeeByResource implements Service {
             if (!users.get(userName).getResources().containsKey(productName)) {
                 users.get(userName).addResource(new Resource(productName));
             }
+            if (reportWindow.isHourly()) {
+                addHour(users.get(userName).getResources().get(productName), startDate, dao.cost);
+                continue;
+            }
 
             Calendar date = Calendar.getInstance();
             try {
-                date.setTime(dateFormat.parse(startDate));
+                date.setTime(dateFormat.get().parse(startDate));
             } catch (ParseException e) {
                 e.printStackTrace();
             }
             Day day = new Day(date, dao.cost);
-            users.get(userName).getResources().get(productName).addDay(dateFormat.format(day.getDate().getTime()), day);
+            users.get(userName).getResources().get(productName).addDay(dateFormat.get().format(day.getDate().getTime()), day);
         }
         log.trace("Done mapping objects");
         return users;
     }
 
+    /**
+     * Appends the cost to the hourly series of the resource and adds it to the cost of the day.
+     */
+    private void addHour(Resource resource, String startDate, double cost) {
+        Calendar hour = Calendar.getInstance();
+        try {
+            hour.setTime(hourFormat.get().parse(startDate));
+        } catch (ParseException e) {
+            throw new RuntimeException("Could not parse the hour: " + startDate, e);
+        }
+        resource.getHours().append(hour.getTimeInMillis(), cost);
+        String key = dateFormat.get().format(hour.getTime());
+        Day day = resource.getDay(key);
+        resource.addDay(key, new Day(hour, ((day != null) ? day.getDailyCost() : 0.0) + cost));
+    }
+
     public static class SpendPerEmployeeByResourceDao {
         @JdbcManager.Column(value = "user_owner")
         public String userOwner;
@@ -265,6 +431,7 @@ public class SpendPerEmployeeByResource implements Service {
     public class Resource {
         private String resourceName;
         private HashMap<String, Day> days;
+        private CompressedTimeSeries hours = new CompressedTimeSeries();
 
         public Resource(String resourceName) {
             this.resourceName = resourceName;
@@ -287,6 +454,17 @@ public class SpendPerEmployeeByResource implements Service {
             return days;
         }
 
+        /**
+         * @return the cost per hour, empty unless the report window is hourly
+         */
+        public CompressedTimeSeries getHours() {
+            return hours;
+        }
+
+        public void setHours(CompressedTimeSeries hours) {
+            this.hours = hours;
+        }
+
         public double getResourceTotal() {
             double total = 0;
             for (Day day : days.values()) {
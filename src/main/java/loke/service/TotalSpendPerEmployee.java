@@ -1,123 +1,228 @@
 package loke.service;
 
-import com.googlecode.charts4j.*;
 import loke.aws.db.AthenaClient;
 import loke.aws.db.JdbcManager;
+import loke.chart.ChartRenderer;
+import loke.chart.Downsampler;
+import loke.chart.GoogleChartRenderer;
+import loke.chart.LineChartSpec;
+import loke.model.OwnerSpend;
 import loke.model.Report;
 import loke.model.TotalReport;
 import loke.utils.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
 public class TotalSpendPerEmployee implements Service {
     private static final Logger log = LogManager.getLogger(TotalSpendPerEmployee.class);
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-    private List<Calendar> daysBack = CalendarGenerator.getDaysBack(30);
-    private DecimalFormat costFormatter = DecimalFormatFactory.create(2);
+    private ThreadLocal<SimpleDateFormat> dateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd"));
+    private ThreadLocal<SimpleDateFormat> hourFormat =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"));
+    private ReportWindow reportWindow;
+    private List<Calendar> daysBack;
+    private CostFormatter costFormatter = new CostFormatter(2);
     private AthenaClient athenaClient;
     private String sqlQuery;
-    private ColorPicker colorPicker;
     private String userOwnerRegExp;
     private double generateReportThreshold;
+    private Map<String, User> users = new HashMap<>();
+    private ChartRenderer chartRenderer = new GoogleChartRenderer();
+    private int chartMaxPoints;
 
     public TotalSpendPerEmployee(AthenaClient athenaClient, String userOwnerRegExp, double generateReportThreshold,
-                                 ColorPicker colorPicker, SqlConfigInjector configInjector) {
+                                 SqlConfigInjector configInjector) {
         this.athenaClient = athenaClient;
         this.userOwnerRegExp = userOwnerRegExp;
         this.generateReportThreshold = generateReportThreshold;
-        this.colorPicker = colorPicker;
         this.sqlQuery = configInjector.injectSqlConfig(ResourceLoader.getResource("sql/TotalSpendPerEmployee.sql"));
+        this.reportWindow = configInjector.getReportWindow();
+        this.daysBack = reportWindow.getPeriods();
     }
 
 
     @Override
     public List<Report> getReports() {
-        Map<String, User> users = sendRequest();
+        fetchData();
         return generateReports(users);
     }
 
+    @Override
+    public void fetchData() {
+        this.users = sendRequest();
+    }
+
+    @Override
+    public List<String> getOwners() {
+        return new ArrayList<>(users.keySet());
+    }
+
+    @Override
+    public Report getReport(String owner) {
+        User user = users.get(owner);
+        if (user == null) {
+            return null;
+        }
+        if (user.calculateTotalCost() < generateReportThreshold) {
+            log.info("User: {} fell beneith the account threshold of: {}. Account total: {}", user.getUserName(),
+                    generateReportThreshold, user.calculateTotalCost());
+            return null;
+        }
+        return generateReport(user);
+    }
+
+    /**
+     * @return the spend of every owner above the threshold, from the fetched data
+     */
+    public List<OwnerSpend> getOwnerSpends() {
+        List<OwnerSpend> ownerSpends = new ArrayList<>();
+        for (User user : users.values()) {
+            double total = user.calculateTotalCost();
+            if (total >= generateReportThreshold) {
+                ownerSpends.add(new OwnerSpend(user.getUserName(), total, getComparisonTotal(user, 1),
+                        getComparisonTotal(user, 2)));
+            }
+        }
+        return ownerSpends;
+    }
+
+    /**
+     * @return a chart of the summed spend of every owner
+     */
+    public Report getOrganizationReport(String name) {
+        User organization = new User(name);
+        List<CompressedTimeSeries> hours = new ArrayList<>();
+        for (User user : users.values()) {
+            hours.add(user.getHours());
+            for (Map.Entry<String, Day> entry : user.getDays().entrySet()) {
+                Day day = organization.getDays().get(entry.getKey());
+                double cost = (day != null) ? day.getDailyCost() : 0.0;
+                organization.addDay(entry.getKey(), new Day(entry.getValue().getDate(),
+                        cost + entry.getValue().getDailyCost()));
+            }
+        }
+        organization.setHours(CompressedTimeSeries.sum(hours));
+        return generateReport(organization);
+    }
+
+    public ReportWindow getReportWindow() {
+        return reportWindow;
+    }
+
+    /**
+     * Renders the charts, by default as Google Chart urls.
+     */
+    public void setChartRenderer(ChartRenderer chartRenderer) {
+        this.chartRenderer = chartRenderer;
+    }
+
+    /**
+     * Downsamples each line of the chart to at most chartMaxPoints points. 0 draws every day, and a few points per
+     * day when the report window is hourly.
+     */
+    public void setChartMaxPoints(int chartMaxPoints) {
+        this.chartMaxPoints = chartMaxPoints;
+    }
+
+    /**
+     * @param periodsBack 1 for the last week of the window, or the last month when the window is rolled up into
+     *                    months, 2 for the one before that
+     */
+    private double getComparisonTotal(User user, int periodsBack) {
+        double total = 0;
+        int periods = reportWindow.getPeriodsPerComparison();
+        int end = daysBack.size() - (periodsBack - 1) * periods;
+        for (int i = Math.max(0, end - periods); i < end; i++) {
+            Day day = user.getDays().get(dateFormat.get().format(daysBack.get(i).getTime()));
+            if (day != null) {
+                total += day.getDailyCost();
+            }
+        }
+        return total;
+    }
+
     private List<Report> generateReports(Map<String, User> users) {
-        log.info("Generating reports for total spend per user the last {} days", daysBack.size());
+        log.info("Generating reports for total spend per user the last {} days", reportWindow.getDays());
         List<Report> reports = new ArrayList<>();
         for (User user : users.values()) {
-            if (user.calculateTotalCost() < generateReportThreshold) {
-                log.info("User: {} fell beneith the account threshold of: {}. Account total: {}",
-                        user.getUserName(), generateReportThreshold, user.calculateTotalCost());
-                continue;
+            Report report = getReport(user.getUserName());
+            if (report != null) {
+                reports.add(report);
             }
-            colorPicker.resetColor();
-            ScaleChecker.Scale scale = checkScale(user);
-            List<String> xAxisLabels = getXAxisLabels();
-            List<Line> lineChartPlots = createPlots(user, scale);
-            LineChart chart = GCharts.newLineChart(lineChartPlots);
-            configureChart(xAxisLabels, chart, user, scale);
-            Report report = new TotalReport(user.getUserName());
-            report.setChartUrl(chart.toURLString());
-            reports.add(report);
-            log.info("Report generated for: {}", user.getUserName());
         }
         log.info("Reports generated: {}", reports.size());
         return reports;
     }
 
-    private ScaleChecker.Scale checkScale(User user) {
-        List<Double> dailyCosts = new ArrayList<>();
+    private Report generateReport(User user) {
+        ColorPicker colorPicker = new ColorPicker();
+        List<Double> costs = reportWindow.isHourly() ? reportWindow.getHourlyValues(user.getHours())
+                : getDailyCosts(user);
+        int[] kept = Downsampler.selectIndices(costs, reportWindow.getChartMaxPoints(chartMaxPoints));
+        List<Double> dailyCosts = Downsampler.select(costs, kept);
+        ScaleChecker.Scale scale = ScaleChecker.checkScale(Collections.singletonList(dailyCosts));
+        List<String> xAxisLabels = reportWindow.isHourly() ? getXAxisLabels()
+                : Downsampler.select(getXAxisLabels(), kept);
+        LineChartSpec chart = new LineChartSpec(createPlots(dailyCosts, scale, colorPicker));
+        configureChart(xAxisLabels, chart, user, scale);
+        Report report = new TotalReport(user.getUserName());
+        report.setChartUrl(chartRenderer.render(chart));
+        log.info("Report generated for: {}", user.getUserName());
+        return report;
+    }
 
+    private List<Double> getDailyCosts(User user) {
+        List<Double> dailyCosts = new ArrayList<>();
         for (Calendar calendar : daysBack) {
-            Day day = user.getDays().get(dateFormat.format(calendar.getTime()));
+            Day day = user.getDays().get(dateFormat.get().format(calendar.getTime()));
             dailyCosts.add((day == null) ? 0.0 : day.getDailyCost());
         }
-
-        dailyCosts.sort((o1, o2) -> Double.compare(o2, o1));
-        return ScaleChecker.checkScale(dailyCosts.get(0));
+        return dailyCosts;
     }
 
     private List<String> getXAxisLabels() {
         List<String> labels = new ArrayList<>();
 
-        for (Calendar day : daysBack) {
-            String date = dateFormat.format(day.getTime());
-            if (!labels.contains(date)) {
-                labels.add(date.substring(8, 10));
-            }
+        for (Calendar period : daysBack) {
+            labels.add(reportWindow.getAxisLabel(period));
         }
         return labels;
     }
 
-    private void configureChart(List<String> daysXAxisLabels, LineChart chart, User user, ScaleChecker.Scale scale) {
+    private void configureChart(List<String> daysXAxisLabels, LineChartSpec chart, User user,
+                                ScaleChecker.Scale scale) {
         int chartWidth = 1000;
         int chartHeight = 300;
-        chart.addYAxisLabels(AxisLabelsFactory.newNumericAxisLabels(scale.getyAxisLabels()));
-        chart.addXAxisLabels(AxisLabelsFactory.newAxisLabels(daysXAxisLabels));
-        chart.addYAxisLabels(AxisLabelsFactory.newAxisLabels("Cost in " + scale.getSuffix(), 50));
-        chart.addXAxisLabels(AxisLabelsFactory.newAxisLabels("Day", 50));
+        chart.setYAxisLabels(scale.getyAxisLabels());
+        chart.setXAxisLabels(daysXAxisLabels);
+        chart.setYAxisTitle("Cost in " + scale.getSuffix());
+        chart.setXAxisTitle(reportWindow.getAxisTitle());
         chart.setSize(chartWidth, chartHeight);
         chart.setTitle("Total spend for "
                 + user.getUserName()
-                + " the past " + daysBack.size()
+                + " the past " + reportWindow.getDays()
                 + " days "
                 + costFormatter.format(user.calculateTotalCost())
                 + " USD");
     }
 
-    private List<Line> createPlots(User user, ScaleChecker.Scale scale) {
-        List<Line> plots = new ArrayList<>();
-        List<Double> lineSizeValues = getLineSize(user, scale);
-        Line lineChartPlot = Plots.newLine(Data.newData(lineSizeValues), colorPicker.getNextColor());
+    private List<LineChartSpec.Series> createPlots(List<Double> dailyCosts, ScaleChecker.Scale scale,
+                                                   ColorPicker colorPicker) {
+        List<LineChartSpec.Series> plots = new ArrayList<>();
+        List<Double> lineSizeValues = getLineSize(dailyCosts, scale);
+        LineChartSpec.Series lineChartPlot = new LineChartSpec.Series(null, colorPicker.getNextColor(),
+                lineSizeValues);
         plots.add(0, lineChartPlot);
         return plots;
     }
 
-    private List<Double> getLineSize(User user, ScaleChecker.Scale scale) {
+    private List<Double> getLineSize(List<Double> dailyCosts, ScaleChecker.Scale scale) {
         List<Double> lineSizeValues = new ArrayList<>();
-        for (Calendar calendar : daysBack) {
-            Day day = user.getDays().get(dateFormat.format(calendar.getTime()));
-            lineSizeValues.add((day != null) ? day.getDailyCost() / scale.getDivideBy() : 0);
+        for (Double cost : dailyCosts) {
+            lineSizeValues.add(cost / scale.getDivideBy());
         }
         return lineSizeValues;
     }
@@ -138,20 +243,40 @@ public class TotalSpendPerEmployee implements Service {
             if (!users.containsKey(userName)) {
                 users.put(userName, new User(userName));
             }
+            if (reportWindow.isHourly()) {
+                addHour(users.get(userName), startDate, dao.cost);
+                continue;
+            }
 
             Calendar date = Calendar.getInstance();
             try {
-                date.setTime(dateFormat.parse(startDate));
+                date.setTime(dateFormat.get().parse(startDate));
             } catch (ParseException e) {
                 e.printStackTrace();
             }
             Day day = new Day(date, dao.cost);
-            users.get(userName).addDay(dateFormat.format(day.getDate().getTime()), day);
+            users.get(userName).addDay(dateFormat.get().format(day.getDate().getTime()), day);
         }
         log.trace("Done mapping objects");
         return users;
     }
 
+    /**
+     * Appends the cost to the hourly series of the user and adds it to the cost of the day.
+     */
+    private void addHour(User user, String startDate, double cost) {
+        Calendar hour = Calendar.getInstance();
+        try {
+            hour.setTime(hourFormat.get().parse(startDate));
+        } catch (ParseException e) {
+            throw new RuntimeException("Could not parse the hour: " + startDate, e);
+        }
+        user.getHours().append(hour.getTimeInMillis(), cost);
+        String key = dateFormat.get().format(hour.getTime());
+        Day day = user.getDays().get(key);
+        user.addDay(key, new Day(hour, ((day != null) ? day.getDailyCost() : 0.0) + cost));
+    }
+
     public static class TotalSpendPerEmployeeDao {
         @JdbcManager.Column(value = "user_owner")
         public String userOwner;
@@ -165,6 +290,7 @@ public class TotalSpendPerEmployee implements Service {
     private class User {
         private String userName;
         private Map<String, Day> days;
+        private CompressedTimeSeries hours = new CompressedTimeSeries();
 
         public User(String userName) {
             this.userName = userName;
@@ -179,6 +305,17 @@ public class TotalSpendPerEmployee implements Service {
             return days;
         }
 
+        /**
+         * @return the cost per hour, empty unless the report window is hourly
+         */
+        public CompressedTimeSeries getHours() {
+            return hours;
+        }
+
+        public void setHours(CompressedTimeSeries hours) {
+            this.hours = hours;
+        }
+
         public double calculateTotalCost() {
             double totalCost = 0;
             for (Day day : days.values()) {
@@ -0,0 +1,31 @@
+package loke.site;
+
+import loke.utils.DurableFiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class LocalSiteStorage implements SiteStorage {
+    private Path directory;
+
+    public LocalSiteStorage(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return Files.exists(directory.resolve(path));
+    }
+
+    @Override
+    public void write(String path, byte[] content) {
+        Path file = directory.resolve(path);
+        try {
+            Files.createDirectories(file.getParent());
+            DurableFiles.replace(file, content);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write the page: " + file, e);
+        }
+    }
+}
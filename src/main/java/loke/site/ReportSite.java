@@ -0,0 +1,135 @@
+package loke.site;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Static html pages with the full report of each owner, so the emails only have to carry a summary and a link. The
+ * name of a page holds a hash of its content, so a page that has not changed since an earlier run is neither written
+ * again nor linked under a new url. An index page links to the pages published in the run. It is written under a random
+ * path, as the pages can only be found by those who are sent their url, and its url is only sent to the admins.
+ */
+public class ReportSite {
+    private static final Logger log = LogManager.getLogger(ReportSite.class);
+    private static final String REPORT_DIRECTORY = "reports/";
+    private static final String INDEX_DIRECTORY = "admin/";
+    private static final String INDEX_PAGE = "/index.html";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private SiteStorage storage;
+    private String baseUrl;
+    private Map<String, String> pages = new TreeMap<>();
+    private int written;
+    private int unchanged;
+
+    /**
+     * @param baseUrl the url the storage is served from, the links in the emails are relative to it
+     */
+    public ReportSite(SiteStorage storage, String baseUrl) {
+        this.storage = storage;
+        this.baseUrl = (baseUrl == null || baseUrl.endsWith("/")) ? text(baseUrl) : baseUrl + "/";
+    }
+
+    /**
+     * @return the url of the page
+     */
+    public String publish(String owner, String htmlBody) {
+        byte[] page = createPage("AWS cost report for " + owner, htmlBody).getBytes(StandardCharsets.UTF_8);
+        String path = REPORT_DIRECTORY + toFileName(owner) + "-" + hash(page).substring(0, 16) + ".html";
+        boolean exists = storage.exists(path);
+        if (!exists) {
+            storage.write(path, page);
+        }
+        synchronized (this) {
+            pages.put(owner, path);
+            if (exists) {
+                unchanged++;
+            } else {
+                written++;
+            }
+        }
+        log.info("Report for: {} published to: {}{}", owner, path, exists ? ", unchanged" : "");
+        return baseUrl + path;
+    }
+
+    /**
+     * Writes the index page with a link to every page published so far, under admin/ and a random directory of its
+     * own, so that the url of a report page does not lead to the others. Only send the url to the admins.
+     *
+     * @return the url of the index page
+     */
+    public synchronized String writeIndex() {
+        StringBuilder body = new StringBuilder("<h4>AWS cost reports</h4>\n<ul>\n");
+        for (Map.Entry<String, String> page : pages.entrySet()) {
+            body.append("<li><a href=\"../../").append(page.getValue()).append("\">").append(escape(page.getKey()))
+                    .append("</a></li>\n");
+        }
+        body.append("</ul>\n");
+        byte[] token = new byte[16];
+        RANDOM.nextBytes(token);
+        String path = INDEX_DIRECTORY + hex(token) + INDEX_PAGE;
+        storage.write(path, createPage("AWS cost reports", body.toString()).getBytes(StandardCharsets.UTF_8));
+        log.info("Report site index written with {} pages, {} written and {} unchanged", pages.size(), written,
+                unchanged);
+        return baseUrl + path;
+    }
+
+    private static String createPage(String title, String htmlBody) {
+        return "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>" + escape(title)
+                + "</title>\n</head>\n<body>\n" + htmlBody + "\n</body>\n</html>\n";
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String toFileName(String owner) {
+        return owner.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static String hash(byte[] content) {
+        try {
+            return hex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static String text(String value) {
+        return value != null ? value : "";
+    }
+}
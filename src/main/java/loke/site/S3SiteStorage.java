@@ -0,0 +1,32 @@
+package loke.site;
+
+import loke.aws.S3Handler;
+
+public class S3SiteStorage implements SiteStorage {
+    private static final String CONTENT_TYPE = "text/html; charset=UTF-8";
+    private S3Handler s3Handler;
+    private String bucket;
+    private String prefix;
+
+    /**
+     * @param location s3://bucket/prefix
+     */
+    public S3SiteStorage(S3Handler s3Handler, String location) {
+        this.s3Handler = s3Handler;
+        String path = location.substring("s3://".length());
+        int slash = path.indexOf('/');
+        this.bucket = (slash < 0) ? path : path.substring(0, slash);
+        String keyPrefix = (slash < 0) ? "" : path.substring(slash + 1);
+        this.prefix = keyPrefix.isEmpty() || keyPrefix.endsWith("/") ? keyPrefix : keyPrefix + "/";
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return s3Handler.exists(bucket, prefix + path);
+    }
+
+    @Override
+    public void write(String path, byte[] content) {
+        s3Handler.uploadBytes(bucket, prefix + path, content, CONTENT_TYPE);
+    }
+}
@@ -0,0 +1,11 @@
+package loke.site;
+
+/**
+ * Where the pages of the {@link ReportSite} are written, e.g. a local directory or an S3 prefix.
+ */
+public interface SiteStorage {
+
+    boolean exists(String path);
+
+    void write(String path, byte[] content);
+}
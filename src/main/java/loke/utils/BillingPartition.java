@@ -0,0 +1,80 @@
+package loke.utils;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The year and month partition of a billing file in a partitioned billing table. AWS writes one detailed billing file
+ * per month, named after it, so the month is the finest partition the files can be put in. Each file is uploaded
+ * under year=YYYY/month=MM/ in the table location.
+ */
+public class BillingPartition {
+    private static final Pattern FILE_MONTH = Pattern.compile("-(\\d{4})-(\\d{2})\\.csv");
+    private YearMonth month;
+
+    public BillingPartition(YearMonth month) {
+        this.month = month;
+    }
+
+    /**
+     * @param fileName the name of a billing file, e.g. 123-aws-billing-detailed-line-items-with-resources-and-tags-2017-09.csv.gz
+     */
+    public static BillingPartition fromFileName(String fileName) {
+        Matcher matcher = FILE_MONTH.matcher(fileName);
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("No billing month in the file name: " + fileName);
+        }
+        return new BillingPartition(YearMonth.of(Integer.parseInt(matcher.group(1)),
+                Integer.parseInt(matcher.group(2))));
+    }
+
+    /**
+     * @return the partitions of every month from the first to the last date
+     */
+    public static List<BillingPartition> between(LocalDate first, LocalDate last) {
+        List<BillingPartition> partitions = new ArrayList<>();
+        for (YearMonth month = YearMonth.from(first); !month.isAfter(YearMonth.from(last)); month = month.plusMonths(1)) {
+            partitions.add(new BillingPartition(month));
+        }
+        return partitions;
+    }
+
+    /**
+     * @return the predicate on the year and month columns that keeps the partitions, one IN list of months per year so
+     * that Athena can prune the other partitions
+     */
+    public static String toSqlPredicate(List<BillingPartition> partitions) {
+        Map<String, StringJoiner> monthsByYear = new LinkedHashMap<>();
+        for (BillingPartition partition : partitions) {
+            monthsByYear.computeIfAbsent(partition.getYear(), year -> new StringJoiner(", "))
+                    .add("'" + partition.getMonth() + "'");
+        }
+        StringJoiner predicate = new StringJoiner(" OR ", "(", ")");
+        for (Map.Entry<String, StringJoiner> year : monthsByYear.entrySet()) {
+            predicate.add("(year = '" + year.getKey() + "' AND month IN (" + year.getValue() + "))");
+        }
+        return predicate.toString();
+    }
+
+    public String getYear() {
+        return String.format("%04d", month.getYear());
+    }
+
+    public String getMonth() {
+        return String.format("%02d", month.getMonthValue());
+    }
+
+    /**
+     * @return the key prefix of the files of the partition in the table location
+     */
+    public String getKeyPrefix() {
+        return "year=" + getYear() + "/month=" + getMonth() + "/";
+    }
+}
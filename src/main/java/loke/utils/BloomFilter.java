@@ -0,0 +1,69 @@
+package loke.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Set of strings that can answer "not in the set" for certain and "maybe in the set" with about 1% false positives,
+ * using 10 bits per item. The bits can be stored and loaded again with {@link #getBits()}.
+ */
+public class BloomFilter {
+    private static final int BITS_PER_ITEM = 10;
+    private static final int HASH_COUNT = 7;
+    private long[] bits;
+    private int hashCount;
+
+    public BloomFilter(int expectedItems) {
+        this(new long[Math.max(1, (int) (((long) expectedItems * BITS_PER_ITEM + 63) / 64))], HASH_COUNT);
+    }
+
+    public BloomFilter(long[] bits, int hashCount) {
+        this.bits = bits;
+        this.hashCount = hashCount;
+    }
+
+    public void add(String item) {
+        long hash = hash(item);
+        long bitCount = bits.length * 64L;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(hash + i * (hash >>> 32 | 1), bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String item) {
+        long hash = hash(item);
+        long bitCount = bits.length * 64L;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(hash + i * (hash >>> 32 | 1), bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long[] getBits() {
+        return bits;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * FNV-1a of the UTF-8 bytes, mixed with the finalizer of MurmurHash3 so every bit depends on every byte.
+     */
+    private static long hash(String item) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : item.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
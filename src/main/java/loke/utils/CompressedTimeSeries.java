@@ -0,0 +1,195 @@
+package loke.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only series of (timestamp, value) points packed into a bit stream the way Gorilla does it. A timestamp is
+ * stored as the change of the delta to the one before it, so a regular series costs one bit per timestamp, and a value
+ * as the XOR with the one before it, so a repeated value costs one bit and a close one only its meaningful bits.
+ * An hourly series of a month takes at most a few KB, instead of the tens of KB of boxed timestamps and values.
+ */
+public class CompressedTimeSeries {
+    private long[] words = new long[4];
+    private int bitCount;
+    private int size;
+    private long lastTimestamp;
+    private long lastDelta;
+    private long lastValueBits;
+    private int lastLeadingZeros = Integer.MAX_VALUE;
+    private int lastTrailingZeros;
+
+    public interface PointConsumer {
+        void accept(long timestamp, double value);
+    }
+
+    /**
+     * @param timestamp must be greater than the timestamp of the point before it
+     */
+    public void append(long timestamp, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (size == 0) {
+            writeBits(timestamp, 64);
+            writeBits(valueBits, 64);
+        } else {
+            if (timestamp <= lastTimestamp) {
+                throw new IllegalArgumentException("Timestamps must be increasing: " + timestamp + " after "
+                        + lastTimestamp);
+            }
+            long delta = timestamp - lastTimestamp;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            writeValue(valueBits ^ lastValueBits);
+        }
+        lastTimestamp = timestamp;
+        lastValueBits = valueBits;
+        size++;
+    }
+
+    public void forEach(PointConsumer consumer) {
+        Reader reader = new Reader();
+        long timestamp = 0;
+        long delta = 0;
+        long valueBits = 0;
+        int leadingZeros = 0;
+        int trailingZeros = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0) {
+                timestamp = reader.read(64);
+                valueBits = reader.read(64);
+            } else {
+                delta += reader.readDeltaOfDelta();
+                timestamp += delta;
+                if (reader.read(1) == 1) {
+                    if (reader.read(1) == 1) {
+                        leadingZeros = (int) reader.read(5);
+                        int meaningfulBits = (int) reader.read(6);
+                        trailingZeros = 64 - leadingZeros - (meaningfulBits == 0 ? 64 : meaningfulBits);
+                    }
+                    valueBits ^= reader.read(64 - leadingZeros - trailingZeros) << trailingZeros;
+                }
+            }
+            consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the bytes the encoded points take up
+     */
+    public int getEncodedSize() {
+        return (bitCount + 7) / 8;
+    }
+
+    /**
+     * @return the point by point sum of the series, with the timestamps of all of them
+     */
+    public static CompressedTimeSeries sum(Iterable<CompressedTimeSeries> series) {
+        Map<Long, Double> sums = new TreeMap<>();
+        for (CompressedTimeSeries timeSeries : series) {
+            timeSeries.forEach((timestamp, value) -> sums.merge(timestamp, value, Double::sum));
+        }
+        CompressedTimeSeries sum = new CompressedTimeSeries();
+        for (Map.Entry<Long, Double> entry : sums.entrySet()) {
+            sum.append(entry.getKey(), entry.getValue());
+        }
+        return sum;
+    }
+
+    private void writeDeltaOfDelta(long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writeBits(0, 1);
+        } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            writeBits(0b10, 2);
+            writeBits(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            writeBits(0b110, 3);
+            writeBits(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            writeBits(0b1110, 4);
+            writeBits(deltaOfDelta, 12);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private void writeValue(long xor) {
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+        writeBits(1, 1);
+        int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailingZeros = Long.numberOfTrailingZeros(xor);
+        if (leadingZeros >= lastLeadingZeros && trailingZeros >= lastTrailingZeros) {
+            writeBits(0, 1);
+            writeBits(xor >>> lastTrailingZeros, 64 - lastLeadingZeros - lastTrailingZeros);
+            return;
+        }
+        int meaningfulBits = 64 - leadingZeros - trailingZeros;
+        writeBits(1, 1);
+        writeBits(leadingZeros, 5);
+        writeBits(meaningfulBits == 64 ? 0 : meaningfulBits, 6);
+        writeBits(xor >>> trailingZeros, meaningfulBits);
+        lastLeadingZeros = leadingZeros;
+        lastTrailingZeros = trailingZeros;
+    }
+
+    /**
+     * Writes the lowest bits of the value, most significant bit first.
+     */
+    private void writeBits(long value, int bits) {
+        if (bitCount + bits > words.length * 64) {
+            words = Arrays.copyOf(words, Math.max(words.length * 2, (bitCount + bits) / 64 + 1));
+        }
+        for (int i = bits - 1; i >= 0; i--) {
+            if (((value >>> i) & 1) == 1) {
+                words[bitCount >>> 6] |= 1L << (63 - (bitCount & 63));
+            }
+            bitCount++;
+        }
+    }
+
+    private class Reader {
+        private int position;
+
+        private long read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++) {
+                long bit = (words[position >>> 6] >>> (63 - (position & 63))) & 1;
+                value = (value << 1) | bit;
+                position++;
+            }
+            return value;
+        }
+
+        private long readDeltaOfDelta() {
+            if (read(1) == 0) {
+                return 0;
+            }
+            if (read(1) == 0) {
+                return signed(read(7), 7);
+            }
+            if (read(1) == 0) {
+                return signed(read(9), 9);
+            }
+            if (read(1) == 0) {
+                return signed(read(12), 12);
+            }
+            return read(64);
+        }
+
+        /**
+         * Values in the upper end of the range, e.g. 64 in 7 bits, are read back as positive.
+         */
+        private long signed(long value, int bits) {
+            long limit = 1L << (bits - 1);
+            return value > limit ? value - (1L << bits) : value;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package loke.utils;
+
+import java.io.IOException;
+
+/**
+ * Formats costs the same way as {@link DecimalFormatFactory#create(int)}: rounded towards positive infinity, at least
+ * two and at most max(decimals, 2) decimals, and a space as grouping separator. Unlike DecimalFormat it is thread safe
+ * and writes the digits straight into the output without creating any intermediate objects, so one instance can be
+ * shared by all the tables and charts.
+ */
+public class CostFormatter {
+    private static final int MIN_FRACTION_DIGITS = 2;
+    private static final double MAX_FAST_VALUE = 1e15;
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[64]);
+    private int fractionDigits;
+    private long scale;
+
+    public CostFormatter(int decimals) {
+        this.fractionDigits = Math.max(decimals, MIN_FRACTION_DIGITS);
+        this.scale = 1;
+        for (int i = 0; i < fractionDigits; i++) {
+            this.scale *= 10;
+        }
+    }
+
+    public String format(double value) {
+        if (!isFastPath(value)) {
+            return DecimalFormatFactory.create(fractionDigits).format(value);
+        }
+        char[] buffer = BUFFER.get();
+        return new String(buffer, 0, write(value, buffer));
+    }
+
+    public void format(double value, StringBuilder out) {
+        if (!isFastPath(value)) {
+            out.append(DecimalFormatFactory.create(fractionDigits).format(value));
+            return;
+        }
+        char[] buffer = BUFFER.get();
+        out.append(buffer, 0, write(value, buffer));
+    }
+
+    public void format(double value, Appendable out) throws IOException {
+        if (!isFastPath(value)) {
+            out.append(DecimalFormatFactory.create(fractionDigits).format(value));
+            return;
+        }
+        char[] buffer = BUFFER.get();
+        int length = write(value, buffer);
+        for (int i = 0; i < length; i++) {
+            out.append(buffer[i]);
+        }
+    }
+
+    private boolean isFastPath(double value) {
+        return Math.abs(value) * scale < MAX_FAST_VALUE;
+    }
+
+    private int write(double value, char[] buffer) {
+        long units = roundUp(value);
+        int position = 0;
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            buffer[position++] = '-';
+            units = -units;
+        }
+
+        long integerPart = units / scale;
+        long fraction = units % scale;
+        int fractionLength = fractionDigits;
+        while (fractionLength > MIN_FRACTION_DIGITS && fraction % 10 == 0) {
+            fraction /= 10;
+            fractionLength--;
+        }
+
+        position = writeInteger(integerPart, buffer, position);
+        buffer[position++] = '.';
+        for (int i = position + fractionLength - 1; i >= position; i--) {
+            buffer[i] = (char) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        return position + fractionLength;
+    }
+
+    /**
+     * DecimalFormat rounds the shortest decimal representation of the double. If that representation has no more
+     * decimals than we print it is returned as is, otherwise the result is the smallest number of units that is above
+     * the value. Values with no digits above the first decimal after the ones we print are dropped by DecimalFormat
+     * instead of being rounded.
+     */
+    private long roundUp(double value) {
+        if (Math.abs(value) < 1.0 / (scale * 10)) {
+            return 0;
+        }
+        double scaled = value * scale;
+        long units = Math.round(scaled);
+        if ((double) units / scale == value) {
+            return units;
+        }
+        units = (long) Math.floor(scaled) - 1;
+        while ((double) units / scale < value) {
+            units++;
+        }
+        return units;
+    }
+
+    private int writeInteger(long integerPart, char[] buffer, int position) {
+        int digits = 1;
+        for (long rest = integerPart / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int length = digits + (digits - 1) / 3;
+        int i = position + length - 1;
+        for (int written = 0; written < digits; written++) {
+            if (written > 0 && written % 3 == 0) {
+                buffer[i--] = ' ';
+            }
+            buffer[i--] = (char) ('0' + integerPart % 10);
+            integerPart /= 10;
+        }
+        return position + length;
+    }
+}
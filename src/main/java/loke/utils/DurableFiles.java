@@ -0,0 +1,73 @@
+package loke.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * File writes that survive a crash: the bytes are forced to disk before the methods return, and so is the directory
+ * entry of a file that is created or renamed.
+ */
+public class DurableFiles {
+
+    private DurableFiles() {
+    }
+
+    public static void append(Path path, byte[] bytes) throws IOException {
+        write(path, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Writes the bytes to a temporary file next to the path and renames it, so the file is either missing or
+     * complete.
+     */
+    public static void replace(Path path, byte[] bytes) throws IOException {
+        Path partial = path.resolveSibling(path.getFileName() + ".partial");
+        writeFile(partial, bytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(path);
+    }
+
+    public static void write(Path path, byte[] bytes, StandardOpenOption... options) throws IOException {
+        boolean created = !Files.exists(path);
+        writeFile(path, bytes, options);
+        if (created) {
+            forceDirectory(path);
+        }
+    }
+
+    private static void writeFile(Path path, byte[] bytes, StandardOpenOption... options) throws IOException {
+        Set<StandardOpenOption> openOptions = new HashSet<>();
+        openOptions.add(StandardOpenOption.WRITE);
+        for (StandardOpenOption option : options) {
+            openOptions.add(option);
+        }
+        try (FileChannel channel = FileChannel.open(path, openOptions)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces the directory holding the file to disk, so that a crash cannot lose the file after a rename or create.
+     * Windows cannot open a directory, so there the entry is left to the file system.
+     */
+    private static void forceDirectory(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        if (directory == null || System.getProperty("os.name", "").startsWith("Windows")) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package loke.utils;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The number of days the reports cover and the periods the spend is summed over. Up to 31 days every day is a period
+ * of its own, up to 184 days the days are rolled up into weeks starting on Monday and beyond that into calendar
+ * months, so a long window gives the queries, tables and charts about as many rows and points as a month does.
+ * The periods match date_trunc in the SQL, the first one may only be partly covered by the window. An hourly window
+ * fetches the spend per hour for the charts and still shows it per day in the tables. The rollups read the daily sums
+ * of the working table when there is one, see ReportWorkingTable, otherwise the billing rows.
+ */
+public class ReportWindow {
+    private static final int MAX_DAILY_DAYS = 31;
+    private static final int MAX_WEEKLY_DAYS = 184;
+    private static final int HOURLY_CHART_POINTS_PER_DAY = 6;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+    private int days;
+    private Granularity granularity;
+
+    public enum Granularity {
+        HOUR("hour", "week"), DAY("day", "week"), WEEK("week", "week"), MONTH("month", "month");
+
+        private String name;
+        private String comparisonPeriod;
+
+        Granularity(String name, String comparisonPeriod) {
+            this.name = name;
+            this.comparisonPeriod = comparisonPeriod;
+        }
+
+        /**
+         * @return the unit of date_trunc
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the period the admin digest compares with the one before it
+         */
+        public String getComparisonPeriod() {
+            return comparisonPeriod;
+        }
+    }
+
+    public ReportWindow(int days) {
+        this(days, days <= MAX_DAILY_DAYS ? Granularity.DAY
+                : days <= MAX_WEEKLY_DAYS ? Granularity.WEEK : Granularity.MONTH);
+    }
+
+    public ReportWindow(int days, Granularity granularity) {
+        if (days < 1) {
+            throw new IllegalArgumentException("The report window must be at least one day: " + days);
+        }
+        this.days = days;
+        this.granularity = granularity;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    public boolean isHourly() {
+        return granularity == Granularity.HOUR;
+    }
+
+    /**
+     * @return the same window per day, for the reports that are not drawn per hour
+     */
+    public ReportWindow toDaily() {
+        return isHourly() ? new ReportWindow(days, Granularity.DAY) : this;
+    }
+
+    /**
+     * @return the SQL expression of the start of the period a billing row belongs to, in terms of the usagestart
+     * placeholder of SqlConfigInjector
+     */
+    public String getSqlPeriodStart() {
+        if (isHourly()) {
+            return "date_trunc('hour', usagestart)";
+        }
+        return "date_trunc('" + granularity.getName() + "', cast(usagestart AS DATE))";
+    }
+
+    /**
+     * @return the first day of every period in the window, oldest first. Every day when the window is hourly
+     */
+    public List<Calendar> getPeriods() {
+        List<Calendar> days = CalendarGenerator.getDaysBack(this.days);
+        if (granularity == Granularity.DAY || granularity == Granularity.HOUR) {
+            return days;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        Set<String> seen = new HashSet<>();
+        List<Calendar> periods = new ArrayList<>();
+        for (Calendar day : days) {
+            Calendar period = getPeriodStart(day);
+            if (seen.add(dateFormat.format(period.getTime()))) {
+                periods.add(period);
+            }
+        }
+        return periods;
+    }
+
+    /**
+     * @return the number of periods in the last week of the window, 1 when the periods are weeks or months
+     */
+    public int getPeriodsPerComparison() {
+        return granularity == Granularity.DAY || granularity == Granularity.HOUR ? 7 : 1;
+    }
+
+    /**
+     * @return the value of every hour from the first hour up to and including the current one, 0 for the hours not in
+     * the series
+     */
+    public List<Double> getHourlyValues(CompressedTimeSeries series) {
+        long firstHour = getFirstHour();
+        Double[] values = new Double[(int) ((CalendarGenerator.clock.instant().toEpochMilli() - firstHour)
+                / HOUR_MILLIS) + 1];
+        Arrays.fill(values, 0.0);
+        series.forEach((timestamp, value) -> {
+            long hour = Math.floorDiv(timestamp - firstHour, HOUR_MILLIS);
+            if (hour >= 0 && hour < values.length) {
+                values[(int) hour] += value;
+            }
+        });
+        return Arrays.asList(values);
+    }
+
+    /**
+     * @return the points to downsample the chart lines to. Hourly lines are downsampled to a few points per day
+     * when chartMaxPoints is not set
+     */
+    public int getChartMaxPoints(int chartMaxPoints) {
+        if (chartMaxPoints > 0 || !isHourly()) {
+            return chartMaxPoints;
+        }
+        return days * HOURLY_CHART_POINTS_PER_DAY;
+    }
+
+    /**
+     * @return the label of the period on the x axis of the charts
+     */
+    public String getAxisLabel(Calendar period) {
+        String pattern = granularity == Granularity.MONTH ? "MMM" : "dd";
+        return new SimpleDateFormat(pattern, Locale.US).format(period.getTime());
+    }
+
+    public String getAxisTitle() {
+        if (granularity == Granularity.WEEK) {
+            return "Week";
+        }
+        return granularity == Granularity.MONTH ? "Month" : "Day";
+    }
+
+    private Calendar getPeriodStart(Calendar day) {
+        Calendar start = (Calendar) day.clone();
+        if (granularity == Granularity.WEEK) {
+            int daysSinceMonday = (start.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+            start.add(Calendar.DAY_OF_MONTH, -daysSinceMonday);
+        } else {
+            start.set(Calendar.DAY_OF_MONTH, 1);
+        }
+        return start;
+    }
+
+    private long getFirstHour() {
+        Calendar firstDay = (Calendar) CalendarGenerator.getDaysBack(days).get(0).clone();
+        firstDay.set(Calendar.HOUR_OF_DAY, 0);
+        firstDay.set(Calendar.MINUTE, 0);
+        firstDay.set(Calendar.SECOND, 0);
+        firstDay.set(Calendar.MILLISECOND, 0);
+        return firstDay.getTimeInMillis();
+    }
+}
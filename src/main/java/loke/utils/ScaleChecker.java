@@ -1,6 +1,7 @@
 package loke.utils;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 public class ScaleChecker {
@@ -11,6 +12,21 @@ public class ScaleChecker {
         return Scale.BETWEEN_11_100;
     }
 
+    /**
+     * @return the scale of the highest value of all the series
+     */
+    public static Scale checkScale(Collection<? extends List<Double>> series) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (List<Double> values : series) {
+            for (Double value : values) {
+                if (value > max) {
+                    max = value;
+                }
+            }
+        }
+        return checkScale(max == Double.NEGATIVE_INFINITY ? 0.0 : max);
+    }
+
     public enum Scale {
         BETWEEN_0_10("USD", 0.1, Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10)),
         BETWEEN_11_100("USD", 1, Arrays.asList(0, 10, 20, 30, 40, 50, 60, 70, 80, 90, 100)),
@@ -1,16 +1,156 @@
 package loke.utils;
 
+import java.time.LocalDate;
+
 public class SqlConfigInjector {
+  /**
+   * The rows every report over the window is made of, the header rows of the billing files, untagged rows and rows
+   * without cost are left out.
+   */
+  private static final String REPORT_FILTER = "blended_cost != 'BlendedCost'\n"
+          + "AND blended_cost != 'blended_cost'\n"
+          + "AND blended_cost != '0.0000000000'\n"
+          + "AND usage_start_date != ''\n"
+          + "AND usage_start_date != 'UsageStartDate'\n"
+          + "AND usage_start_date != 'usage_start_date'\n"
+          + "AND user_owner != 'user:Owner'\n"
+          + "AND user_owner != ''";
+  private static final String USAGE_START = "date_parse(usage_start_date, '%Y-%m-%d %T')";
+  private static final String USAGE_COST = "cast(blended_cost AS DOUBLE)";
   private String databaseName;
   private String tableName;
+  private ReportWindow reportWindow;
+  private int startedResourceDays;
+  private String workingTableName;
+  private boolean partitioned;
+  private String ownerRegExp;
 
     public SqlConfigInjector(String databaseName, String tableName) {
+        this(databaseName, tableName, new ReportWindow(30), 7);
+    }
+
+    /**
+     * @param startedResourceDays how many days back a resource counts as started in ResourceStartedLastWeek
+     */
+    public SqlConfigInjector(String databaseName, String tableName, ReportWindow reportWindow,
+                             int startedResourceDays) {
         this.databaseName = databaseName;
         this.tableName = tableName;
+        this.reportWindow = reportWindow;
+        this.startedResourceDays = startedResourceDays;
+    }
+
+    /**
+     * Points the report queries, the ones reading reporttable, at a working table with the filtered rows of the window
+     * and the parsed start and cost columns, see ReportWorkingTable.sql. Must be set before the queries are injected.
+     */
+    public void setWorkingTableName(String workingTableName) {
+        this.workingTableName = workingTableName;
+    }
+
+    public String getWorkingTableName() {
+        return workingTableName;
+    }
+
+    /**
+     * Adds predicates on the year and month partition columns to the queries, so that Athena only reads the months of
+     * the window, see BillingPartition.
+     */
+    public void setPartitioned(boolean partitioned) {
+        this.partitioned = partitioned;
+    }
+
+    /**
+     * Only the rows of the owners that fully match the regexp are read. The services match the owners again, the
+     * filter leaves the other owners out before they are grouped and sent back.
+     */
+    public void setOwnerRegExp(String ownerRegExp) {
+        this.ownerRegExp = ownerRegExp;
     }
 
     public String injectSqlConfig(String sql) {
-        return sql.replace("databasename", databaseName)
+        return injectSqlConfig(sql, reportWindow);
+    }
+
+    /**
+     * Injects another report window than the configured one, e.g. the daily one for reports not drawn per hour.
+     */
+    public String injectSqlConfig(String sql, ReportWindow reportWindow) {
+        return inject(sql, reportWindow, workingTableName != null, startedResourceDays);
+    }
+
+    /**
+     * Injects another number of days back for the started resources, e.g. the days since the first seen index was
+     * last updated.
+     */
+    public String injectSqlConfig(String sql, int startedDays) {
+        return inject(sql, reportWindow, workingTableName != null, startedDays);
+    }
+
+    /**
+     * Injects the statements creating and dropping the working table, which read the billing table itself. The table
+     * sums the spend per day, or per hour for an hourly window, so the weeks and months of a long window are rolled up
+     * from the daily sums instead of the billing rows.
+     */
+    public String injectWorkingTableSql(String sql) {
+        if (workingTableName == null) {
+            throw new IllegalStateException("No working table name is set");
+        }
+        ReportWindow baseWindow = new ReportWindow(reportWindow.getDays(),
+                reportWindow.isHourly() ? ReportWindow.Granularity.HOUR : ReportWindow.Granularity.DAY);
+        return inject(sql.replace("workingtable", workingTableName), baseWindow, false, startedResourceDays);
+    }
+
+    /**
+     * Injects the statement registering the partition of a billing file uploaded to the location.
+     */
+    public String injectPartitionSql(String sql, BillingPartition partition, String location) {
+        return sql.replace("partitionyear", partition.getYear())
+                .replace("partitionmonth", partition.getMonth())
+                .replace("partitionlocation", location)
+                .replace("databasename", databaseName)
                 .replace("tablename", tableName);
     }
+
+    private String inject(String sql, ReportWindow reportWindow, boolean fromWorkingTable, int startedDays) {
+        return sql.replace("databasename", databaseName)
+                .replace("reporttable", fromWorkingTable ? workingTableName : tableName)
+                .replace("tablename", tableName)
+                .replace("periodstart", reportWindow.getSqlPeriodStart())
+                .replace("reportfilter", fromWorkingTable ? "TRUE" : REPORT_FILTER)
+                .replace("reportpartitions", fromWorkingTable ? "TRUE" : getPartitionFilter(reportWindow.getDays()))
+                .replace("startedpartitions", getPartitionFilter(startedDays))
+                .replace("ownerfilter", getOwnerFilter())
+                .replace("usagestart", fromWorkingTable ? "usage_start" : USAGE_START)
+                .replace("usagecost", fromWorkingTable ? "cost" : USAGE_COST)
+                .replace("reportdays", String.valueOf(reportWindow.getDays()))
+                .replace("starteddays", String.valueOf(startedDays));
+    }
+
+    /**
+     * @return the predicate keeping the months of the last days, a day of margin on both ends keeps the months of
+     * current_date in Athena when it is another day than the local date
+     */
+    private String getPartitionFilter(int days) {
+        if (!partitioned) {
+            return "TRUE";
+        }
+        LocalDate today = LocalDate.now(CalendarGenerator.clock);
+        return BillingPartition.toSqlPredicate(BillingPartition.between(today.minusDays(days + 1), today.plusDays(1)));
+    }
+
+    private String getOwnerFilter() {
+        if (ownerRegExp == null) {
+            return "TRUE";
+        }
+        return "regexp_like(user_owner, '^(?:" + ownerRegExp.replace("'", "''") + ")$')";
+    }
+
+    public ReportWindow getReportWindow() {
+        return reportWindow;
+    }
+
+    public int getStartedResourceDays() {
+        return startedResourceDays;
+    }
 }
@@ -0,0 +1,47 @@
+package loke.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+
+import java.io.Writer;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide Velocity renderer. The engine is initialized once and every template is parsed the first time it is
+ * used. Parsed templates are immutable, so several threads can merge the same template at the same time as long as
+ * each of them uses its own context and writer.
+ */
+public class TemplateRenderer {
+    private static final Logger log = LogManager.getLogger(TemplateRenderer.class);
+    private static final TemplateRenderer INSTANCE = new TemplateRenderer();
+    private VelocityEngine velocityEngine;
+    private Map<String, Template> templates = new ConcurrentHashMap<>();
+
+    private TemplateRenderer() {
+        Properties p = new Properties();
+        p.setProperty("resource.loader", "class");
+        p.setProperty("class.resource.loader.class", "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
+        this.velocityEngine = new VelocityEngine();
+        this.velocityEngine.init(p);
+    }
+
+    public static TemplateRenderer getInstance() {
+        return INSTANCE;
+    }
+
+    public void merge(String templateName, VelocityContext context, Writer writer) {
+        getTemplate(templateName).merge(context, writer);
+    }
+
+    private Template getTemplate(String templateName) {
+        return templates.computeIfAbsent(templateName, name -> {
+            log.trace("Parsing template: {}", name);
+            return velocityEngine.getTemplate(name);
+        });
+    }
+}
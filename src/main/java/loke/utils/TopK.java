@@ -0,0 +1,68 @@
+package loke.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the k items with the largest weight out of a stream of items, in a min-heap of size k. Offering an item costs
+ * O(log k) and hands back whatever no longer fits, so the caller can roll it into an "other" row as it goes.
+ */
+public class TopK<T> {
+    private final int k;
+    private final PriorityQueue<Weighted<T>> heap;
+    private int offered;
+
+    /**
+     * @param k the number of items to keep, 0 or less keeps every item
+     */
+    public TopK(int k) {
+        this.k = k;
+        this.heap = new PriorityQueue<>(Comparator.comparingDouble(weighted -> weighted.weight));
+    }
+
+    /**
+     * @return the item that was dropped to make room, which may be the offered item itself, or null if none was
+     */
+    public T offer(T item, double weight) {
+        offered++;
+        if (k <= 0 || heap.size() < k) {
+            heap.add(new Weighted<>(item, weight));
+            return null;
+        }
+        if (weight <= heap.peek().weight) {
+            return item;
+        }
+        T dropped = heap.poll().item;
+        heap.add(new Weighted<>(item, weight));
+        return dropped;
+    }
+
+    /**
+     * @return the kept items, the largest first
+     */
+    public List<T> getTop() {
+        List<Weighted<T>> sorted = new ArrayList<>(heap);
+        sorted.sort((o1, o2) -> Double.compare(o2.weight, o1.weight));
+        List<T> top = new ArrayList<>();
+        for (Weighted<T> weighted : sorted) {
+            top.add(weighted.item);
+        }
+        return top;
+    }
+
+    public int getDroppedCount() {
+        return offered - heap.size();
+    }
+
+    private static class Weighted<T> {
+        private final T item;
+        private final double weight;
+
+        private Weighted(T item, double weight) {
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+}
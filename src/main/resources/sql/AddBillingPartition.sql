@@ -0,0 +1,2 @@
+ALTER TABLE databasename.tablename ADD IF NOT EXISTS
+PARTITION (year = 'partitionyear', month = 'partitionmonth') LOCATION 'partitionlocation';
\ No newline at end of file
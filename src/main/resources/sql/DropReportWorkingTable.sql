@@ -0,0 +1 @@
+DROP TABLE IF EXISTS databasename.workingtable;
\ No newline at end of file
@@ -0,0 +1,15 @@
+-- Report working table, the spend of the report window summed per day, or per hour for an hourly window, once per run
+CREATE TABLE databasename.workingtable
+WITH (format = 'PARQUET', parquet_compression = 'SNAPPY', external_location = 'workinglocation')
+AS SELECT
+  user_owner,
+  linked_account_id,
+  product_name,
+  periodstart     AS usage_start,
+  sum(usagecost)  AS cost
+FROM databasename.tablename
+WHERE reportfilter
+AND reportpartitions
+AND ownerfilter
+AND cast(usagestart AS DATE) > (current_date - INTERVAL 'reportdays' DAY)
+GROUP BY user_owner, linked_account_id, product_name, periodstart;
\ No newline at end of file
@@ -0,0 +1,9 @@
+-- Resource / First seen, fills the first seen index on the first run
+SELECT
+  resource_id,
+  MIN(usage_start_date) AS start_date
+FROM databasename.tablename
+WHERE usage_start_date != ''
+AND usage_start_date != 'UsageStartDate'
+AND user_owner != 'user:Owner'
+GROUP BY resource_id;
\ No newline at end of file
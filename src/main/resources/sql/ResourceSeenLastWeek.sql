@@ -0,0 +1,18 @@
+-- User / Resource / Seen last week, the started ones are picked by the first seen index
+SELECT
+  linked_account_id                 AS account_id,
+  user_owner,
+  product_name,
+  resource_id,
+  MIN(usage_start_date)             AS start_date,
+  sum(cast(blended_cost AS DOUBLE)) AS cost
+FROM databasename.tablename
+WHERE blended_cost != 'BlendedCost'
+AND usage_start_date != ''
+AND usage_start_date != 'UsageStartDate'
+AND user_owner != 'user:Owner'
+AND startedpartitions
+AND ownerfilter
+AND CAST(date_parse(usage_start_date, '%Y-%m-%d %T') AS DATE) >= (CURRENT_DATE - INTERVAL 'starteddays' DAY)
+GROUP BY linked_account_id, user_owner, product_name, resource_id
+ORDER BY linked_account_id, user_owner, product_name, resource_id ASC;
\ No newline at end of file
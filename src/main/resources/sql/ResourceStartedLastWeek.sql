@@ -10,6 +10,7 @@ FROM databasename.tablename
   WHERE blended_cost != 'BlendedCost'
 AND user_owner != 'user:Owner'
 AND user_owner != ''
+AND ownerfilter
 AND resource_id NOT IN
 (
 SELECT DISTINCT resource_id
@@ -17,7 +18,7 @@ FROM databasename.tablename
 WHERE usage_start_date != ''
 AND usage_start_date != 'UsageStartDate'
 AND user_owner != 'user:Owner'
-AND CAST(date_parse(usage_start_date, '%Y-%m-%d %T') AS DATE) < (CURRENT_DATE - INTERVAL '7' DAY)
+AND CAST(date_parse(usage_start_date, '%Y-%m-%d %T') AS DATE) < (CURRENT_DATE - INTERVAL 'starteddays' DAY)
 )
 GROUP BY linked_account_id, user_owner, product_name, resource_id
 ORDER BY linked_account_id, user_owner, product_name, resource_id ASC;
\ No newline at end of file
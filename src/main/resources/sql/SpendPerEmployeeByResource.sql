@@ -1,17 +1,13 @@
--- Cost / user / product / last 30 days
+-- Cost / user / product / report window
 SELECT
   user_owner,
   product_name,
-  sum(cast(blended_cost AS DOUBLE))                         AS cost,
-  cast(date_parse(usage_start_date, '%Y-%m-%d %T') AS DATE) AS start_date
-FROM databasename.tablename
-WHERE blended_cost != 'BlendedCost'
-AND user_owner != 'user:Owner'
-AND blended_cost != '0.0000000000'
-AND usage_start_date != ''
-AND usage_start_date != 'UsageStartDate'
-AND usage_start_date != 'usage_start_date'
-AND user_owner != ''
-AND cast(date_parse(usage_start_date, '%Y-%m-%d %T') AS DATE) > (current_date - INTERVAL '30' DAY)
-GROUP BY user_owner, product_name, cast(date_parse(usage_start_date, '%Y-%m-%d %T') AS DATE)
+  sum(usagecost)                                            AS cost,
+  periodstart AS start_date
+FROM databasename.reporttable
+WHERE reportfilter
+AND reportpartitions
+AND ownerfilter
+AND cast(usagestart AS DATE) > (current_date - INTERVAL 'reportdays' DAY)
+GROUP BY user_owner, product_name, periodstart
 ORDER BY user_owner, start_date ASC;
\ No newline at end of file
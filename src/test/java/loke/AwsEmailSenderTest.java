@@ -2,6 +2,7 @@ package loke;
 
 import loke.email.AwsEmailSender;
 import loke.email.AwsSesHandler;
+import loke.model.Admin;
 import loke.model.Employee;
 import loke.model.Report;
 import org.junit.Assert;
@@ -10,8 +11,14 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class AwsEmailSenderTest {
     private AwsSesHandler awsSesHandler;
@@ -45,5 +52,116 @@ public class AwsEmailSenderTest {
         Mockito.verify(awsSesHandler).sendEmail(Mockito.anyString(), stringArgumentCaptor.capture(), Mockito.anyString(), Mockito.anyString());
         Assert.assertEquals(expected, stringArgumentCaptor.getValue());
     }
-}
 
+    @Test
+    public void rawEmail_htmlBodyCreation_SendsBase64EncodedBody() throws Exception {
+        awsEmailSender.setRawEmail(true);
+        Employee employee = new Employee("john.doe");
+        Report report = new Report("john.doe");
+        report.setHtmlTable("<table>Table 1 \u2013 \u00e5\u00e4\u00f6</table>");
+        employee.addReport(report);
+
+        awsEmailSender.sendEmployeeMail(employee);
+
+        ArgumentCaptor<byte[]> rawMessageCaptor = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(awsSesHandler).sendRawEmail(Mockito.eq("john.doedoe.com"), Mockito.eq("john@doe.com"),
+                rawMessageCaptor.capture());
+        String rawMessage = new String(rawMessageCaptor.getValue(), StandardCharsets.UTF_8);
+        String[] headersAndBody = rawMessage.split("\r\n\r\n", 2);
+        Assert.assertTrue(headersAndBody[0].contains("To: john.doedoe.com"));
+        Assert.assertTrue(headersAndBody[0].contains("Content-Type: text/html; charset=UTF-8"));
+        String body = new String(Base64.getMimeDecoder().decode(headersAndBody[1]), StandardCharsets.UTF_8);
+        Assert.assertEquals("<table>Table 1 \u2013 \u00e5\u00e4\u00f6</table><br>", body);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bulkTemplates_employees_SendsFiftyRecipientsPerRequest() throws Exception {
+        awsEmailSender.setTemplateName("cost-report");
+        List<Employee> employees = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            Employee employee = new Employee("employee" + i);
+            Report report = new Report("employee" + i);
+            report.setHtmlTable("<table>Table " + i + "</table>");
+            employee.addReport(report);
+            employees.add(employee);
+        }
+
+        awsEmailSender.sendEmployeeMails(employees);
+
+        ArgumentCaptor<Map<String, String>> recipientsCaptor = ArgumentCaptor.forClass((Class) Map.class);
+        Mockito.verify(awsSesHandler).createTemplate(Mockito.eq("cost-report"), Mockito.eq("Weekly AWS cost report"),
+                Mockito.startsWith("{{#each sections}}"));
+        Mockito.verify(awsSesHandler, Mockito.times(3)).sendBulkTemplatedEmail(Mockito.eq("john@doe.com"),
+                Mockito.eq("cost-report"), Mockito.anyString(), recipientsCaptor.capture());
+        List<Map<String, String>> requests = recipientsCaptor.getAllValues();
+        Assert.assertEquals(50, requests.get(0).size());
+        Assert.assertEquals(50, requests.get(1).size());
+        Assert.assertEquals(20, requests.get(2).size());
+        Assert.assertEquals("{\"sections\":[{\"table\":\"<table>Table 119</table>\"}]}",
+                requests.get(2).get("employee119doe.com"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bulkTemplates_admins_SendsTheBodyOnceAsDefaultTemplateData() throws Exception {
+        awsEmailSender.setTemplateName("cost-report");
+        Employee employee = new Employee("john.doe");
+        Report report = new Report("john.doe");
+        report.setHtmlTable("<table>Table 1</table>");
+        employee.addReport(report);
+        List<Admin> admins = new ArrayList<>();
+        admins.add(new Admin("admin1@doe.com"));
+        admins.add(new Admin("admin2@doe.com"));
+
+        awsEmailSender.sendAdminMails(admins, Collections.singletonList(employee));
+
+        ArgumentCaptor<Map<String, String>> recipientsCaptor = ArgumentCaptor.forClass((Class) Map.class);
+        Mockito.verify(awsSesHandler).sendBulkTemplatedEmail(Mockito.eq("john@doe.com"), Mockito.eq("cost-report"),
+                Mockito.eq("{\"sections\":[{\"table\":\"<table>Table 1</table>\"}]}"), recipientsCaptor.capture());
+        Assert.assertEquals(Arrays.asList("admin1@doe.com", "admin2@doe.com"),
+                new ArrayList<>(recipientsCaptor.getValue().keySet()));
+        Assert.assertEquals("{}", recipientsCaptor.getValue().get("admin1@doe.com"));
+        Mockito.verify(awsSesHandler, Mockito.never()).sendEmail(Mockito.anyString(), Mockito.anyString(),
+                Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void bulkTemplates_templateDataOverTheLimit_SendsTheEmailOnItsOwn() throws Exception {
+        awsEmailSender.setTemplateName("cost-report");
+        StringBuilder table = new StringBuilder("<table>");
+        for (int i = 0; i < 300000; i++) {
+            table.append('x');
+        }
+        Employee employee = new Employee("john.doe");
+        Report report = new Report("john.doe");
+        report.setHtmlTable(table.append("</table>").toString());
+        employee.addReport(report);
+
+        awsEmailSender.sendEmployeeMails(Collections.singletonList(employee));
+
+        Mockito.verify(awsSesHandler).sendEmail(Mockito.eq("john.doedoe.com"), Mockito.anyString(),
+                Mockito.eq("Weekly AWS cost report"), Mockito.eq("john@doe.com"));
+        Mockito.verify(awsSesHandler, Mockito.never()).sendBulkTemplatedEmail(Mockito.anyString(),
+                Mockito.anyString(), Mockito.anyString(), Mockito.anyMap());
+    }
+
+    @Test
+    public void isAllSent_emailNotAccepted_ReturnsFalse() throws Exception {
+        Mockito.when(awsSesHandler.sendEmail(Mockito.eq("jane.doedoe.com"), Mockito.anyString(), Mockito.anyString(),
+                Mockito.anyString())).thenReturn(CompletableFuture.completedFuture(false));
+        List<Employee> employees = new ArrayList<>();
+        for (String userName : Arrays.asList("john.doe", "jane.doe")) {
+            Employee employee = new Employee(userName);
+            Report report = new Report(userName);
+            report.setHtmlTable("<table>Table 1</table>");
+            employee.addReport(report);
+            employees.add(employee);
+        }
+
+        awsEmailSender.sendEmployeeMails(employees);
+        awsEmailSender.awaitPendingEmails();
+
+        Assert.assertFalse(awsEmailSender.isAllSent());
+    }
+}
@@ -0,0 +1,66 @@
+package loke;
+
+import loke.email.AwsEmailSender;
+import loke.model.Employee;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ReportPipelineTest {
+    private AwsEmailSender emailSender;
+    private CostReportGenerator costReportGenerator;
+
+    @Before
+    public void setUp() throws Exception {
+        emailSender = mock(AwsEmailSender.class);
+        costReportGenerator = mock(CostReportGenerator.class);
+        when(costReportGenerator.generateReports(any(Consumer.class))).thenAnswer(invocation -> {
+            Consumer<Employee> consumer = invocation.getArgument(0);
+            for (int i = 0; i < 10; i++) {
+                consumer.accept(new Employee("employee" + i));
+            }
+            return 10;
+        });
+    }
+
+    @Test
+    public void run_sendsEveryGeneratedEmployee() throws Exception {
+        ReportPipeline reportPipeline = new ReportPipeline(emailSender, 2, 3);
+
+        reportPipeline.run(costReportGenerator);
+
+        verify(emailSender, times(10)).sendEmployeeMail(any(Employee.class));
+        assertEquals(0, reportPipeline.getQueueDepth());
+    }
+
+    @Test
+    public void run_slowSenders_stallsRenderingInsteadOfGrowingTheQueue() throws Exception {
+        doAnswer(invocation -> {
+            Thread.sleep(20);
+            return null;
+        }).when(emailSender).sendEmployeeMail(any(Employee.class));
+        ReportPipeline reportPipeline = new ReportPipeline(emailSender, 1, 1);
+
+        reportPipeline.run(costReportGenerator);
+
+        verify(emailSender, times(10)).sendEmployeeMail(any(Employee.class));
+        assertTrue(reportPipeline.getPeakQueueDepth() <= 1);
+        assertTrue(reportPipeline.getStallTimeMillis() > 0);
+    }
+
+    @Test
+    public void run_failingSender_keepsDrainingTheQueue() throws Exception {
+        doThrow(new RuntimeException("Throttling")).when(emailSender).sendEmployeeMail(any(Employee.class));
+        ReportPipeline reportPipeline = new ReportPipeline(emailSender, 1, 1);
+
+        reportPipeline.run(costReportGenerator);
+
+        verify(emailSender, times(10)).sendEmployeeMail(any(Employee.class));
+    }
+}
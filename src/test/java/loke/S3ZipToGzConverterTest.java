@@ -0,0 +1,97 @@
+package loke;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import loke.aws.S3Handler;
+import loke.config.Configuration;
+import loke.model.Admin;
+import loke.utils.ZipToGzUtility;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class S3ZipToGzConverterTest {
+    private static final String ZIP_FILE =
+            "123456789012-aws-billing-detailed-line-items-with-resources-and-tags-2017-09.csv.zip";
+    private static final String GZ_FILE =
+            "123456789012-aws-billing-detailed-line-items-with-resources-and-tags-2017-09.csv.gz";
+    private RecordingS3Handler s3Handler;
+    private S3ZipToGzConverter converter;
+
+    @Before
+    public void setUp() throws Exception {
+        s3Handler = new RecordingS3Handler();
+        converter = new S3ZipToGzConverter(s3Handler, new ZipToGzUtility() {
+            @Override
+            public String convertZipToGz(String zipFile, String destinationPath) {
+                return GZ_FILE;
+            }
+        });
+    }
+
+    @Test
+    public void convertZipToGz_partitioned_uploadsUnderTheBillingMonth() throws Exception {
+        converter.setPartitioned(true);
+
+        String key = converter.convertZipToGz("source", "destination");
+
+        assertEquals("year=2017/month=09/" + GZ_FILE, key);
+        assertEquals(Arrays.asList("destination", key), s3Handler.uploaded);
+    }
+
+    @Test
+    public void convertZipToGz_notPartitioned_uploadsToTheBucketRoot() throws Exception {
+        String key = converter.convertZipToGz("source", "destination");
+
+        assertEquals(GZ_FILE, key);
+        assertEquals(Arrays.asList("destination", GZ_FILE), s3Handler.uploaded);
+    }
+
+    @Test
+    public void loke_partitionedTable_uploadsUnderTheBillingMonth() throws Exception {
+        Configuration configuration = new Configuration();
+        configuration.setAdmins(Collections.singletonList(new Admin("admin@domain.com")));
+        configuration.setAccessKey("");
+        configuration.setSecretAccessKey("");
+        configuration.setUserOwnerRegExp("^([a-z]+\\.[a-z]+)+$");
+        configuration.setSqlDatabaseName("database");
+        configuration.setSqlTableName("table");
+        configuration.setRegion("eu-west-1");
+        configuration.setPartitionedTable(true);
+
+        new Loke(configuration, null, converter);
+
+        assertEquals("year=2017/month=09/" + GZ_FILE, converter.convertZipToGz("source", "destination"));
+    }
+
+    private static class RecordingS3Handler extends S3Handler {
+        private List<String> uploaded;
+
+        private RecordingS3Handler() {
+            super(null);
+        }
+
+        @Override
+        public List<S3ObjectSummary> getObjectSummeries(String bucket) {
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(bucket);
+            summary.setKey(ZIP_FILE);
+            summary.setLastModified(new Date());
+            return Collections.singletonList(summary);
+        }
+
+        @Override
+        public void downloadFile(S3ObjectSummary lastModifiedFile, String destination) {
+        }
+
+        @Override
+        public void uploadFile(String bucket, String key, String filePath) {
+            uploaded = Arrays.asList(bucket, key);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package loke.aws.db;
+
+import com.amazonaws.services.athena.AbstractAmazonAthena;
+import com.amazonaws.services.athena.model.AmazonAthenaException;
+import com.amazonaws.services.athena.model.ColumnInfo;
+import com.amazonaws.services.athena.model.Datum;
+import com.amazonaws.services.athena.model.GetQueryExecutionRequest;
+import com.amazonaws.services.athena.model.GetQueryExecutionResult;
+import com.amazonaws.services.athena.model.GetQueryResultsRequest;
+import com.amazonaws.services.athena.model.GetQueryResultsResult;
+import com.amazonaws.services.athena.model.QueryExecution;
+import com.amazonaws.services.athena.model.QueryExecutionStatistics;
+import com.amazonaws.services.athena.model.QueryExecutionStatus;
+import com.amazonaws.services.athena.model.ResultConfiguration;
+import com.amazonaws.services.athena.model.ResultSet;
+import com.amazonaws.services.athena.model.ResultSetMetadata;
+import com.amazonaws.services.athena.model.Row;
+import com.amazonaws.services.athena.model.StartQueryExecutionRequest;
+import com.amazonaws.services.athena.model.StartQueryExecutionResult;
+import com.amazonaws.services.athena.model.StopQueryExecutionRequest;
+import com.amazonaws.services.athena.model.StopQueryExecutionResult;
+import com.amazonaws.services.athena.model.TooManyRequestsException;
+import loke.aws.S3Handler;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AthenaApiBackendTest {
+
+    @Test
+    public void executeQuery_pollsUntilSucceededAndReadsEveryPage() throws Exception {
+        LocalAthena athena = new LocalAthena(3, "SUCCEEDED");
+        AthenaApiBackend backend = new AthenaApiBackend(athena, "s3://staging");
+        backend.setPollInterval(1, 4);
+
+        List<OwnerCost> rows = backend.executeQuery("SELECT user_owner, cost FROM t", OwnerCost.class);
+
+        assertEquals(5, rows.size());
+        assertEquals("owner0", rows.get(0).owner);
+        assertEquals(0.5, rows.get(0).cost, 0);
+        assertEquals("owner3", rows.get(3).owner);
+        assertNull(rows.get(4).owner);
+        assertEquals("s3://staging", athena.outputLocation);
+        assertEquals(3, athena.polls.get("q1").get());
+    }
+
+    @Test
+    public void submit_runsTheQueriesAtTheSameTime() throws Exception {
+        LocalAthena athena = new LocalAthena(2, "SUCCEEDED");
+        AthenaApiBackend backend = new AthenaApiBackend(athena, "s3://staging");
+        backend.setPollInterval(1, 4);
+
+        List<CompletableFuture<String>> queries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            queries.add(backend.submit("SELECT " + i));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("q" + (i + 1), queries.get(i).join());
+        }
+        assertEquals(10, athena.polls.size());
+    }
+
+    @Test
+    public void executeQuery_withResultStore_streamsTheResultFile() throws Exception {
+        Map<String, String> opened = new ConcurrentHashMap<>();
+        AthenaApiBackend backend = new AthenaApiBackend(new LocalAthena(1, "SUCCEEDED"), "s3://staging/results");
+        backend.setPollInterval(1, 4);
+        backend.setResultStore(new S3Handler(null) {
+            @Override
+            public InputStream openObject(String bucket, String key) {
+                opened.put(bucket, key);
+                return new ByteArrayInputStream("\"cost\",\"user_owner\"\n\"0.5\",\"owner0\"\n\"1.5\",\n"
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        });
+
+        List<OwnerCost> rows = backend.executeQuery("SELECT cost, user_owner FROM t", OwnerCost.class);
+
+        assertEquals("results/q1.csv", opened.get("staging"));
+        assertEquals(2, rows.size());
+        assertEquals("owner0", rows.get(0).owner);
+        assertEquals(1.5, rows.get(1).cost, 0);
+        assertNull(rows.get(1).owner);
+    }
+
+    @Test(expected = JdbcManager.SqlException.class)
+    public void executeQuery_failedQuery_throws() throws Exception {
+        AthenaApiBackend backend = new AthenaApiBackend(new LocalAthena(2, "FAILED"), "s3://staging");
+        backend.setPollInterval(1, 4);
+
+        backend.executeQuery("SELECT user_owner, cost FROM t", OwnerCost.class);
+    }
+
+    @Test
+    public void executeQuery_throttledPolls_areRetried() throws Exception {
+        LocalAthena athena = new LocalAthena(2, "SUCCEEDED");
+        athena.throttledPolls = 3;
+        AthenaApiBackend backend = new AthenaApiBackend(athena, "s3://staging");
+        backend.setPollInterval(1, 4);
+
+        List<OwnerCost> rows = backend.executeQuery("SELECT user_owner, cost FROM t", OwnerCost.class);
+
+        assertEquals(5, rows.size());
+        assertEquals(5, athena.polls.get("q1").get());
+        assertTrue(athena.stopped.isEmpty());
+    }
+
+    @Test
+    public void submit_failedPoll_stopsTheQuery() throws Exception {
+        LocalAthena athena = new LocalAthena(2, "SUCCEEDED");
+        athena.pollError = new AmazonAthenaException("Invalid request");
+        AthenaApiBackend backend = new AthenaApiBackend(athena, "s3://staging");
+        backend.setPollInterval(1, 4);
+
+        CompletableFuture<String> query = backend.submit("SELECT 1");
+
+        try {
+            query.join();
+            fail("The poll error was not thrown");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof JdbcManager.SqlException);
+        }
+        assertEquals(Collections.singletonList("q1"), athena.stopped);
+        assertEquals(1, athena.polls.get("q1").get());
+    }
+
+    @Test
+    public void submit_cancelled_stopsTheQuery() throws Exception {
+        LocalAthena athena = new LocalAthena(Integer.MAX_VALUE, "SUCCEEDED");
+        AthenaApiBackend backend = new AthenaApiBackend(athena, "s3://staging");
+        backend.setPollInterval(1, 4);
+
+        backend.submit("SELECT 1").cancel(true);
+
+        assertEquals(Collections.singletonList("q1"), athena.stopped);
+    }
+
+    public static class OwnerCost {
+        @JdbcManager.Column(value = "user_owner")
+        private String owner;
+        private double cost;
+    }
+
+    /**
+     * Stand-in for the Athena endpoint. Every query is running for the given number of polls and then ends in the
+     * final state, its result has a header row and two pages.
+     */
+    private static class LocalAthena extends AbstractAmazonAthena {
+        private final int pollsToFinish;
+        private final String finalState;
+        private final AtomicInteger queries = new AtomicInteger();
+        private final Map<String, AtomicInteger> polls = new ConcurrentHashMap<>();
+        private final List<String> stopped = new CopyOnWriteArrayList<>();
+        private volatile String outputLocation;
+        private volatile int throttledPolls;
+        private volatile RuntimeException pollError;
+
+        private LocalAthena(int pollsToFinish, String finalState) {
+            this.pollsToFinish = pollsToFinish;
+            this.finalState = finalState;
+        }
+
+        @Override
+        public StartQueryExecutionResult startQueryExecution(StartQueryExecutionRequest request) {
+            outputLocation = request.getResultConfiguration().getOutputLocation();
+            return new StartQueryExecutionResult().withQueryExecutionId("q" + queries.incrementAndGet());
+        }
+
+        @Override
+        public GetQueryExecutionResult getQueryExecution(GetQueryExecutionRequest request) {
+            int poll = polls.computeIfAbsent(request.getQueryExecutionId(), id -> new AtomicInteger())
+                    .incrementAndGet();
+            if (pollError != null) {
+                throw pollError;
+            }
+            if (poll <= throttledPolls) {
+                throw new TooManyRequestsException("Rate exceeded");
+            }
+            poll -= throttledPolls;
+            String state = poll < pollsToFinish ? "RUNNING" : finalState;
+            return new GetQueryExecutionResult().withQueryExecution(new QueryExecution()
+                    .withQueryExecutionId(request.getQueryExecutionId())
+                    .withStatus(new QueryExecutionStatus().withState(state).withStateChangeReason("Test"))
+                    .withResultConfiguration(new ResultConfiguration()
+                            .withOutputLocation(outputLocation + "/" + request.getQueryExecutionId() + ".csv"))
+                    .withStatistics(new QueryExecutionStatistics()
+                            .withDataScannedInBytes(1L << 20)
+                            .withEngineExecutionTimeInMillis(10L)));
+        }
+
+        @Override
+        public StopQueryExecutionResult stopQueryExecution(StopQueryExecutionRequest request) {
+            stopped.add(request.getQueryExecutionId());
+            return new StopQueryExecutionResult();
+        }
+
+        @Override
+        public GetQueryResultsResult getQueryResults(GetQueryResultsRequest request) {
+            ResultSetMetadata metadata = new ResultSetMetadata().withColumnInfo(Arrays.asList(
+                    new ColumnInfo().withName("user_owner").withLabel("user_owner"),
+                    new ColumnInfo().withName("cost").withLabel("cost")));
+            if (request.getNextToken() == null) {
+                return new GetQueryResultsResult()
+                        .withResultSet(new ResultSet().withResultSetMetadata(metadata).withRows(Arrays.asList(
+                                row("user_owner", "cost"), row("owner0", "0.5"), row("owner1", "1.5"))))
+                        .withNextToken("page2");
+            }
+            return new GetQueryResultsResult()
+                    .withResultSet(new ResultSet().withResultSetMetadata(metadata).withRows(Arrays.asList(
+                            row("owner2", "2.5"), row("owner3", "3.5"), row(null, "4.5"))));
+        }
+
+        private static Row row(String owner, String cost) {
+            return new Row().withData(Arrays.asList(new Datum().withVarCharValue(owner),
+                    new Datum().withVarCharValue(cost)));
+        }
+    }
+}
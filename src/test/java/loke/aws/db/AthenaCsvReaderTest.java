@@ -0,0 +1,42 @@
+package loke.aws.db;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AthenaCsvReaderTest {
+
+    @Test
+    public void readRecord_readsQuotedValuesAndNulls() throws Exception {
+        AthenaCsvReader reader = reader("\"user_owner\",\"cost\"\n\"john\",\"1.5\"\n,\"\"\r\n\"say \"\"hi\"\"\",\"two\nlines\"\n");
+
+        assertEquals(Arrays.asList("user_owner", "cost"), reader.readRecord());
+        assertEquals(Arrays.asList("john", "1.5"), reader.readRecord());
+        assertEquals(Arrays.asList(null, ""), reader.readRecord());
+        assertEquals(Arrays.asList("say \"hi\"", "two\nlines"), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void readRecord_readsUtf8AndTheLastRecordWithoutNewline() throws Exception {
+        AthenaCsvReader reader = reader("\"\u00e5sa.\u00f6berg\",\"2\"");
+
+        assertEquals(Arrays.asList("\u00e5sa.\u00f6berg", "2"), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test(expected = IOException.class)
+    public void readRecord_unterminatedQuote_throws() throws Exception {
+        reader("\"john,\"1.5\n").readRecord();
+    }
+
+    private static AthenaCsvReader reader(String csv) {
+        return new AthenaCsvReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,119 @@
+package loke.aws.db;
+
+import loke.utils.ResourceLoader;
+import loke.utils.SqlConfigInjector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QuerySplitterTest {
+    private SqlConfigInjector sqlConfigInjector = new SqlConfigInjector("database", "table");
+
+    @Test
+    public void canSplit_onlyQueriesGroupedAndOrderedByOwner() throws Exception {
+        QuerySplitter querySplitter = new QuerySplitter(4, 2);
+
+        assertTrue(querySplitter.canSplit(sql("sql/TotalSpendPerEmployee.sql")));
+        assertTrue(querySplitter.canSplit(sql("sql/SpendPerEmployeeByResource.sql")));
+        assertTrue(querySplitter.canSplit(sql("sql/SpendPerEmployeeByAccount.sql")));
+        assertFalse(querySplitter.canSplit(sql("sql/ResourceStartedLastWeek.sql")));
+        assertFalse(new QuerySplitter(1, 2).canSplit(sql("sql/TotalSpendPerEmployee.sql")));
+    }
+
+    @Test
+    public void getShardSql_restrictsTheOuterQueryToTheShard() throws Exception {
+        String shardSql = new QuerySplitter(4, 2).getShardSql(sql("sql/TotalSpendPerEmployee.sql"), 3);
+
+        assertTrue(shardSql.contains(" DAY)\nAND mod(crc32(to_utf8(user_owner)), 4) = 3\nGROUP BY user_owner,"));
+    }
+
+    @Test
+    public void execute_mergesTheShardsInOwnerOrder() throws Exception {
+        QuerySplitter querySplitter = new QuerySplitter(3, 2);
+        List<List<String>> shards = Arrays.asList(
+                Arrays.asList("anna", "anna", "john"),
+                Collections.emptyList(),
+                Arrays.asList("bert", "zoe"));
+
+        List<String> rows = querySplitter.execute(sql("sql/TotalSpendPerEmployee.sql"),
+                shardSql -> shards.get(shard(shardSql)), Comparator.<String>naturalOrder());
+
+        assertEquals(Arrays.asList("anna", "anna", "bert", "john", "zoe"), rows);
+    }
+
+    @Test
+    public void execute_retriesOnlyTheFailedShard() throws Exception {
+        QuerySplitter querySplitter = new QuerySplitter(3, 3);
+        querySplitter.setRetry(3, 0);
+        Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+        List<String> rows = querySplitter.execute(sql("sql/TotalSpendPerEmployee.sql"), shardSql -> {
+            int shard = shard(shardSql);
+            int attempt = attempts.computeIfAbsent(shard, key -> new AtomicInteger()).incrementAndGet();
+            if (shard == 1 && attempt < 3) {
+                throw new JdbcManager.SqlException("Query timed out");
+            }
+            return new ArrayList<>(Collections.singletonList("owner" + shard));
+        }, Comparator.<String>naturalOrder());
+
+        assertEquals(Arrays.asList("owner0", "owner1", "owner2"), rows);
+        assertEquals(1, attempts.get(0).get());
+        assertEquals(3, attempts.get(1).get());
+        assertEquals(1, attempts.get(2).get());
+    }
+
+    @Test(expected = JdbcManager.SqlException.class)
+    public void execute_shardFailingEveryAttempt_throws() throws Exception {
+        QuerySplitter querySplitter = new QuerySplitter(2, 2);
+        querySplitter.setRetry(2, 0);
+
+        querySplitter.execute(sql("sql/TotalSpendPerEmployee.sql"), shardSql -> {
+            if (shard(shardSql) == 1) {
+                throw new JdbcManager.SqlException("Query failed");
+            }
+            return new ArrayList<String>();
+        }, Comparator.<String>naturalOrder());
+    }
+
+    @Test
+    public void execute_errorInTheQuery_isNotRetried() throws Exception {
+        QuerySplitter querySplitter = new QuerySplitter(2, 2);
+        querySplitter.setRetry(3, 0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            querySplitter.execute(sql("sql/TotalSpendPerEmployee.sql"), shardSql -> {
+                if (shard(shardSql) == 1) {
+                    attempts.incrementAndGet();
+                    throw new JdbcManager.SqlException("Query failed: SYNTAX_ERROR: line 1:8: Column 'x' cannot be "
+                            + "resolved");
+                }
+                return new ArrayList<String>();
+            }, Comparator.<String>naturalOrder());
+            fail();
+        } catch (JdbcManager.SqlException e) {
+            assertEquals(1, attempts.get());
+        }
+    }
+
+    private String sql(String resource) {
+        return sqlConfigInjector.injectSqlConfig(ResourceLoader.getResource(resource));
+    }
+
+    private static int shard(String shardSql) {
+        String predicate = shardSql.substring(shardSql.indexOf("mod(crc32"));
+        return Integer.parseInt(predicate.substring(predicate.indexOf("= ") + 2, predicate.indexOf('\n')));
+    }
+}
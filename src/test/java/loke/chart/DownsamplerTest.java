@@ -0,0 +1,59 @@
+package loke.chart;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DownsamplerTest {
+
+    @Test
+    public void downsample_keepsThePeakAndTheEnds() throws Exception {
+        List<Double> hourly = new ArrayList<>();
+        for (int i = 0; i < 24 * 90; i++) {
+            hourly.add(10 + Math.sin(i / 10.0));
+        }
+        hourly.set(1234, 500.0);
+
+        List<Double> sampled = Downsampler.downsample(hourly, 120);
+
+        assertEquals(120, sampled.size());
+        assertEquals(500.0, Collections.max(sampled), 0);
+        assertEquals(hourly.get(0), sampled.get(0));
+        assertEquals(hourly.get(hourly.size() - 1), sampled.get(sampled.size() - 1));
+    }
+
+    @Test
+    public void downsample_shortSeries_isKept() throws Exception {
+        List<Double> daily = Arrays.asList(1.0, 2.0, 3.0);
+
+        assertSame(daily, Downsampler.downsample(daily, 30));
+        assertSame(daily, Downsampler.downsample(daily, 0));
+    }
+
+    @Test
+    public void selectIndices_ofTheSum_keepsTheSameDaysInEveryLine() throws Exception {
+        List<Double> first = new ArrayList<>();
+        List<Double> second = new ArrayList<>();
+        for (int i = 0; i < 90; i++) {
+            first.add(i == 20 ? 100.0 : 1.0);
+            second.add(i == 70 ? 100.0 : 2.0);
+        }
+
+        int[] kept = Downsampler.selectIndices(Downsampler.sum(Arrays.asList(first, second)), 10);
+
+        assertEquals(10, kept.length);
+        assertEquals(Downsampler.select(first, kept).size(), Downsampler.select(second, kept).size());
+        assertTrue(Arrays.stream(kept).anyMatch(index -> index == 20));
+        assertTrue(Arrays.stream(kept).anyMatch(index -> index == 70));
+        for (int i = 1; i < kept.length; i++) {
+            assertTrue(kept[i] > kept[i - 1]);
+        }
+    }
+}
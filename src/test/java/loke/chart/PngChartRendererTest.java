@@ -0,0 +1,71 @@
+package loke.chart;
+
+import com.googlecode.charts4j.Color;
+import loke.site.SiteStorage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PngChartRendererTest {
+
+    @Test
+    public void render_sameChart_isDrawnOnce() throws Exception {
+        MemoryStorage storage = new MemoryStorage();
+
+        String first = new PngChartRenderer(storage, "https://reports.doe.com").render(chart(10.0, 20.0));
+        String second = new PngChartRenderer(storage, "https://reports.doe.com").render(chart(10.0, 20.0));
+        String changed = new PngChartRenderer(storage, "https://reports.doe.com").render(chart(10.0, 30.0));
+
+        assertEquals(first, second);
+        assertNotEquals(first, changed);
+        assertTrue(first.startsWith("https://reports.doe.com/charts/"));
+        assertEquals(2, storage.writes);
+    }
+
+    @Test
+    public void draw_writesAPng() throws Exception {
+        byte[] png = PngChartRenderer.draw(chart(10.0, 20.0));
+
+        assertEquals((byte) 0x89, png[0]);
+        assertEquals('P', png[1]);
+        assertEquals('N', png[2]);
+        assertEquals('G', png[3]);
+    }
+
+    private static LineChartSpec chart(Double... values) {
+        List<LineChartSpec.Series> series = new ArrayList<>();
+        series.add(new LineChartSpec.Series("EC2 30.00", Color.BLUE, Arrays.asList(values)));
+        LineChartSpec chart = new LineChartSpec(series);
+        chart.setXAxisLabels(Arrays.asList("07", "08"));
+        chart.setYAxisLabels(Arrays.asList(0, 10, 20, 30));
+        chart.setXAxisTitle("Day");
+        chart.setYAxisTitle("Cost in USD");
+        chart.setSize(1000, 300);
+        chart.setTitle("Total spend for john.doe");
+        return chart;
+    }
+
+    private static class MemoryStorage implements SiteStorage {
+        private final Map<String, byte[]> files = new HashMap<>();
+        private int writes;
+
+        @Override
+        public boolean exists(String path) {
+            return files.containsKey(path);
+        }
+
+        @Override
+        public void write(String path, byte[] content) {
+            files.put(path, content);
+            writes++;
+        }
+    }
+}
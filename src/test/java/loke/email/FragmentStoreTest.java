@@ -0,0 +1,55 @@
+package loke.email;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class FragmentStoreTest {
+    private FragmentStore fragmentStore = new FragmentStore();
+
+    @Test
+    public void put_sameContent_isStoredOnce() throws Exception {
+        String first = fragmentStore.put("<div>table</div><br>");
+        String second = fragmentStore.put("<div>table</div><br>");
+        String other = fragmentStore.put("<div>other</div><br>");
+
+        assertEquals(first, second);
+        assertNotEquals(first, other);
+        assertEquals(2, fragmentStore.size());
+    }
+
+    @Test
+    public void assemble_concatenatesFragmentsInOrder() throws Exception {
+        String chart = fragmentStore.put("<img src=\"url\"/img><br>");
+        String table = fragmentStore.put("<div>Total: $2 000.00 \u2013 \u00e5\u00e4\u00f6</div><br>");
+
+        String htmlBody = fragmentStore.assemble(Arrays.asList(chart, table, chart));
+
+        assertEquals("<img src=\"url\"/img><br><div>Total: $2 000.00 \u2013 \u00e5\u00e4\u00f6</div><br><img src=\"url\"/img><br>",
+                htmlBody);
+    }
+
+    @Test
+    public void release_lastReference_dropsTheFragment() throws Exception {
+        String table = fragmentStore.put("<div>table</div><br>");
+        fragmentStore.put("<div>table</div><br>");
+        String other = fragmentStore.put("<div>other</div><br>");
+
+        fragmentStore.release(Arrays.asList(table, other));
+        assertEquals(1, fragmentStore.size());
+        assertEquals("<div>table</div><br>", fragmentStore.assemble(Arrays.asList(table)));
+
+        fragmentStore.release(Arrays.asList(table));
+        assertEquals(0, fragmentStore.size());
+        assertNull(fragmentStore.get(table));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void assemble_unknownKey_throwsException() throws Exception {
+        fragmentStore.assemble(Arrays.asList("unknown"));
+    }
+}
@@ -0,0 +1,121 @@
+package loke.email;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OutboxTest {
+    private static final LocalDate RUN_DATE = LocalDate.of(2017, 10, 30);
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("outbox");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void add_sameEmailTwice_spoolsItOnce() throws Exception {
+        Outbox outbox = new Outbox(directory, RUN_DATE);
+
+        String first = outbox.add("john.doe@doe.com", "loke@doe.com", message("Table 1"));
+        String second = new Outbox(directory, RUN_DATE).add("john.doe@doe.com", "loke@doe.com", message("Table 1"));
+
+        assertEquals(first, second);
+        assertEquals(1, Files.readAllLines(directory.resolve("index.csv")).size());
+        assertEquals(1, outbox.getPendingCount());
+    }
+
+    @Test
+    public void add_sameEmailInALaterRun_spoolsItAgain() throws Exception {
+        Outbox outbox = new Outbox(directory, RUN_DATE);
+        String first = outbox.add("john.doe@doe.com", "loke@doe.com", message("Table 1"));
+        outbox.drain(new RecordingSesHandler(new HashSet<>()));
+
+        Outbox nextRun = new Outbox(directory, RUN_DATE.plusDays(7));
+        String second = nextRun.add("john.doe@doe.com", "loke@doe.com", message("Table 1"));
+
+        assertNotEquals(first, second);
+        assertEquals(1, nextRun.getPendingCount());
+    }
+
+    @Test
+    public void drain_sendsEveryEmailOnce() throws Exception {
+        Outbox outbox = new Outbox(directory, RUN_DATE);
+        outbox.add("john.doe@doe.com", "loke@doe.com", message("Table 1"));
+        outbox.add("jane.doe@doe.com", "loke@doe.com", message("Table 2"));
+        RecordingSesHandler sesHandler = new RecordingSesHandler(new HashSet<>());
+
+        assertEquals(2, outbox.drain(sesHandler));
+        assertEquals(0, outbox.drain(sesHandler));
+
+        assertEquals(2, sesHandler.sent.size());
+        assertEquals("john.doe@doe.com", sesHandler.sent.get(0));
+        assertEquals(0, outbox.getPendingCount());
+    }
+
+    @Test
+    public void drain_afterFailedSend_resumesWithTheEmailsNotSent() throws Exception {
+        Outbox outbox = new Outbox(directory, RUN_DATE);
+        String failing = outbox.add("john.doe@doe.com", "loke@doe.com", message("Table 1"));
+        String sent = outbox.add("jane.doe@doe.com", "loke@doe.com", message("Table 2"));
+        Set<String> failingRecipients = new HashSet<>();
+        failingRecipients.add("john.doe@doe.com");
+
+        assertEquals(1, outbox.drain(new RecordingSesHandler(failingRecipients)));
+        assertFalse(outbox.isSent(failing));
+        assertTrue(outbox.isSent(sent));
+
+        RecordingSesHandler resumed = new RecordingSesHandler(new HashSet<>());
+        assertEquals(1, new Outbox(directory, RUN_DATE).drain(resumed));
+        assertEquals(1, resumed.sent.size());
+        assertEquals("john.doe@doe.com", resumed.sent.get(0));
+    }
+
+    private static byte[] message(String body) {
+        return RawEmail.createMessage("loke@doe.com", "john.doe@doe.com", "Weekly AWS cost report",
+                body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class RecordingSesHandler extends AwsSesHandler {
+        private final Set<String> failingRecipients;
+        private final List<String> sent = new ArrayList<>();
+
+        private RecordingSesHandler(Set<String> failingRecipients) {
+            super(null);
+            this.failingRecipients = failingRecipients;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> sendRawEmail(String to, String from, byte[] rawMessage) {
+            if (failingRecipients.contains(to)) {
+                return CompletableFuture.completedFuture(false);
+            }
+            sent.add(to);
+            return CompletableFuture.completedFuture(true);
+        }
+    }
+}
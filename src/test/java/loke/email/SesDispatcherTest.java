@@ -0,0 +1,159 @@
+package loke.email;
+
+import com.amazonaws.services.simpleemail.AbstractAmazonSimpleEmailService;
+import com.amazonaws.services.simpleemail.model.AmazonSimpleEmailServiceException;
+import com.amazonaws.services.simpleemail.model.BulkEmailDestination;
+import com.amazonaws.services.simpleemail.model.BulkEmailDestinationStatus;
+import com.amazonaws.services.simpleemail.model.Destination;
+import com.amazonaws.services.simpleemail.model.GetSendQuotaRequest;
+import com.amazonaws.services.simpleemail.model.GetSendQuotaResult;
+import com.amazonaws.services.simpleemail.model.SendBulkTemplatedEmailRequest;
+import com.amazonaws.services.simpleemail.model.SendBulkTemplatedEmailResult;
+import com.amazonaws.services.simpleemail.model.SendEmailRequest;
+import com.amazonaws.services.simpleemail.model.SendEmailResult;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SesDispatcherTest {
+
+    @Test
+    public void send_fasterThanSesAllows_retriesThrottledEmailsAndLowersTheRate() throws Exception {
+        LocalSes ses = new LocalSes(20, 1000);
+        SesDispatcher dispatcher = new SesDispatcher(ses, 200, 8);
+        dispatcher.setBaseBackoffMillis(10);
+        dispatcher.setMaxRetries(20);
+
+        for (int i = 0; i < 40; i++) {
+            dispatcher.send("employee" + i, new SendEmailRequest());
+        }
+        dispatcher.close();
+
+        assertEquals(40, ses.accepted.get());
+        assertEquals(40, dispatcher.getSentCount());
+        assertEquals(0, dispatcher.getFailedCount());
+        assertTrue(dispatcher.getThrottledCount() > 0);
+        assertTrue(dispatcher.getLimiter().getRate() < 200);
+        assertTrue(dispatcher.getAchievedRate() > 0);
+    }
+
+    @Test
+    public void send_dailyQuotaExceeded_doesNotRetry() throws Exception {
+        LocalSes ses = new LocalSes(100, 2);
+        SesDispatcher dispatcher = new SesDispatcher(ses, 100, 2);
+        dispatcher.setBaseBackoffMillis(1);
+
+        for (int i = 0; i < 5; i++) {
+            dispatcher.send("employee" + i, new SendEmailRequest());
+        }
+        dispatcher.close();
+
+        assertEquals(2, dispatcher.getSentCount());
+        assertEquals(3, dispatcher.getFailedCount());
+        assertEquals(0, dispatcher.getThrottledCount());
+        assertEquals(5, ses.requests.get());
+    }
+
+    @Test
+    public void send_bulkRequest_countsEveryDestinationAgainstTheRate() throws Exception {
+        LocalSes ses = new LocalSes(30, 1000);
+        SesDispatcher dispatcher = new SesDispatcher(ses, 30, 2);
+        dispatcher.setBaseBackoffMillis(10);
+        dispatcher.setMaxRetries(20);
+
+        for (int i = 0; i < 3; i++) {
+            List<BulkEmailDestination> destinations = new ArrayList<>();
+            for (int j = 0; j < 20; j++) {
+                destinations.add(new BulkEmailDestination()
+                        .withDestination(new Destination().withToAddresses("employee" + i + "-" + j)));
+            }
+            dispatcher.send(new SendBulkTemplatedEmailRequest().withDestinations(destinations));
+        }
+        dispatcher.close();
+
+        assertEquals(60, ses.accepted.get());
+        assertEquals(60, dispatcher.getSentCount());
+        assertEquals(0, dispatcher.getFailedCount());
+    }
+
+    @Test
+    public void maxSendRate_notConfigured_usesTheSendQuotaOfTheAccount() throws Exception {
+        SesDispatcher dispatcher = new SesDispatcher(new LocalSes(14, 1000), 0, 1);
+
+        assertEquals(14, dispatcher.getLimiter().getMaxRate(), 0);
+        dispatcher.close();
+    }
+
+    /**
+     * Stand-in for SES that accepts at most maxSendRate emails in any second and maxDailySend emails in total, and
+     * answers like SES when either is exceeded.
+     */
+    private static class LocalSes extends AbstractAmazonSimpleEmailService {
+        private final int maxSendRate;
+        private final int maxDailySend;
+        private final Deque<Long> sendTimes = new ArrayDeque<>();
+        private final AtomicInteger accepted = new AtomicInteger();
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private LocalSes(int maxSendRate, int maxDailySend) {
+            this.maxSendRate = maxSendRate;
+            this.maxDailySend = maxDailySend;
+        }
+
+        @Override
+        public GetSendQuotaResult getSendQuota(GetSendQuotaRequest request) {
+            return new GetSendQuotaResult()
+                    .withMaxSendRate((double) maxSendRate)
+                    .withMax24HourSend((double) maxDailySend);
+        }
+
+        @Override
+        public SendEmailResult sendEmail(SendEmailRequest request) {
+            accept(1);
+            return new SendEmailResult();
+        }
+
+        @Override
+        public SendBulkTemplatedEmailResult sendBulkTemplatedEmail(SendBulkTemplatedEmailRequest request) {
+            accept(request.getDestinations().size());
+            List<BulkEmailDestinationStatus> statuses = new ArrayList<>();
+            for (int i = 0; i < request.getDestinations().size(); i++) {
+                statuses.add(new BulkEmailDestinationStatus().withStatus("Success"));
+            }
+            return new SendBulkTemplatedEmailResult().withStatus(statuses);
+        }
+
+        private synchronized void accept(int emails) {
+            requests.incrementAndGet();
+            if (accepted.get() + emails > maxDailySend) {
+                throw throttling("Daily message quota exceeded.");
+            }
+            long now = System.nanoTime();
+            while (!sendTimes.isEmpty() && now - sendTimes.peekFirst() >= TimeUnit.SECONDS.toNanos(1)) {
+                sendTimes.pollFirst();
+            }
+            if (sendTimes.size() + emails > maxSendRate) {
+                throw throttling("Maximum sending rate exceeded.");
+            }
+            for (int i = 0; i < emails; i++) {
+                sendTimes.addLast(now);
+            }
+            accepted.addAndGet(emails);
+        }
+
+        private AmazonSimpleEmailServiceException throttling(String message) {
+            AmazonSimpleEmailServiceException exception = new AmazonSimpleEmailServiceException(message);
+            exception.setErrorCode("Throttling");
+            exception.setStatusCode(400);
+            return exception;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package loke.journal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FirstSeenIndexTest {
+    private static final LocalDate SEEN = LocalDate.of(2017, 10, 30);
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("firstseen");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void getFirstSeen_afterSave_isReadFromTheFile() throws Exception {
+        FirstSeenIndex index = new FirstSeenIndex(directory.resolve("first-seen.idx"));
+        assertTrue(index.isEmpty());
+        for (int i = 0; i < 1000; i++) {
+            index.add("i-" + i, SEEN.minusDays(i % 30));
+        }
+        index.save();
+
+        FirstSeenIndex loaded = new FirstSeenIndex(directory.resolve("first-seen.idx"));
+
+        assertFalse(loaded.isEmpty());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(SEEN.minusDays(i % 30), loaded.getFirstSeen("i-" + i));
+        }
+        assertNull(loaded.getFirstSeen("i-1000"));
+        assertNull(loaded.getFirstSeen(""));
+    }
+
+    @Test
+    public void add_keepsTheEarliestDate() throws Exception {
+        FirstSeenIndex index = new FirstSeenIndex(directory.resolve("first-seen.idx"));
+        index.add("i-1", SEEN);
+        index.save();
+        index.add("i-1", SEEN.plusDays(7));
+        index.add("i-2", SEEN.plusDays(7));
+        index.save();
+        index.add("i-2", SEEN);
+        index.save();
+
+        FirstSeenIndex loaded = new FirstSeenIndex(directory.resolve("first-seen.idx"));
+
+        assertEquals(SEEN, loaded.getFirstSeen("i-1"));
+        assertEquals(SEEN, loaded.getFirstSeen("i-2"));
+    }
+
+    @Test
+    public void getUpdatedTo_afterSave_isReadFromTheFile() throws Exception {
+        FirstSeenIndex index = new FirstSeenIndex(directory.resolve("first-seen.idx"));
+        assertNull(index.getUpdatedTo());
+        index.add("i-1", SEEN);
+        index.save();
+        index.setUpdatedTo(SEEN.plusDays(7));
+        index.save();
+
+        FirstSeenIndex loaded = new FirstSeenIndex(directory.resolve("first-seen.idx"));
+
+        assertEquals(SEEN.plusDays(7), loaded.getUpdatedTo());
+        assertEquals(SEEN, loaded.getFirstSeen("i-1"));
+    }
+
+    @Test
+    public void firstSeenIndex_truncatedFile_isNotAnIndex() throws Exception {
+        Path file = directory.resolve("first-seen.idx");
+        FirstSeenIndex index = new FirstSeenIndex(file);
+        for (int i = 0; i < 100; i++) {
+            index.add("i-" + i, SEEN);
+        }
+        index.save();
+        byte[] saved = Files.readAllBytes(file);
+
+        for (int length : new int[]{0, 10, saved.length / 2, saved.length - 1}) {
+            Files.write(file, Arrays.copyOf(saved, length));
+            try {
+                new FirstSeenIndex(file);
+                fail("A first seen index cut to " + length + " bytes was read");
+            } catch (RuntimeException e) {
+                assertEquals("Not a first seen index: " + file, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package loke.journal;
+
+import loke.model.Employee;
+import loke.model.Report;
+import loke.model.TotalReport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RunJournalTest {
+    private static final LocalDate REPORT_DATE = LocalDate.of(2017, 10, 30);
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void complete_stage_isRememberedByTheNextRunForTheSameDate() throws Exception {
+        new RunJournal(directory, REPORT_DATE).complete(RunJournal.Stage.CONVERSION, "billing.csv.gz");
+
+        RunJournal resumed = new RunJournal(directory, REPORT_DATE);
+        RunJournal nextWeek = new RunJournal(directory, REPORT_DATE.plusDays(7));
+
+        assertTrue(resumed.isCompleted(RunJournal.Stage.CONVERSION));
+        assertEquals("billing.csv.gz", resumed.getStageDetail(RunJournal.Stage.CONVERSION));
+        assertFalse(resumed.isCompleted(RunJournal.Stage.EMPLOYEE_REPORTS));
+        assertFalse(nextWeek.isCompleted(RunJournal.Stage.CONVERSION));
+    }
+
+    @Test
+    public void loadReports_returnsTheSavedReports() throws Exception {
+        Employee employee = new Employee("john.doe");
+        Report report = new Report("john.doe");
+        report.setHtmlTable("<table>Table 1 \u00e5\u00e4\u00f6</table>");
+        TotalReport totalReport = new TotalReport("john.doe");
+        totalReport.setChartUrl("https://chart.googleapis.com/chart?cht=lc");
+        employee.addReport(report);
+        employee.addReport(totalReport);
+        new RunJournal(directory, REPORT_DATE).saveReports(RunJournal.Stage.EMPLOYEE_REPORTS,
+                Arrays.asList(employee));
+
+        RunJournal resumed = new RunJournal(directory, REPORT_DATE);
+        List<Employee> employees = resumed.loadReports(RunJournal.Stage.EMPLOYEE_REPORTS);
+
+        assertTrue(resumed.isCompleted(RunJournal.Stage.EMPLOYEE_REPORTS));
+        assertEquals(1, employees.size());
+        assertEquals("john.doe", employees.get(0).getUserName());
+        List<Report> reports = employees.get(0).getReports();
+        assertFalse(reports.get(0) instanceof TotalReport);
+        assertEquals("<table>Table 1 \u00e5\u00e4\u00f6</table>", reports.get(0).getHtmlTable());
+        assertNull(reports.get(0).getChartUrl());
+        assertTrue(reports.get(1) instanceof TotalReport);
+        assertEquals("https://chart.googleapis.com/chart?cht=lc", reports.get(1).getChartUrl());
+    }
+
+    @Test
+    public void get_cachedQuery_returnsTheRows() throws Exception {
+        List<CostRow> rows = new ArrayList<>();
+        CostRow row = new CostRow();
+        row.userOwner = "john.doe";
+        row.cost = 12.5;
+        rows.add(row);
+        new RunJournal(directory, REPORT_DATE).put("SELECT * FROM billing", rows);
+
+        RunJournal resumed = new RunJournal(directory, REPORT_DATE);
+        List<CostRow> cached = resumed.get("SELECT * FROM billing", CostRow.class);
+
+        assertEquals(1, cached.size());
+        assertEquals("john.doe", cached.get(0).userOwner);
+        assertEquals(12.5, cached.get(0).cost, 0);
+        assertNull(resumed.get("SELECT * FROM other", CostRow.class));
+    }
+
+    @Test
+    public void isSent_isKeptPerKindOfEmail() throws Exception {
+        new RunJournal(directory, REPORT_DATE).markSent("employee", "john.doe@doe.com");
+
+        RunJournal resumed = new RunJournal(directory, REPORT_DATE);
+
+        assertTrue(resumed.isSent("employee", "john.doe@doe.com"));
+        assertFalse(resumed.isSent("admin", "john.doe@doe.com"));
+    }
+
+    public static class CostRow {
+        public String userOwner;
+        public double cost;
+    }
+}
@@ -0,0 +1,73 @@
+package loke.model;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactTextTest {
+
+    @After
+    public void tearDown() throws Exception {
+        CompactText.setCompressionThreshold(8192);
+    }
+
+    @Test
+    public void of_shortText_isNotCompressed() throws Exception {
+        CompactText compactText = CompactText.of("<table>Table 1</table>");
+
+        assertFalse(compactText.isCompressed());
+        assertEquals("<table>Table 1</table>", compactText.getText());
+    }
+
+    @Test
+    public void of_largeText_isCompressedAndRestored() throws Exception {
+        CompactText.setCompressionThreshold(1024);
+        String table = createTable(200);
+
+        CompactText compactText = CompactText.of(table);
+
+        assertTrue(compactText.isCompressed());
+        assertTrue(compactText.getStoredSize() < compactText.getLength() / 4);
+        assertEquals(table.getBytes(StandardCharsets.UTF_8).length, compactText.getLength());
+        assertEquals(table, compactText.getText());
+    }
+
+    @Test
+    public void writeTo_compressedText_writesUtf8Bytes() throws Exception {
+        CompactText.setCompressionThreshold(0);
+        String table = createTable(50);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        CompactText.of(table).writeTo(out);
+
+        assertEquals(table, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void of_negativeThreshold_neverCompresses() throws Exception {
+        CompactText.setCompressionThreshold(-1);
+
+        assertFalse(CompactText.of(createTable(200)).isCompressed());
+    }
+
+    @Test
+    public void of_null_returnsNull() throws Exception {
+        assertNull(CompactText.of(null));
+    }
+
+    private String createTable(int rows) {
+        StringBuilder table = new StringBuilder("<table>");
+        for (int i = 0; i < rows; i++) {
+            table.append("<tr><td nowrap style=\"border:1px solid #ddd;padding:8px\">Amazon Elastic Compute Cloud ")
+                    .append(i).append(" \u2013 1 234.56</td></tr>\n");
+        }
+        return table.append("</table>").toString();
+    }
+}
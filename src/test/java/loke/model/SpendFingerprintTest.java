@@ -0,0 +1,43 @@
+package loke.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpendFingerprintTest {
+
+    @Test
+    public void addRow_inAnyOrder_givesTheSameHash() throws Exception {
+        SpendFingerprint first = fingerprint(100, "resource:Amazon EC2", "resource:Amazon S3");
+        SpendFingerprint second = fingerprint(100, "resource:Amazon S3", "resource:Amazon EC2");
+
+        assertEquals(first.getHash(), second.getHash());
+    }
+
+    @Test
+    public void isUnchangedSince_smallChange_isUnchanged() throws Exception {
+        SpendFingerprint lastWeek = fingerprint(100, "resource:Amazon EC2");
+
+        assertTrue(fingerprint(104, "resource:Amazon EC2").isUnchangedSince(lastWeek, 5));
+        assertFalse(fingerprint(106, "resource:Amazon EC2").isUnchangedSince(lastWeek, 5));
+        assertFalse(fingerprint(94, "resource:Amazon EC2").isUnchangedSince(lastWeek, 5));
+    }
+
+    @Test
+    public void isUnchangedSince_newRow_isChanged() throws Exception {
+        SpendFingerprint lastWeek = fingerprint(100, "resource:Amazon EC2");
+
+        assertFalse(fingerprint(100, "resource:Amazon EC2", "resource:Amazon S3").isUnchangedSince(lastWeek, 5));
+    }
+
+    private static SpendFingerprint fingerprint(double total, String... rows) {
+        SpendFingerprint fingerprint = new SpendFingerprint();
+        for (String row : rows) {
+            fingerprint.addRow(row);
+        }
+        fingerprint.addCost(total);
+        return fingerprint;
+    }
+}
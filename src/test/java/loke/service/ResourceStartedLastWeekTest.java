@@ -33,6 +33,24 @@ public class ResourceStartedLastWeekTest {
 
     @Test
     public void canCreateTable() throws Exception {
+        mockDbResponse();
+
+        String expected = ResourceLoaderTestUtility.loadResource("htmltables/ResourceStartedLastWeekTestTable.html");
+        String result = resourceStartedLastWeek.getReports().get(0).getHtmlTable();
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void canCreateTable_withPrecompiledTemplates() throws Exception {
+        mockDbResponse();
+        resourceStartedLastWeek.setPrecompiledTemplates(true);
+
+        String expected = ResourceLoaderTestUtility.loadResource("htmltables/ResourceStartedLastWeekTestTable.html");
+        String result = resourceStartedLastWeek.getReports().get(0).getHtmlTable();
+        assertEquals(expected, result);
+    }
+
+    private void mockDbResponse() {
         List<ResourceStartedLastWeekDao> resultList = new ArrayList<>();
         resultList.add(createDbResponse("QA", "john.doe", "Ec2", "i-01def0a998e06c30e", "2017-09-19", 1000));
         resultList.add(createDbResponse("Nova", "john.doe", "Ec2", "v-01def02344e06c30e", "2017-09-20", 1000));
@@ -41,10 +59,6 @@ public class ResourceStartedLastWeekTest {
         queryResult.setResultList(resultList);
 
         Mockito.when(athenaClient.executeQuery(sqlQuery, ResourceStartedLastWeekDao.class)).thenReturn(queryResult);
-
-        String expected = ResourceLoaderTestUtility.loadResource("htmltables/ResourceStartedLastWeekTestTable.html");
-        String result = resourceStartedLastWeek.getReports().get(0).getHtmlTable();
-        assertEquals(expected, result);
     }
 
 
@@ -2,7 +2,6 @@ package loke.service;
 
 import loke.aws.db.AthenaClient;
 import loke.utils.CalendarGenerator;
-import loke.utils.ColorPicker;
 import loke.utils.ResourceLoader;
 import loke.utils.SqlConfigInjector;
 import org.junit.Before;
@@ -36,11 +35,29 @@ public class SpendPerEmployeeByAccountTest {
         String userOwnerRegExp = "john.doe";
         SqlConfigInjector sqlConfigInjector = new SqlConfigInjector("database", "table");
         this.sqlQuery = sqlConfigInjector.injectSqlConfig(ResourceLoader.getResource("sql/SpendPerEmployeeByAccount.sql"));
-        spendPerEmployeeByAccount = new SpendPerEmployeeByAccount(athenaClient, userOwnerRegExp, 0, new HashMap<>(), new ColorPicker(), sqlConfigInjector);
+        spendPerEmployeeByAccount = new SpendPerEmployeeByAccount(athenaClient, userOwnerRegExp, 0, new HashMap<>(), sqlConfigInjector);
     }
 
     @Test
     public void canCreateTable() throws Exception {
+        mockDbResponse();
+
+        String expected = ResourceLoaderTestUtility.loadResource("htmltables/SpendPerUserAndAccountTestTable.html");
+        String result = spendPerEmployeeByAccount.getReports().get(0).getHtmlTable();
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void canCreateTable_withPrecompiledTemplates() throws Exception {
+        mockDbResponse();
+        spendPerEmployeeByAccount.setPrecompiledTemplates(true);
+
+        String expected = ResourceLoaderTestUtility.loadResource("htmltables/SpendPerUserAndAccountTestTable.html");
+        String result = spendPerEmployeeByAccount.getReports().get(0).getHtmlTable();
+        assertEquals(expected, result);
+    }
+
+    private void mockDbResponse() {
         List<SpendPerEmployeeByAccount.SpendPerEmployeeAndAccountDao> spendPerEmployeeAndAccountDaos = new ArrayList<>();
         spendPerEmployeeAndAccountDaos.add(createDbResponse("john.doe", "QA", "Ec2", "2017-09-01 09:00:00", 100));
         spendPerEmployeeAndAccountDaos.add(createDbResponse("john.doe", "QA", "Ec2", "2017-09-02 09:00:00", 100));
@@ -51,10 +68,6 @@ public class SpendPerEmployeeByAccountTest {
         queryResult.setResultList(spendPerEmployeeAndAccountDaos);
 
         when(athenaClient.executeQuery(sqlQuery, SpendPerEmployeeAndAccountDao.class)).thenReturn(queryResult);
-
-        String expected = ResourceLoaderTestUtility.loadResource("htmltables/SpendPerUserAndAccountTestTable.html");
-        String result = spendPerEmployeeByAccount.getReports().get(0).getHtmlTable();
-        assertEquals(expected, result);
     }
 
     private SpendPerEmployeeAndAccountDao createDbResponse(String userOwner, String accountId, String productName,
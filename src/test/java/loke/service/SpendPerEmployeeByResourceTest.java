@@ -4,7 +4,6 @@ import loke.aws.db.AthenaClient;
 import loke.aws.db.JdbcManager.QueryResult;
 import loke.service.SpendPerEmployeeByResource.SpendPerEmployeeByResourceDao;
 import loke.utils.CalendarGenerator;
-import loke.utils.ColorPicker;
 import loke.utils.ResourceLoader;
 import loke.utils.SqlConfigInjector;
 import org.junit.Before;
@@ -18,6 +17,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -37,11 +38,41 @@ public class SpendPerEmployeeByResourceTest {
         String userOwnerRegExp = "john.doe";
         SqlConfigInjector sqlConfigInjector = new SqlConfigInjector("database", "table");
         this.sqlQuery = sqlConfigInjector.injectSqlConfig(ResourceLoader.getResource("sql/SpendPerEmployeeByResource.sql"));
-        spendPerEmployeeByResource = new SpendPerEmployeeByResource(athenaClient, userOwnerRegExp, 0,new ColorPicker(), sqlConfigInjector);
+        spendPerEmployeeByResource = new SpendPerEmployeeByResource(athenaClient, userOwnerRegExp, 0, sqlConfigInjector);
     }
 
     @Test
     public void canCreateTable() throws Exception {
+        mockDbResponse();
+
+        String expected = ResourceLoaderTestUtility.loadResource("htmltables/SpendPerEmployeeByResourceTestTable.html");
+        String result = spendPerEmployeeByResource.getReports().get(0).getHtmlTable();
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void canCreateTable_withPrecompiledTemplates() throws Exception {
+        mockDbResponse();
+        spendPerEmployeeByResource.setPrecompiledTemplates(true);
+
+        String expected = ResourceLoaderTestUtility.loadResource("htmltables/SpendPerEmployeeByResourceTestTable.html");
+        String result = spendPerEmployeeByResource.getReports().get(0).getHtmlTable();
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void getReports_withMaxResources_rollsTheCheapestIntoOther() throws Exception {
+        mockDbResponse();
+        spendPerEmployeeByResource.setMaxResources(2);
+
+        String result = spendPerEmployeeByResource.getReports().get(0).getHtmlTable();
+        assertTrue(result.contains("Elastic Map Reduce"));
+        assertTrue(result.contains("Loadbalancers"));
+        assertTrue(result.contains("Other (2 services)"));
+        assertFalse(result.contains("EC2"));
+    }
+
+    private void mockDbResponse() {
         List<SpendPerEmployeeByResourceDao> resultList = new ArrayList<>();
         resultList.add(createDbResponse("john.doe", "S3", "2017-11-07", 200));
         resultList.add(createDbResponse("john.doe", "EC2", "2017-11-07", 100));
@@ -52,10 +83,6 @@ public class SpendPerEmployeeByResourceTest {
         queryResult.setResultList(resultList);
 
         Mockito.when(athenaClient.executeQuery(sqlQuery, SpendPerEmployeeByResourceDao.class)).thenReturn(queryResult);
-
-        String expected = ResourceLoaderTestUtility.loadResource("htmltables/SpendPerEmployeeByResourceTestTable.html");
-        String result = spendPerEmployeeByResource.getReports().get(0).getHtmlTable();
-        assertEquals(expected, result);
     }
 
     public SpendPerEmployeeByResourceDao createDbResponse(String userOwner, String productName, String startDate, double cost) {
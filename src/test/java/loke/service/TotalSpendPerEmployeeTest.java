@@ -0,0 +1,74 @@
+package loke.service;
+
+import loke.aws.db.AthenaClient;
+import loke.aws.db.JdbcManager.QueryResult;
+import loke.model.OwnerSpend;
+import loke.service.TotalSpendPerEmployee.TotalSpendPerEmployeeDao;
+import loke.utils.CalendarGenerator;
+import loke.utils.ResourceLoader;
+import loke.utils.SqlConfigInjector;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TotalSpendPerEmployeeTest {
+
+    private String sqlQuery;
+    private AthenaClient athenaClient;
+    private TotalSpendPerEmployee totalSpendPerEmployee;
+
+    @Before
+    public void setUp() throws Exception {
+        Clock clock = mock(Clock.class);
+        CalendarGenerator.clock = clock;
+        when(clock.instant()).thenReturn(Instant.parse("2017-11-08T00:00:00Z"));
+        athenaClient = mock(AthenaClient.class);
+        SqlConfigInjector sqlConfigInjector = new SqlConfigInjector("database", "table");
+        this.sqlQuery = sqlConfigInjector.injectSqlConfig(ResourceLoader.getResource("sql/TotalSpendPerEmployee.sql"));
+        totalSpendPerEmployee = new TotalSpendPerEmployee(athenaClient, "john.doe", 0, sqlConfigInjector);
+    }
+
+    @Test
+    public void getOwnerSpends_splitsTheLastTwoWeeks() throws Exception {
+        mockDbResponse();
+        totalSpendPerEmployee.fetchData();
+
+        List<OwnerSpend> ownerSpends = totalSpendPerEmployee.getOwnerSpends();
+
+        assertEquals(1, ownerSpends.size());
+        assertEquals("john.doe", ownerSpends.get(0).getOwner());
+        assertEquals(150, ownerSpends.get(0).getTotal(), 0);
+        assertEquals(100, ownerSpends.get(0).getLastWeek(), 0);
+        assertEquals(40, ownerSpends.get(0).getPreviousWeek(), 0);
+        assertEquals(60, ownerSpends.get(0).getWeekOverWeekChange(), 0);
+    }
+
+    private void mockDbResponse() {
+        List<TotalSpendPerEmployeeDao> resultList = new ArrayList<>();
+        resultList.add(createDbResponse("john.doe", "2017-11-07", 100));
+        resultList.add(createDbResponse("john.doe", "2017-10-30", 40));
+        resultList.add(createDbResponse("john.doe", "2017-10-15", 10));
+
+        QueryResult queryResult = new QueryResult();
+        queryResult.setResultList(resultList);
+
+        Mockito.when(athenaClient.executeQuery(sqlQuery, TotalSpendPerEmployeeDao.class)).thenReturn(queryResult);
+    }
+
+    private TotalSpendPerEmployeeDao createDbResponse(String userOwner, String startDate, double cost) {
+        TotalSpendPerEmployeeDao totalSpend = new TotalSpendPerEmployeeDao();
+        totalSpend.userOwner = userOwner;
+        totalSpend.startDate = startDate;
+        totalSpend.cost = cost;
+        return totalSpend;
+    }
+}
@@ -0,0 +1,74 @@
+package loke.site;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReportSiteTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("site");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void publish_unchangedReport_keepsTheSamePage() throws Exception {
+        String first = new ReportSite(new LocalSiteStorage(directory), "https://reports.doe.com")
+                .publish("john.doe", "<table>Table 1</table>");
+        String second = new ReportSite(new LocalSiteStorage(directory), "https://reports.doe.com")
+                .publish("john.doe", "<table>Table 1</table>");
+        String changed = new ReportSite(new LocalSiteStorage(directory), "https://reports.doe.com")
+                .publish("john.doe", "<table>Table 2</table>");
+
+        assertEquals(first, second);
+        assertNotEquals(first, changed);
+        assertTrue(first.startsWith("https://reports.doe.com/reports/john.doe-"));
+        try (Stream<Path> pages = Files.list(directory.resolve("reports"))) {
+            assertEquals(2, pages.count());
+        }
+    }
+
+    @Test
+    public void writeIndex_linksToThePublishedPagesFromARandomPath() throws Exception {
+        ReportSite reportSite = new ReportSite(new LocalSiteStorage(directory), "https://reports.doe.com/");
+        String page = reportSite.publish("john.doe", "<table>Table 1</table>");
+
+        String url = reportSite.writeIndex();
+
+        assertTrue(url.matches("https://reports\\.doe\\.com/admin/[0-9a-f]{32}/index\\.html"));
+        assertNotEquals(url, reportSite.writeIndex());
+        assertFalse(Files.exists(directory.resolve("index.html")));
+        Path indexPath = directory.resolve(url.substring("https://reports.doe.com/".length()));
+        String index = new String(Files.readAllBytes(indexPath), StandardCharsets.UTF_8);
+        assertTrue(index.contains("<a href=\"../../" + page.substring("https://reports.doe.com/".length())
+                + "\">john.doe</a>"));
+    }
+
+    @Test
+    public void publish_escapesTheOwnerInTheTitle() throws Exception {
+        String page = new ReportSite(new LocalSiteStorage(directory), null)
+                .publish("<b>john</b>", "<table>Table 1</table>");
+
+        String html = new String(Files.readAllBytes(directory.resolve(page)), StandardCharsets.UTF_8);
+        assertTrue(html.contains("<title>AWS cost report for &lt;b&gt;john&lt;/b&gt;</title>"));
+    }
+}
@@ -0,0 +1,31 @@
+package loke.utils;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+
+public class BillingPartitionTest {
+
+    @Test
+    public void fromFileName_readsTheBillingMonth() throws Exception {
+        BillingPartition partition = BillingPartition.fromFileName(
+                "123456789012-aws-billing-detailed-line-items-with-resources-and-tags-2017-09.csv.gz");
+
+        assertEquals("year=2017/month=09/", partition.getKeyPrefix());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromFileName_withoutMonth_throws() throws Exception {
+        BillingPartition.fromFileName("billing.csv.gz");
+    }
+
+    @Test
+    public void toSqlPredicate_groupsTheMonthsPerYear() throws Exception {
+        String predicate = BillingPartition.toSqlPredicate(
+                BillingPartition.between(LocalDate.of(2017, 11, 20), LocalDate.of(2018, 1, 2)));
+
+        assertEquals("((year = '2017' AND month IN ('11', '12')) OR (year = '2018' AND month IN ('01')))", predicate);
+    }
+}
@@ -0,0 +1,80 @@
+package loke.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedTimeSeriesTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long START = 1506816000000L;
+
+    @Test
+    public void forEach_returnsTheAppendedPoints() throws Exception {
+        long[] timestamps = {START, START + HOUR, START + 2 * HOUR, START + 5 * HOUR, START + 5 * HOUR + 1,
+                START + 40 * 24 * HOUR};
+        double[] values = {0.0, 12.5, 12.5, -3.25, 1e-9, Double.MAX_VALUE};
+        CompressedTimeSeries series = new CompressedTimeSeries();
+        for (int i = 0; i < timestamps.length; i++) {
+            series.append(timestamps[i], values[i]);
+        }
+
+        List<Long> readTimestamps = new ArrayList<>();
+        List<Double> readValues = new ArrayList<>();
+        series.forEach((timestamp, value) -> {
+            readTimestamps.add(timestamp);
+            readValues.add(value);
+        });
+
+        assertEquals(timestamps.length, series.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], (long) readTimestamps.get(i));
+            assertEquals(values[i], readValues.get(i), 0);
+        }
+    }
+
+    @Test
+    public void append_hourlyCostsOfAMonth_takeAFractionOfTheRawSize() throws Exception {
+        Random random = new Random(42);
+        CompressedTimeSeries series = new CompressedTimeSeries();
+        List<Double> values = new ArrayList<>();
+        for (int hour = 0; hour < 720; hour++) {
+            double value = hour % 24 < 8 ? 0.0 : Math.round(random.nextDouble() * 10000) / 100.0;
+            values.add(value);
+            series.append(START + hour * HOUR, value);
+        }
+
+        List<Double> readValues = new ArrayList<>();
+        series.forEach((timestamp, value) -> readValues.add(value));
+
+        assertEquals(values, readValues);
+        assertTrue(series.getEncodedSize() < 720 * 16 / 2);
+    }
+
+    @Test
+    public void sum_addsThePointsWithTheSameTimestamp() throws Exception {
+        CompressedTimeSeries first = new CompressedTimeSeries();
+        first.append(START, 1.0);
+        first.append(START + HOUR, 2.0);
+        CompressedTimeSeries second = new CompressedTimeSeries();
+        second.append(START + HOUR, 3.0);
+        second.append(START + 2 * HOUR, 4.0);
+
+        List<Double> values = new ArrayList<>();
+        CompressedTimeSeries.sum(Arrays.asList(first, second)).forEach((timestamp, value) -> values.add(value));
+
+        assertEquals(Arrays.asList(1.0, 5.0, 4.0), values);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void append_timestampNotAfterTheLastOne_throws() throws Exception {
+        CompressedTimeSeries series = new CompressedTimeSeries();
+        series.append(START, 1.0);
+        series.append(START, 2.0);
+    }
+}
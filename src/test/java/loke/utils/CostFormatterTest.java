@@ -0,0 +1,52 @@
+package loke.utils;
+
+import org.junit.Test;
+
+import java.text.DecimalFormat;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CostFormatterTest {
+    private CostFormatter zero = new CostFormatter(0);
+    private CostFormatter two = new CostFormatter(2);
+    private CostFormatter four = new CostFormatter(4);
+
+    @Test
+    public void format_withDecimalsEqualToZero_returnsTwoDecimals() throws Exception {
+        assertEquals("1.00", zero.format(1));
+        assertEquals("1.00", two.format(1.000));
+        assertEquals("1.00", four.format(1.00000));
+    }
+
+    @Test
+    public void format_roundsUpAndGroupsWithSpaces() throws Exception {
+        assertEquals("1.13", two.format(1.123456789));
+        assertEquals("1.1235", four.format(1.123456789));
+        assertEquals("1 234 567.90", two.format(1234567.891));
+        assertEquals("0.31", two.format(0.1 + 0.2));
+        assertEquals("-1.23", two.format(-1.2345));
+        assertEquals("0.00", two.format(0));
+    }
+
+    @Test
+    public void format_appendsToStringBuilder() throws Exception {
+        StringBuilder stringBuilder = new StringBuilder("Total: $");
+        two.format(2000, stringBuilder);
+        assertEquals("Total: $2 000.00", stringBuilder.toString());
+    }
+
+    @Test
+    public void format_matchesDecimalFormatFactory() throws Exception {
+        Random random = new Random(1);
+        for (int decimals = 0; decimals <= 6; decimals++) {
+            DecimalFormat decimalFormat = DecimalFormatFactory.create(decimals);
+            CostFormatter costFormatter = new CostFormatter(decimals);
+            for (int i = 0; i < 10000; i++) {
+                double cost = random.nextDouble() * Math.pow(10, random.nextInt(10));
+                assertEquals(decimalFormat.format(cost), costFormatter.format(cost));
+                assertEquals(decimalFormat.format(-cost), costFormatter.format(-cost));
+            }
+        }
+    }
+}
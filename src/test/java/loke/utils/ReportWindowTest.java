@@ -0,0 +1,80 @@
+package loke.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReportWindowTest {
+    private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+    @Before
+    public void setUp() throws Exception {
+        CalendarGenerator.clock = Clock.fixed(Instant.parse("2017-09-30T12:00:00Z"), ZoneId.systemDefault());
+    }
+
+    @Test
+    public void granularity_followsTheLengthOfTheWindow() throws Exception {
+        assertEquals(ReportWindow.Granularity.DAY, new ReportWindow(30).getGranularity());
+        assertEquals(ReportWindow.Granularity.WEEK, new ReportWindow(90).getGranularity());
+        assertEquals(ReportWindow.Granularity.MONTH, new ReportWindow(365).getGranularity());
+    }
+
+    @Test
+    public void getPeriods_daily_returnsEveryDay() throws Exception {
+        List<Calendar> periods = new ReportWindow(30).getPeriods();
+
+        assertEquals(30, periods.size());
+        assertEquals("2017-09-01", format(periods.get(0)));
+        assertEquals("2017-09-30", format(periods.get(29)));
+    }
+
+    @Test
+    public void getPeriods_weekly_returnsTheMondays() throws Exception {
+        List<Calendar> periods = new ReportWindow(14, ReportWindow.Granularity.WEEK).getPeriods();
+
+        assertEquals(Arrays.asList("2017-09-11", "2017-09-18", "2017-09-25"), formatAll(periods));
+    }
+
+    @Test
+    public void getPeriods_monthly_returnsTheFirstDayOfEachMonth() throws Exception {
+        ReportWindow reportWindow = new ReportWindow(40, ReportWindow.Granularity.MONTH);
+        List<Calendar> periods = reportWindow.getPeriods();
+
+        assertEquals(Arrays.asList("2017-08-01", "2017-09-01"), formatAll(periods));
+        assertEquals("Aug", reportWindow.getAxisLabel(periods.get(0)));
+    }
+
+    @Test
+    public void injectSqlConfig_replacesTheWindow() throws Exception {
+        SqlConfigInjector configInjector = new SqlConfigInjector("database", "table", new ReportWindow(365), 14);
+
+        assertEquals("SELECT date_trunc('month', cast(date_parse(usage_start_date, '%Y-%m-%d %T') AS DATE))"
+                        + " FROM database.table WHERE d > (current_date - INTERVAL '365' DAY)"
+                        + " AND s < (current_date - INTERVAL '14' DAY)",
+                configInjector.injectSqlConfig("SELECT periodstart FROM databasename.tablename"
+                        + " WHERE d > (current_date - INTERVAL 'reportdays' DAY)"
+                        + " AND s < (current_date - INTERVAL 'starteddays' DAY)"));
+    }
+
+    private List<String> formatAll(List<Calendar> periods) {
+        List<String> dates = new ArrayList<>();
+        for (Calendar period : periods) {
+            dates.add(format(period));
+        }
+        return dates;
+    }
+
+    private String format(Calendar calendar) {
+        return dateFormat.format(calendar.getTime());
+    }
+}
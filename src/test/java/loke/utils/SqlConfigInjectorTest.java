@@ -0,0 +1,104 @@
+package loke.utils;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SqlConfigInjectorTest {
+
+    @Test
+    public void injectSqlConfig_withoutWorkingTable_readsTheBillingTable() throws Exception {
+        SqlConfigInjector configInjector = new SqlConfigInjector("database", "table");
+
+        String sql = configInjector.injectSqlConfig(ResourceLoader.getResource("sql/TotalSpendPerEmployee.sql"));
+
+        assertTrue(sql.contains("FROM database.table\nWHERE blended_cost != 'BlendedCost'\n"));
+        assertTrue(sql.contains("sum(cast(blended_cost AS DOUBLE))"));
+        assertTrue(sql.contains("cast(date_parse(usage_start_date, '%Y-%m-%d %T') AS DATE) > (current_date"));
+    }
+
+    @Test
+    public void injectSqlConfig_withWorkingTable_readsTheParsedColumns() throws Exception {
+        SqlConfigInjector configInjector = new SqlConfigInjector("database", "table");
+        configInjector.setWorkingTableName("work");
+
+        String sql = configInjector.injectSqlConfig(ResourceLoader.getResource("sql/SpendPerEmployeeByResource.sql"));
+
+        assertTrue(sql.contains("sum(cost)"));
+        assertTrue(sql.contains("FROM database.work\nWHERE TRUE\n"));
+        assertTrue(sql.contains("date_trunc('day', cast(usage_start AS DATE)) AS start_date"));
+        assertFalse(sql.contains("date_parse"));
+        assertFalse(sql.contains("blended_cost"));
+    }
+
+    @Test
+    public void injectWorkingTableSql_createsTheWorkingTableFromTheBillingTable() throws Exception {
+        SqlConfigInjector configInjector = new SqlConfigInjector("database", "table");
+        configInjector.setWorkingTableName("work");
+
+        String sql = configInjector.injectWorkingTableSql(ResourceLoader.getResource("sql/ReportWorkingTable.sql"));
+
+        assertTrue(sql.contains("CREATE TABLE database.work\n"));
+        assertTrue(sql.contains("date_trunc('day', cast(date_parse(usage_start_date, '%Y-%m-%d %T') AS DATE))"
+                + "     AS usage_start"));
+        assertTrue(sql.contains("sum(cast(blended_cost AS DOUBLE))  AS cost"));
+        assertTrue(sql.contains("FROM database.table\nWHERE blended_cost != 'BlendedCost'\n"));
+        assertTrue(sql.contains("INTERVAL '30' DAY)"));
+    }
+
+    @Test
+    public void injectWorkingTableSql_hourlyWindow_sumsTheSpendPerHour() throws Exception {
+        SqlConfigInjector configInjector = new SqlConfigInjector("database", "table",
+                new ReportWindow(7, ReportWindow.Granularity.HOUR), 7);
+        configInjector.setWorkingTableName("work");
+
+        String sql = configInjector.injectWorkingTableSql(ResourceLoader.getResource("sql/ReportWorkingTable.sql"));
+
+        assertTrue(sql.contains("date_trunc('hour', date_parse(usage_start_date, '%Y-%m-%d %T'))     AS usage_start"));
+    }
+
+    @Test
+    public void injectSqlConfig_weeklyWindowWithWorkingTable_rollsUpTheDailySums() throws Exception {
+        SqlConfigInjector configInjector = new SqlConfigInjector("database", "table",
+                new ReportWindow(90, ReportWindow.Granularity.WEEK), 7);
+        configInjector.setWorkingTableName("work");
+
+        String sql = configInjector.injectSqlConfig(ResourceLoader.getResource("sql/TotalSpendPerEmployee.sql"));
+
+        assertTrue(sql.contains("FROM database.work\n"));
+        assertTrue(sql.contains("date_trunc('week', cast(usage_start AS DATE)) AS start_date"));
+    }
+
+    @Test
+    public void injectSqlConfig_partitioned_keepsTheMonthsOfTheWindow() throws Exception {
+        CalendarGenerator.clock = Clock.fixed(Instant.parse("2017-10-10T12:00:00Z"), ZoneId.of("UTC"));
+        try {
+            SqlConfigInjector configInjector = new SqlConfigInjector("database", "table");
+            configInjector.setPartitioned(true);
+            configInjector.setOwnerRegExp("^john.*$");
+
+            String sql = configInjector.injectSqlConfig(ResourceLoader.getResource("sql/TotalSpendPerEmployee.sql"));
+
+            assertTrue(sql.contains("AND ((year = '2017' AND month IN ('09', '10')))\n"));
+            assertTrue(sql.contains("AND regexp_like(user_owner, '^(?:^john.*$)$')\n"));
+        } finally {
+            CalendarGenerator.clock = Clock.systemDefaultZone();
+        }
+    }
+
+    @Test
+    public void injectPartitionSql_registersThePartitionLocation() throws Exception {
+        SqlConfigInjector configInjector = new SqlConfigInjector("database", "table");
+
+        String sql = configInjector.injectPartitionSql(ResourceLoader.getResource("sql/AddBillingPartition.sql"),
+                BillingPartition.fromFileName("123-2017-09.csv.gz"), "s3://bucket/year=2017/month=09/");
+
+        assertTrue(sql.contains("ALTER TABLE database.table ADD IF NOT EXISTS\n"
+                + "PARTITION (year = '2017', month = '09') LOCATION 's3://bucket/year=2017/month=09/';"));
+    }
+}
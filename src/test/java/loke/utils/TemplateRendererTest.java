@@ -0,0 +1,50 @@
+package loke.utils;
+
+import org.apache.velocity.VelocityContext;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TemplateRendererTest {
+
+    @Test
+    public void getInstance_returnsTheSameRenderer() throws Exception {
+        assertSame(TemplateRenderer.getInstance(), TemplateRenderer.getInstance());
+    }
+
+    @Test
+    public void merge_writesToTheGivenWriter() throws Exception {
+        assertEquals("Hello john.doe, you spent $10.00\n", render("john.doe"));
+    }
+
+    @Test
+    public void merge_concurrentMerges_doNotMixUpContexts() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String name = "user" + i;
+            results.add(executorService.submit(() -> render(name)));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals("Hello user" + i + ", you spent $10.00\n", results.get(i).get());
+        }
+        executorService.shutdown();
+    }
+
+    private String render(String name) {
+        VelocityContext context = new VelocityContext();
+        context.put("name", name);
+        context.put("cost", "10.00");
+        StringWriter writer = new StringWriter();
+        TemplateRenderer.getInstance().merge("templates/test.vm", context, writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,38 @@
+package loke.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TopKTest {
+
+    @Test
+    public void offer_keepsTheLargestItems() throws Exception {
+        TopK<String> topK = new TopK<>(2);
+
+        assertNull(topK.offer("S3", 200));
+        assertNull(topK.offer("EC2", 100));
+        assertEquals("EC2", topK.offer("Elastic Map Reduce", 20000));
+        assertEquals("Lambda", topK.offer("Lambda", 1));
+
+        assertEquals(Arrays.asList("Elastic Map Reduce", "S3"), topK.getTop());
+        assertEquals(2, topK.getDroppedCount());
+    }
+
+    @Test
+    public void offer_withoutLimit_keepsEveryItem() throws Exception {
+        TopK<String> topK = new TopK<>(0);
+        for (int i = 0; i < 100; i++) {
+            assertNull(topK.offer("resource" + i, i));
+        }
+
+        List<String> top = topK.getTop();
+        assertEquals(100, top.size());
+        assertEquals("resource99", top.get(0));
+        assertEquals(0, topK.getDroppedCount());
+    }
+}